@@ -1,15 +1,20 @@
 package fr.labri.harmony.analysis.cloc;
 
+import fr.labri.harmony.core.analysis.SamplingPolicy;
 import fr.labri.harmony.core.analysis.SingleSourceAnalysis;
 import fr.labri.harmony.core.config.model.AnalysisConfiguration;
 import fr.labri.harmony.core.dao.Dao;
+import fr.labri.harmony.core.log.HarmonyLogger;
 import fr.labri.harmony.core.model.Event;
 import fr.labri.harmony.core.model.Source;
+import fr.labri.harmony.core.source.AbstractLocalWorkspace;
+import fr.labri.harmony.core.source.Snapshot;
 import fr.labri.harmony.core.source.WorkspaceException;
 
 
 /**
- * Counts the lines of code at the <strong>each</strong> commit of the source repository. <br>
+ * Counts the lines of code at the <strong>each</strong> commit of the source repository, or at the commits selected by
+ * the <code>sampling</code> option (see {@link SamplingPolicy}). <br>
  * Requires that the cloc program is installed on your machine (and added to the path). <br>
  * cloc is available at http://cloc.sourceforge.net/
  * 
@@ -28,11 +33,16 @@ public class ClocAnalysis extends SingleSourceAnalysis {
 
 	@Override
 	public void runOn(Source src) throws WorkspaceException {
-		String workspacePath = src.getWorkspace().getPath();
-		for (Event ev : src.getEvents()) {
-			src.getWorkspace().update(ev);
-			ClocEntries entries = ClocRunner.runCloc(workspacePath);
-			if (entries != null) dao.saveData(this.getPersistenceUnitName(), entries, ev);
+		SamplingPolicy samplingPolicy = config.getSamplingPolicy();
+		for (Event ev : dao.getEvents(src, samplingPolicy)) {
+			try (Snapshot snapshot = src.getWorkspace().getSnapshot(ev)) {
+				ClocEntries entries = ClocRunner.runCloc(snapshot.getPath());
+				if (entries != null) dao.saveData(this.getPersistenceUnitName(), entries, ev, samplingPolicy);
+			}
+		}
+		if (src.getWorkspace() instanceof AbstractLocalWorkspace) {
+			AbstractLocalWorkspace workspace = (AbstractLocalWorkspace) src.getWorkspace();
+			HarmonyLogger.info("%d incremental workspace updates, %d bytes written", workspace.getIncrementalUpdates(), workspace.getBytesWritten());
 		}
 	}
 
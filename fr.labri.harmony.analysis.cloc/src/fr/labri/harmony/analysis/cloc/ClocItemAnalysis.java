@@ -15,6 +15,7 @@ import fr.labri.harmony.core.dao.Dao;
 import fr.labri.harmony.core.model.Event;
 import fr.labri.harmony.core.model.Item;
 import fr.labri.harmony.core.model.Source;
+import fr.labri.harmony.core.source.Snapshot;
 
 /**
  * Compute the number of lines of code per Item (i.e. per file) at a given commit (by default the last commit available)
@@ -44,37 +45,37 @@ public class ClocItemAnalysis extends SingleSourceAnalysis {
 			selectedEvent = commits.get(commits.size() - 1);
 		}
 
-		src.getWorkspace().update(selectedEvent);
+		try (Snapshot snapshot = src.getWorkspace().getSnapshot(selectedEvent)) {
+			final Path workspacePath = Paths.get(snapshot.getPath());
+			Files.walkFileTree(workspacePath, new FileVisitor<Path>() {
 
-		final Path workspacePath = Paths.get(src.getWorkspace().getPath());
-		Files.walkFileTree(workspacePath, new FileVisitor<Path>() {
-
-			@Override
-			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-				return FileVisitResult.CONTINUE;
-			}
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					return FileVisitResult.CONTINUE;
+				}
 
-			@Override
-			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-				String nativeId = workspacePath.relativize(file).toString().replace("\\", "/");
-				Item i = dao.getItem(src, nativeId);
-				if (i != null) {
-					ClocEntries clocEntries = ClocRunner.runCloc(file.toAbsolutePath().toString());
-					dao.saveData(getPersistenceUnitName(), clocEntries, i);
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+					String nativeId = workspacePath.relativize(file).toString().replace("\\", "/");
+					Item i = dao.getItem(src, nativeId);
+					if (i != null) {
+						ClocEntries clocEntries = ClocRunner.runCloc(file.toAbsolutePath().toString());
+						dao.saveData(getPersistenceUnitName(), clocEntries, i);
+					}
+					return FileVisitResult.CONTINUE;
 				}
-				return FileVisitResult.CONTINUE;
-			}
 
-			@Override
-			public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
-				return FileVisitResult.CONTINUE;
-			}
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) throws IOException {
+					return FileVisitResult.CONTINUE;
+				}
 
-			@Override
-			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
-				return FileVisitResult.CONTINUE;
-			}
-		});
+				@Override
+				public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
 	}
 
 }
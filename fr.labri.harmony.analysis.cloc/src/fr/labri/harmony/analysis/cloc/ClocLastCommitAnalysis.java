@@ -7,6 +7,7 @@ import fr.labri.harmony.core.config.model.AnalysisConfiguration;
 import fr.labri.harmony.core.dao.Dao;
 import fr.labri.harmony.core.model.Event;
 import fr.labri.harmony.core.model.Source;
+import fr.labri.harmony.core.source.Snapshot;
 
 /**
  * Counts the lines of code at the last commit of the source repository. <br>
@@ -30,9 +31,10 @@ public class ClocLastCommitAnalysis extends SingleSourceAnalysis {
 		List<Event> commits = dao.getEvents(src);
 		Event lastCommit = commits.get(commits.size() - 1);
 
-		src.getWorkspace().update(lastCommit);
-		ClocEntries entries = ClocRunner.runCloc(src.getWorkspace().getPath());
-		if (entries != null) dao.saveData(this.getPersistenceUnitName(), entries, src);
+		try (Snapshot snapshot = src.getWorkspace().getSnapshot(lastCommit)) {
+			ClocEntries entries = ClocRunner.runCloc(snapshot.getPath());
+			if (entries != null) dao.saveData(this.getPersistenceUnitName(), entries, src);
+		}
 	}
 
 }
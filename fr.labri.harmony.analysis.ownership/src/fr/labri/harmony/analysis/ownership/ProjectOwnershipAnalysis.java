@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import fr.labri.harmony.analysis.ownership.contributions.Contribution;
 import fr.labri.harmony.analysis.ownership.contributions.ModuleContributions;
@@ -40,9 +41,11 @@ public class ProjectOwnershipAnalysis extends SingleSourceAnalysis {
 
 		ArrayList<String> snapshotsNativeIds = (ArrayList<String>) src.getConfig().getOptions().get(OPT_SNAPSHOTS_COMMITS);
 		if (snapshotsNativeIds != null && !snapshotsNativeIds.isEmpty()) {
+			// The snapshots can be given by commit or by tag
+			Map<String, Event> snapshots = dao.getEvents(src, snapshotsNativeIds);
 			String currentVersion = snapshotsNativeIds.get(0);
 
-			Event currentVersionEvent = dao.getEvent(src, currentVersion);
+			Event currentVersionEvent = snapshots.get(currentVersion);
 			if (currentVersionEvent == null) {
 				HarmonyLogger.error("Could not find snapshot " + currentVersion + " in source " + src.getUrl());
 				return;
@@ -51,7 +54,7 @@ public class ProjectOwnershipAnalysis extends SingleSourceAnalysis {
 
 			if (snapshotsNativeIds.size() > 1) {
 				String previousVersion = snapshotsNativeIds.get(1);
-				Event previousVersionEvent = dao.getEvent(src, previousVersion);
+				Event previousVersionEvent = snapshots.get(previousVersion);
 				if (previousVersionEvent == null) {
 					HarmonyLogger.error("Could not find snapshot " + previousVersion + " in source " + src.getUrl());
 					return;
@@ -42,6 +42,11 @@ public class Counters<K> implements Iterable<Entry<K, AtomicLong>> {
 		return l;
 	}
 
+	public void addAll(Counters<K> other) {
+		for (Entry<K, AtomicLong> e : other)
+			add(e.getKey(), e.getValue().get());
+	}
+
 	public Long total() {
 		long res = 0;
 		for (Entry<K, AtomicLong> e : _counters.entrySet())
@@ -44,6 +44,11 @@ public class Timer<K>  implements Iterable<Entry<K, Aggregator>>{
 		};
 	}
 
+	public void addAll(Timer<K> other) {
+		for (Entry<K, Aggregator> e : other)
+			getAggregator(e.getKey()).add(e.getValue().total());
+	}
+
 	public long get(K key) {
 		return toMili(getAggregator(key).total());
 	}
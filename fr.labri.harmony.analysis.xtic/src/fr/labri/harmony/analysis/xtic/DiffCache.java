@@ -0,0 +1,199 @@
+package fr.labri.harmony.analysis.xtic;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import org.xerial.snappy.Snappy;
+
+import fr.labri.harmony.analysis.xtic.aptitude.Parser;
+
+/**
+ * Caches the XML diffs computed by {@link DiffProducer}, keyed by the contents of the two versions of the file, the
+ * parser and its options. The same pair of versions is then parsed and matched only once, whatever the number of
+ * actions, parents and patterns it appears in. <br>
+ * The most recently used diffs are kept in memory, up to a number of characters. If a directory is given, the diffs are
+ * also stored on disk, compressed, so that they are reused by the next runs of xtic on the same source. The files on disk
+ * are bounded in bytes: when they exceed the bound, the least recently used ones are deleted. The runs sharing the
+ * directory do not see each other's writes, so the bound is only approximate for concurrent runs.
+ */
+public class DiffCache {
+
+	private long maxSize;
+	private File dir;
+
+	private LinkedHashMap<String, String> diffs = new LinkedHashMap<>(16, 0.75f, true);
+	private long size;
+
+	private long maxDiskSize;
+	private long diskSize = -1;
+
+	/**
+	 * @param maxSize
+	 *            The number of characters of the diffs kept in memory
+	 * @param dir
+	 *            The directory of the on-disk cache, null to only keep the diffs in memory
+	 * @param maxDiskSize
+	 *            The number of bytes of the files of the on-disk cache
+	 */
+	public DiffCache(long maxSize, File dir, long maxDiskSize) {
+		this.maxSize = maxSize;
+		this.dir = dir;
+		this.maxDiskSize = maxDiskSize;
+	}
+
+	/**
+	 * @param content
+	 * @return The identity of a version of a file
+	 */
+	public static String hash(String content) {
+		return sha1(content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param parser
+	 * @param targetNewFile
+	 * @param oldHash
+	 *            The {@link #hash(String)} of the old version, null if the diff has no old version
+	 * @param newHash
+	 *            The {@link #hash(String)} of the new version
+	 * @return The key of the diff of the given versions
+	 */
+	public static String key(Parser parser, boolean targetNewFile, String oldHash, String newHash) {
+		String key = parser.name() + new TreeMap<>(parser.getOptions()) + targetNewFile + ":" + (oldHash == null ? "-" : oldHash) + ":" + newHash;
+		return sha1(key.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param key
+	 * @return The cached diff, or null if it has to be computed
+	 */
+	public String get(String key) {
+		synchronized (this) {
+			String diff = diffs.get(key);
+			if (diff != null) return diff;
+		}
+		if (dir == null) return null;
+		File file = getFile(key);
+		if (!file.exists()) return null;
+		try {
+			String diff = new String(Snappy.uncompress(Files.readAllBytes(file.toPath())), StandardCharsets.UTF_8);
+			// The date of the file is the date of its last use
+			file.setLastModified(System.currentTimeMillis());
+			putInMemory(key, diff);
+			return diff;
+		} catch (IOException e) {
+			// A corrupted entry is computed again
+			file.delete();
+			return null;
+		}
+	}
+
+	public void put(String key, String diff) {
+		putInMemory(key, diff);
+		if (dir == null) return;
+		File file = getFile(key);
+		if (file.exists()) return;
+		try {
+			file.getParentFile().mkdirs();
+			// Written aside then moved, so that concurrent runs never read a partial entry
+			File tmp = File.createTempFile(key, ".tmp", file.getParentFile());
+			Files.write(tmp.toPath(), Snappy.compress(diff.getBytes(StandardCharsets.UTF_8)));
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			addToDisk(file.length());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Deletes the least recently used files when the files exceed {@link #maxDiskSize}, down to 90% of it so that the
+	 * directory is not listed at every write
+	 */
+	private synchronized void addToDisk(long length) {
+		if (diskSize < 0) {
+			diskSize = 0;
+			for (File file : listFiles())
+				diskSize += file.length();
+		} else
+			diskSize += length;
+		if (diskSize <= maxDiskSize)
+			return;
+		List<File> files = listFiles();
+		// The dates are read once, as they may change while sorting
+		final Map<File, Long> dates = new HashMap<>();
+		for (File file : files)
+			dates.put(file, file.lastModified());
+		Collections.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				return Long.compare(dates.get(a), dates.get(b));
+			}
+		});
+		for (File file : files) {
+			if (diskSize <= maxDiskSize * 9 / 10)
+				break;
+			long fileLength = file.length();
+			if (file.delete())
+				diskSize -= fileLength;
+		}
+	}
+
+	private List<File> listFiles() {
+		List<File> files = new ArrayList<>();
+		File[] prefixes = dir.listFiles();
+		if (prefixes == null)
+			return files;
+		for (File prefix : prefixes) {
+			File[] entries = prefix.listFiles();
+			if (entries == null)
+				continue;
+			for (File entry : entries)
+				if (!entry.getName().endsWith(".tmp"))
+					files.add(entry);
+		}
+		return files;
+	}
+
+	private synchronized void putInMemory(String key, String diff) {
+		String previous = diffs.put(key, diff);
+		if (previous != null) size -= previous.length();
+		size += diff.length();
+		Iterator<Entry<String, String>> it = diffs.entrySet().iterator();
+		while (size > maxSize && it.hasNext()) {
+			size -= it.next().getValue().length();
+			it.remove();
+		}
+	}
+
+	private File getFile(String key) {
+		return new File(new File(dir, key.substring(0, 2)), key);
+	}
+
+	private static String sha1(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+			StringBuilder b = new StringBuilder();
+			for (byte d : digest)
+				b.append(String.format("%02x", d));
+			return b.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -2,7 +2,6 @@ package fr.labri.harmony.analysis.xtic;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
 import java.util.Map;
 
 import fr.labri.gumtree.algo.LcsMatcherOptimize;
@@ -16,60 +15,92 @@ import fr.labri.harmony.analysis.xtic.aptitude.Parser;
 
 public abstract class DiffProducer {
 
-	public abstract String computeDiffToXml(File oldFile, File newFile, boolean targetNewFile);
+	/**
+	 * @param oldFile
+	 *            Null if there is no old version
+	 * @param oldKey
+	 *            The {@link TreeCache#key(Parser, String)} of the old version, null if there is none
+	 * @param newFile
+	 * @param newKey
+	 *            The {@link TreeCache#key(Parser, String)} of the new version
+	 * @param targetNewFile
+	 * @return The XML of the tree of the targeted version, with the mappings of its nodes
+	 */
+	public abstract String computeDiffToXml(File oldFile, String oldKey, File newFile, String newKey, boolean targetNewFile);
 
-	private static Map<String,String> options = new HashMap<String, String>();
+	/**
+	 * The options of the parser are given to each producer, so that several diffs can be computed concurrently
+	 */
+	protected final Map<String,String> options;
 
-	public static DiffProducer Factory(Parser p) {
+	/**
+	 * The trees already parsed, null if they are not kept
+	 */
+	protected final TreeCache trees;
+
+	protected DiffProducer(Map<String, String> options, TreeCache trees) {
+		this.options = options;
+		this.trees = trees;
+	}
+
+	public static DiffProducer Factory(Parser p, TreeCache trees) {
 		switch (p) {
 		case JAVA:
-			options = p.getOptions();
-			return diffJAVA;
+			return new DiffTreeProducer(p.getOptions(), trees) {
+				@Override
+				public String computeDiffToXml(File oldFile, String oldKey, File newFile, String newKey, boolean targetNewFile) {
+					return computeTree(oldFile, oldKey, newFile, newKey, targetNewFile, new JdtTreeGenerator(), options, trees);
+				}
+			};
 		case JS:
-			options = p.getOptions();
-			return diffJS;
+			return new DiffTreeProducer(p.getOptions(), trees) {
+				@Override
+				public String computeDiffToXml(File oldFile, String oldKey, File newFile, String newKey, boolean targetNewFile) {
+					return computeTree(oldFile, oldKey, newFile, newKey, targetNewFile, new RhinoTreeGenerator(), options, trees);
+				}
+			};
 		case XML:
-			options = p.getOptions();
-			return diffXML;
+			return new DiffTreeProducer(p.getOptions(), trees) {
+				@Override
+				public String computeDiffToXml(File oldFile, String oldKey, File newFile, String newKey, boolean targetNewFile) {
+					return computeTree(oldFile, oldKey, newFile, newKey, targetNewFile, new XMLTreeGenerator(), options, trees);
+				}
+			};
 		}
 		return null;
 	}
 
-	final static DiffProducer diffJS = new DiffTreeProducer () {
-		@Override
-		public String computeDiffToXml(File oldFile, File newFile, boolean targetNewFile) {
-			return computeTree(oldFile, newFile, targetNewFile, new RhinoTreeGenerator());
-		}
-	};
-
-	final static DiffProducer diffXML = new DiffTreeProducer() {
-		@Override
-		public String computeDiffToXml(File oldFile, File newFile, boolean targetNewFile) {
-			return computeTree(oldFile, newFile, targetNewFile, new XMLTreeGenerator());
-		}
-	};
-
-	final static DiffProducer diffJAVA = new  DiffTreeProducer() {
-		@Override
-		public String computeDiffToXml(File oldFile, File newFile, boolean targetNewFile) {
-			return computeTree(oldFile, newFile, targetNewFile, new JdtTreeGenerator());
-		}
-	};
+	/**
+	 * @return The tree of the file, parsed or copied from the cache, or null if it cannot be parsed
+	 */
+	private static Tree generate(File file, String key, XTicTreeGenerator generator, Map<String, String> options, TreeCache trees) throws IOException {
+		if (trees == null)
+			return generator.generate(file.toString(), options);
+		Tree tree = trees.get(key);
+		if (tree != null)
+			return tree;
+		tree = generator.generate(file.toString(), options);
+		if (tree == null)
+			return null;
+		// The cached tree is never given to the matcher
+		trees.put(key, tree.deepCopy());
+		return tree;
+	}
 
-	private static String computeTree(File oldFile, File newFile, boolean targetNewFile, XTicTreeGenerator generator) {
+	private static String computeTree(File oldFile, String oldKey, File newFile, String newKey, boolean targetNewFile, XTicTreeGenerator generator, Map<String, String> options, TreeCache trees) {
 		try {
 			
 			String xml = "";
 			if (oldFile == null) {
-				Tree dst = generator.generate(newFile.toString(), options);
+				Tree dst = generate(newFile, newKey, generator, options, trees);
 				if (dst == null)
 					return "";
 				xml = MappingIoUtils.writeXML(dst, null, true);
 			} else {
-				Tree src = generator.generate(oldFile.toString(), options);
+				Tree src = generate(oldFile, oldKey, generator, options, trees);
 				if (src == null)
 					return "";
-				Tree dst = generator.generate(newFile.toString(), options);
+				Tree dst = generate(newFile, newKey, generator, options, trees);
 				if (dst == null)
 					return "";
 				if(targetNewFile) {
@@ -91,6 +122,11 @@ public abstract class DiffProducer {
 	}
 
 	private static abstract class DiffTreeProducer extends DiffProducer {
+
+		DiffTreeProducer(Map<String, String> options, TreeCache trees) {
+			super(options, trees);
+		}
+
 		/*
 		 * Delegates to the GumTree project
 		 * see https://code.google.com/p/labri-se/source/checkout?repo=gumtree
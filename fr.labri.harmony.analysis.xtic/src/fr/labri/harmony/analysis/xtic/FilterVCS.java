@@ -2,16 +2,15 @@ package fr.labri.harmony.analysis.xtic;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import org.xerial.snappy.Snappy;
 
@@ -28,6 +27,11 @@ public class FilterVCS implements FilterXTic {
 	static boolean toCompute = true;
 	static final double NCD_MIN = 0.00D;
 	static final double NCD_MAX = 0.25D;
+	/**
+	 * Above this number of pairs of deleted and created files with the same extension, only the pairs shortlisted by
+	 * {@link MinHash} are compared
+	 */
+	static final int EXHAUSTIVE_PAIRS = 1024;
 	List<PatternAptitude> _patterns = new ArrayList<PatternAptitude>();
 
 	public FilterVCS(List<PatternAptitude> patterns) {
@@ -55,40 +59,10 @@ public class FilterVCS implements FilterXTic {
 		String localpath = src.getWorkspace().getPath() + "/";
 
 		if (deleteContent && addedContent) {
-			Map<File, Action> itemIds = new HashMap<File, Action>();
-			Set<File> deleted = new HashSet<>();
-			for (Action a : actions) {
-				if (a.getKind().equals(ActionKind.Delete)){
-					if (new File(localpath + a.getItem().getNativeId()).isDirectory())
-						continue;
-					for(PatternAptitude pattern : _patterns) {
-						if(pattern.acceptFile(a, a)) {
-							File p = analyse.checkoutFile(parent, a, "v0", "checkout_vcs");
-							deleted.add(p);
-							itemIds.put(p, a); 
-							break;
-						}
-					}
-				}
-			}
-			Set<File> created = new HashSet<>();
-			for (Action a : actions) {
-				if (a.getKind().equals(ActionKind.Create)) {
-					if (new File(localpath + a.getItem().getNativeId()).isDirectory())
-						continue;
-					for(PatternAptitude pattern : _patterns) {
-						if(pattern.acceptFile(a, a)) {
-							File p = analyse.checkoutFile(event, a, "v1", "checkout_vcs");
-							created.add(p);
-							itemIds.put(p, a);
-							break;
-						}
-					}
-				}
-			}
-
 			TimerToken ncd = analyse._timer.start("ncd");
-			Map<Action,Action> renamed = bestNCD(actions, itemIds, created, deleted);
+			List<Blob> deleted = readAccepted(analyse, actions, ActionKind.Delete, localpath);
+			List<Blob> created = readAccepted(analyse, actions, ActionKind.Create, localpath);
+			Map<Action,Action> renamed = bestNCD(analyse, created, deleted);
 			ncd.stop();
 
 			return renamed;
@@ -96,135 +70,225 @@ public class FilterVCS implements FilterXTic {
 		return null;
 	}
 
-	Map<Action,Action> bestNCD(List<Action> actions, Map<File, Action> itemIds, Set<File> created, Set<File> deleted) {
+	/**
+	 * @return The contents of the files of the actions of the given kind accepted by a pattern, before a deletion and
+	 *         after a creation
+	 */
+	private List<Blob> readAccepted(AnalyseSource analyse, List<Action> actions, ActionKind kind, String localpath) {
+		List<Blob> blobs = new ArrayList<>();
+		for (Action a : actions) {
+			if (a.getKind().equals(kind)) {
+				if (new File(localpath + a.getItem().getNativeId()).isDirectory())
+					continue;
+				for(PatternAptitude pattern : _patterns) {
+					if(pattern.acceptFile(a, a)) {
+						String content = analyse.readContent(a, kind.equals(ActionKind.Create));
+						if (content != null)
+							blobs.add(new Blob(a, content));
+						break;
+					}
+				}
+			}
+		}
+		return blobs;
+	}
+
+	/**
+	 * Pairs the deleted and created files with the lowest NCD first, each file being paired at most once. The candidate
+	 * pairs have the same extension, and are shortlisted with {@link MinHash} when there are too many of them to be all
+	 * compared.
+	 */
+	Map<Action,Action> bestNCD(AnalyseSource analyse, List<Blob> created, List<Blob> deleted) {
 		// Mappings between deleted et created pour choper les move et rename
+		Map<String, List<Blob>> deletedByExtension = byExtension(deleted);
+		Map<String, List<Blob>> createdByExtension = byExtension(created);
+		List<Blob> compared = new ArrayList<>();
+		Set<Blob> signed = new HashSet<>();
+		for (Map.Entry<String, List<Blob>> e : deletedByExtension.entrySet()) {
+			List<Blob> cres = createdByExtension.get(e.getKey());
+			if (cres != null) {
+				compared.addAll(e.getValue());
+				compared.addAll(cres);
+				if (e.getValue().size() * cres.size() > EXHAUSTIVE_PAIRS) {
+					signed.addAll(e.getValue());
+					signed.addAll(cres);
+				}
+			}
+		}
+		prepare(analyse, compared, signed);
 
-		Map<Action,Action> renamed = new HashMap<Action, Action>();
-		Map<File, File> best_cdt = computeNCDScore(created, deleted);
-		for (File p : deleted) {
-			if (best_cdt.containsKey(p)) {
-				if (p.equals(best_cdt.get(best_cdt.get(p)))) {
-					for (Action a : actions) {
-						if (a.getItem().getNativeId().equals(itemIds.get(best_cdt.get(p)).getItem().getNativeId())) {
-							renamed.put(a,itemIds.get(p));
-							a.setKind(ActionKind.Edit);
-							break;
-						}
-					}
+		List<Callable<List<Match>>> tasks = new ArrayList<>();
+		for (Map.Entry<String, List<Blob>> e : deletedByExtension.entrySet()) {
+			List<Blob> dels = e.getValue();
+			List<Blob> cres = createdByExtension.get(e.getKey());
+			if (cres == null)
+				continue;
+			if (dels.size() * cres.size() <= EXHAUSTIVE_PAIRS) {
+				for (Blob del : dels)
+					tasks.add(new ComputeNCD(del, cres));
+			} else {
+				List<long[]> delSignatures = new ArrayList<>();
+				for (Blob del : dels)
+					delSignatures.add(del.signature);
+				List<long[]> creSignatures = new ArrayList<>();
+				for (Blob cre : cres)
+					creSignatures.add(cre.signature);
+				List<Set<Integer>> candidates = MinHash.candidates(delSignatures, creSignatures);
+				for (int i = 0; i < dels.size(); i++) {
+					List<Blob> shortlist = new ArrayList<>();
+					for (int c : candidates.get(i))
+						shortlist.add(cres.get(c));
+					if (!shortlist.isEmpty())
+						tasks.add(new ComputeNCD(dels.get(i), shortlist));
 				}
 			}
 		}
+		List<Match> matches = new ArrayList<>();
+		for (List<Match> m : analyse.invokeAll(tasks))
+			matches.addAll(m);
+
+		Collections.sort(matches);
+		Map<Action,Action> renamed = new HashMap<Action, Action>();
+		Set<Action> paired = new HashSet<>();
+		for (Match m : matches) {
+			if (paired.contains(m.deleted.action) || paired.contains(m.created.action))
+				continue;
+			paired.add(m.deleted.action);
+			paired.add(m.created.action);
+			renamed.put(m.created.action, m.deleted.action);
+			m.created.action.setKind(ActionKind.Edit);
+		}
 		return renamed;
 	}
 
-	private Map<File, File> computeNCDScore(Set<File> created, Set<File> deleted) {
-		Map<File, File> best_cdt = new HashMap<File, File>();
-		Map<File, Double> best_score = new HashMap<File, Double>();
-		Map<File, String> index_content = new HashMap<File, String>();
-		Map<File, Integer> index_score = new HashMap<File, Integer>();
-		for (File del : deleted) {
-			for (File cre : created) {
-				double value = NCDUtils.computeNCD(del, cre, index_content, index_score);
-				if (value >= NCD_MIN && value <= NCD_MAX) {
-					if (best_cdt.containsKey(del)) {
-						if ((best_score.get(del) > value)) {
-							best_cdt.put(del, cre);
-							best_score.put(del, value);
-						}
-					} else {
-						best_cdt.put(del, cre);
-						best_score.put(del, value);
-					}
-					if (best_cdt.containsKey(cre)) {
-						if ((best_score.get(cre) > value)) {
-							best_cdt.put(cre, del);
-							best_score.put(cre, value);
-						}
-					} else {
-						best_cdt.put(cre, del);
-						best_score.put(cre, value);
+	private static Map<String, List<Blob>> byExtension(List<Blob> blobs) {
+		Map<String, List<Blob>> byExtension = new HashMap<>();
+		for (Blob b : blobs) {
+			String path = b.action.getItem().getNativeId();
+			// The files without extension are never paired, as their NCD is 1
+			if (path.lastIndexOf(".") == -1)
+				continue;
+			String extension = path.substring(path.lastIndexOf("."));
+			if (!byExtension.containsKey(extension))
+				byExtension.put(extension, new ArrayList<Blob>());
+			byExtension.get(extension).add(b);
+		}
+		return byExtension;
+	}
+
+	/**
+	 * Computes the compressed size of the files, reused from a previous event when the same content was already seen,
+	 * and their signature when they are part of a group too large to be compared exhaustively
+	 */
+	private void prepare(final AnalyseSource analyse, List<Blob> blobs, final Set<Blob> signed) {
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (final Blob b : blobs) {
+			tasks.add(new Callable<Void>() {
+				@Override
+				public Void call() {
+					String hash = DiffCache.hash(b.content);
+					Integer size = analyse._compressedSizes.get(hash);
+					if (size == null) {
+						size = NCDUtils.C(b.bytes);
+						analyse._compressedSizes.put(hash, size);
 					}
+					b.compressedSize = size;
+					if (signed.contains(b))
+						b.signature = MinHash.signature(b.content);
+					return null;
 				}
-			}
+			});
 		}
-		index_content.clear();
-		return best_cdt;
+		analyse.invokeAll(tasks);
 	}
-}
 
+	/**
+	 * The content of the file of a deleted or created action
+	 */
+	static class Blob {
+		final Action action;
+		final String content;
+		final byte[] bytes;
+		int compressedSize;
+		long[] signature;
 
-class NCDUtils {
+		Blob(Action action, String content) {
+			this.action = action;
+			this.content = content;
+			this.bytes = content.getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
+	static class Match implements Comparable<Match> {
+		final Blob deleted;
+		final Blob created;
+		final double score;
 
-	static public Double computeNCD(File source, File target, Map<File, String> index_content, Map<File, Integer> index_score) {
-		if (source.toString().lastIndexOf(".") == -1)
-			return 1.0;
-		if (target.toString().lastIndexOf(".") == -1)
-			return 1.0;
-		String ext1 = source.toString().substring(source.toString().lastIndexOf("."));
-		String ext2 = target.toString().substring(target.toString().lastIndexOf("."));
-		if (ext1.equals(ext2) == false) {
-			return 1.0;
+		Match(Blob deleted, Blob created, double score) {
+			this.deleted = deleted;
+			this.created = created;
+			this.score = score;
 		}
 
-		String x, y;
-		int cx, cy;
-		try {
-			if (index_content.containsKey(source)) {
-				x = index_content.get(source);
-				cx = index_score.get(source);
-			} else {
-				x = Charset.forName("UTF-8").decode(ByteBuffer.wrap(Files.readAllBytes(Paths.get(source.getAbsolutePath())))).toString();
-				index_content.put(source, x);
-				cx = C(x);
-				index_score.put(source, cx);
-			}
-			if (index_content.containsKey(target)) {
-				y = index_content.get(target);
-				cy = index_score.get(target);
-			} else {
-				y = Charset.forName("UTF-8").decode(ByteBuffer.wrap(Files.readAllBytes(Paths.get(target.getAbsolutePath())))).toString();
-				index_content.put(target, y);
-				cy = C(y);
-				index_score.put(target, cy);
-			}
-			int cxy = C(x + y);
-			return (cxy - (double) Math.min(cx, cy)) / Math.max(cx, cy);
-		} catch (IOException e) {
-			e.printStackTrace();
+		@Override
+		public int compareTo(Match o) {
+			int c = Double.compare(score, o.score);
+			if (c == 0)
+				c = deleted.action.getItem().getNativeId().compareTo(o.deleted.action.getItem().getNativeId());
+			if (c == 0)
+				c = created.action.getItem().getNativeId().compareTo(o.created.action.getItem().getNativeId());
+			return c;
 		}
-		return 1.0;
 	}
 
-	static private int C(String inputString) {
-		try {
-			byte[] compressed = Snappy.compress(inputString);
-			return compressed.length;
-		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+	/**
+	 * Computes the NCD of a deleted file with its candidates, keeping the pairs close enough to be a rename
+	 */
+	static class ComputeNCD implements Callable<List<Match>> {
+		private final Blob deleted;
+		private final List<Blob> candidates;
+
+		ComputeNCD(Blob deleted, List<Blob> candidates) {
+			this.deleted = deleted;
+			this.candidates = candidates;
 		}
-		return 0;
-	}
 
-	public static void main(String[] args) {
-		File source = new File("/home/cedric/gitTest/gitTest/Test/src/labri/harmony/Foo.java");
-		File target = new File("/home/cedric/gitTest/gitTest/Test/src/labri/harmony/xtic/Foo.java");
-		String x, y;
-		int cx, cy;
-		try {
-			x = Charset.forName("UTF-8").decode(ByteBuffer.wrap(Files.readAllBytes(Paths.get(source.getAbsolutePath())))).toString();
-			y = Charset.forName("UTF-8").decode(ByteBuffer.wrap(Files.readAllBytes(Paths.get(target.getAbsolutePath())))).toString();
-			cy = C(y);
-			cx = C(x);	
-			int cxy = C(x + y);
-			double score = (cxy - (double) Math.min(cx, cy)) / Math.max(cx, cy);
-			System.out.println(score);
-		} catch (IOException e) {
-			e.printStackTrace();
+		@Override
+		public List<Match> call() {
+			List<Match> matches = new ArrayList<>();
+			for (Blob created : candidates) {
+				double value = NCDUtils.computeNCD(deleted, created);
+				if (value >= NCD_MIN && value <= NCD_MAX)
+					matches.add(new Match(deleted, created, value));
+			}
+			return matches;
 		}
 	}
 }
 
 
+class NCDUtils {
 
+	/**
+	 * @return The normalized compression distance of the two files, whose compressed sizes are already computed
+	 */
+	static double computeNCD(FilterVCS.Blob source, FilterVCS.Blob target) {
+		int cx = source.compressedSize;
+		int cy = target.compressedSize;
+		byte[] xy = new byte[source.bytes.length + target.bytes.length];
+		System.arraycopy(source.bytes, 0, xy, 0, source.bytes.length);
+		System.arraycopy(target.bytes, 0, xy, source.bytes.length, target.bytes.length);
+		int cxy = C(xy);
+		return (cxy - (double) Math.min(cx, cy)) / Math.max(cx, cy);
+	}
 
+	static int C(byte[] input) {
+		try {
+			byte[] compressed = Snappy.compress(input);
+			return compressed.length;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return 0;
+	}
+}
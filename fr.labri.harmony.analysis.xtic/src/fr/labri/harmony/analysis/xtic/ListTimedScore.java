@@ -1,38 +1,64 @@
 package fr.labri.harmony.analysis.xtic;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
-import javax.persistence.CascadeType;
+import javax.persistence.Basic;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
+import javax.persistence.Lob;
 import javax.persistence.ManyToOne;
-import javax.persistence.OneToMany;
+import javax.persistence.PostLoad;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+import javax.persistence.Transient;
 
+import fr.labri.harmony.core.log.HarmonyLogger;
 
+/**
+ * The scores of a developer for a pattern, summed by timestamp. <br>
+ * The timestamps and the scores are kept in primitive arrays, in insertion order, and indexed by an open addressing
+ * hash table so that adding a score is constant time. They are persisted in a single column, sorted by timestamp, as
+ * the varints of the number of scores, of the differences between consecutive timestamps and of the scores. The column
+ * is cleared by every change, so that the entity is seen as modified and encoded again.
+ */
 @Entity
 public class ListTimedScore implements Serializable {
-	
+
 	/**
-	 * 
+	 *
 	 */
 	private static final long serialVersionUID = 1L;
 	@Id
 	@GeneratedValue
 	private int id;
-	
+
 	@ManyToOne
 	Developer dev;
-	
-	@OneToMany(cascade=CascadeType.ALL)
-	private List<TimedScore> list;
-	
+
+	@Lob
+	@Basic
+	private byte[] points;
+
+	@Transient
+	private long[] timestamps;
+	@Transient
+	private long[] values;
+	@Transient
+	private int size;
+
+	/**
+	 * The index of each timestamp plus one, 0 for the free slots
+	 */
+	@Transient
+	private int[] slots;
+
 	public Developer getAptitude() {
 		return dev;
 	}
@@ -53,48 +79,121 @@ public class ListTimedScore implements Serializable {
 		this.id = id;
 	}
 
+	/**
+	 * @return A copy of the scores, in insertion order
+	 */
 	public List<TimedScore> getList() {
+		List<TimedScore> list = new ArrayList<>(size);
+		for (int i = 0; i < size; i++)
+			list.add(new TimedScore(timestamps[i], values[i]));
 		return list;
 	}
 
 	public void setList(List<TimedScore> list) {
-		this.list = list;
+		clear();
+		points = null;
+		for (TimedScore ts : list)
+			put(ts.getTimestamp(), ts.getValue());
 	}
 
-	
-
 	public ListTimedScore(){
-		list = new ArrayList<>();
+		clear();
+	}
+
+	private void clear() {
+		timestamps = new long[8];
+		values = new long[8];
+		slots = new int[16];
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
 	}
 
 	public boolean addValues(long timestamp, long value) {
-		for(TimedScore ts : list)
-			if(Long.compare(timestamp,ts.getTimestamp())==0){
-				ts.setValue(ts.getValue()+value);
-				return true;
-			}
-		return list.add(new TimedScore(timestamp,value));
+		points = null;
+		return put(timestamp, value);
+	}
+
+	private boolean put(long timestamp, long value) {
+		int slot = find(timestamp);
+		if (slots[slot] != 0) {
+			values[slots[slot] - 1] += value;
+			return true;
+		}
+		if (size == timestamps.length) {
+			timestamps = Arrays.copyOf(timestamps, size * 2);
+			values = Arrays.copyOf(values, size * 2);
+		}
+		timestamps[size] = timestamp;
+		values[size] = value;
+		slots[slot] = ++size;
+		// Kept at most half full
+		if (size * 2 > slots.length)
+			rehash(slots.length * 2);
+		return true;
+	}
+
+	/**
+	 * @return The slot of the timestamp, or the free slot where it would be
+	 */
+	private int find(long timestamp) {
+		int mask = slots.length - 1;
+		int slot = hash(timestamp) & mask;
+		while (slots[slot] != 0 && timestamps[slots[slot] - 1] != timestamp)
+			slot = (slot + 1) & mask;
+		return slot;
 	}
 
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		for (int i = 0; i < size; i++)
+			slots[find(timestamps[i])] = i + 1;
+	}
+
+	private static int hash(long timestamp) {
+		long h = timestamp * 0x9e3779b97f4a7c15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * @return A copy of the scores, sorted by timestamp
+	 */
 	public List<TimedScore> scoreSortedByTime() {
-		Collections.sort(list, new TimedScoreSorter());
-		return getList();
+		int[] order = sortedIndexes();
+		List<TimedScore> list = new ArrayList<>(size);
+		for (int i : order)
+			list.add(new TimedScore(timestamps[i], values[i]));
+		return list;
+	}
+
+	private int[] sortedIndexes() {
+		long[] sorted = new long[size];
+		for (int i = 0; i < size; i++)
+			sorted[i] = timestamps[i];
+		Arrays.sort(sorted);
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++)
+			order[i] = slots[find(sorted[i])] - 1;
+		return order;
 	}
 
 	public long getScore() {
 		long score = 0;
-		for(TimedScore ts : list)
-			score += ts.getValue();
+		for (int i = 0; i < size; i++)
+			score += values[i];
 		return score;
 	}
-	
+
 	private boolean hasTimestamp(long time) {
-		for(TimedScore ts : list)
-			if(Long.compare(time,ts.getTimestamp())==0)
-				return true;
-		return false;
+		return slots[find(time)] != 0;
 	}
-	
+
 
 	public boolean addIfAbsent(Long timestamp) {
 		if(!hasTimestamp(timestamp)){
@@ -103,20 +202,69 @@ public class ListTimedScore implements Serializable {
 		else
 			return false;
 	}
-	
+
 	public Set<Long> getTimestamps() {
 		Set<Long> times = new HashSet<Long>();
-		for(TimedScore ts : list)
-			times.add(ts.getTimestamp());
+		for (int i = 0; i < size; i++)
+			times.add(timestamps[i]);
 		return times;
 	}
-}
 
-class TimedScoreSorter implements Comparator<TimedScore> {
+	@PrePersist
+	@PreUpdate
+	void encodePoints() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeVarint(out, size);
+		long previous = 0;
+		for (int i : sortedIndexes()) {
+			writeVarint(out, zigzag(timestamps[i] - previous));
+			writeVarint(out, zigzag(values[i]));
+			previous = timestamps[i];
+		}
+		points = out.toByteArray();
+	}
+
+	@PostLoad
+	void decodePoints() {
+		clear();
+		if (points == null) {
+			HarmonyLogger.error("The scores " + id + " have no encoded points, the xtic tables were created by a previous version and must be regenerated");
+			return;
+		}
+		int[] pos = new int[1];
+		long count = readVarint(points, pos);
+		long previous = 0;
+		for (long i = 0; i < count; i++) {
+			previous += unzigzag(readVarint(points, pos));
+			put(previous, unzigzag(readVarint(points, pos)));
+		}
+	}
 
-	@Override
-	public int compare(TimedScore arg0, TimedScore arg1) {
-		return Long.compare(arg0.getTimestamp(), arg1.getTimestamp());
+	private static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
 	}
 
+	private static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static void writeVarint(ByteArrayOutputStream out, long v) {
+		while ((v & ~0x7FL) != 0) {
+			out.write((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		out.write((int) v);
+	}
+
+	private static long readVarint(byte[] in, int[] pos) {
+		long v = 0;
+		int shift = 0;
+		byte b;
+		do {
+			b = in[pos[0]++];
+			v |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return v;
+	}
 }
@@ -0,0 +1,95 @@
+package fr.labri.harmony.analysis.xtic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * MinHash signatures of texts, over the shingles of {@link #SHINGLE} consecutive tokens, and the locality sensitive
+ * hashing of these signatures. Two texts get the same value at a position of their signatures with a probability equal
+ * to the Jaccard similarity of their shingles, so only the pairs of texts with at least one equal band of the signature
+ * are shortlisted. <br>
+ * With {@link #BANDS} bands of {@link #ROWS} rows, a pair with a similarity of 0.3 is shortlisted with a probability of
+ * 0.95, and a pair with a similarity of 0.5 is almost always shortlisted.
+ */
+public class MinHash {
+
+	static final int SHINGLE = 3;
+	static final int BANDS = 32;
+	static final int ROWS = 2;
+	static final int SIZE = BANDS * ROWS;
+
+	private static final long[] SEEDS = new long[SIZE];
+	static {
+		Random random = new Random(42);
+		for (int i = 0; i < SIZE; i++)
+			SEEDS[i] = random.nextLong() | 1;
+	}
+
+	/**
+	 * @param text
+	 * @return The signature of the text, all the texts with less than {@link #SHINGLE} tokens having a single shingle
+	 */
+	public static long[] signature(String text) {
+		String[] tokens = text.trim().split("\\s+");
+		long[] signature = new long[SIZE];
+		for (int i = 0; i < SIZE; i++)
+			signature[i] = Long.MAX_VALUE;
+		int shingles = Math.max(1, tokens.length - SHINGLE + 1);
+		for (int s = 0; s < shingles; s++) {
+			long shingle = 0;
+			for (int t = s; t < Math.min(s + SHINGLE, tokens.length); t++)
+				shingle = shingle * 31 + tokens[t].hashCode();
+			for (int i = 0; i < SIZE; i++) {
+				long value = mix(shingle * SEEDS[i]);
+				if (value < signature[i]) signature[i] = value;
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * @param sources
+	 * @param targets
+	 * @return For each source, the indexes of the targets sharing at least one band of its signature
+	 */
+	public static List<Set<Integer>> candidates(List<long[]> sources, List<long[]> targets) {
+		List<Set<Integer>> candidates = new ArrayList<>();
+		for (int i = 0; i < sources.size(); i++)
+			candidates.add(new LinkedHashSet<Integer>());
+		for (int band = 0; band < BANDS; band++) {
+			Map<Long, List<Integer>> buckets = new HashMap<>();
+			for (int t = 0; t < targets.size(); t++) {
+				Long key = bandKey(targets.get(t), band);
+				if (!buckets.containsKey(key)) buckets.put(key, new ArrayList<Integer>());
+				buckets.get(key).add(t);
+			}
+			for (int s = 0; s < sources.size(); s++) {
+				List<Integer> bucket = buckets.get(bandKey(sources.get(s), band));
+				if (bucket != null) candidates.get(s).addAll(bucket);
+			}
+		}
+		return candidates;
+	}
+
+	private static long bandKey(long[] signature, int band) {
+		long key = 0;
+		for (int r = band * ROWS; r < (band + 1) * ROWS; r++)
+			key = mix(key ^ signature[r]);
+		return key;
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+}
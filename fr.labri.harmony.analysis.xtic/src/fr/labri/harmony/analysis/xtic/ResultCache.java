@@ -0,0 +1,270 @@
+package fr.labri.harmony.analysis.xtic;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fr.labri.harmony.analysis.xtic.aptitude.PatternAptitude;
+import fr.labri.harmony.analysis.xtic.aptitude.filter.ContentFilter;
+import fr.labri.harmony.analysis.xtic.aptitude.filter.FileFilter;
+import fr.labri.harmony.analysis.xtic.aptitude.filter.Filter;
+import fr.labri.harmony.analysis.xtic.aptitude.filter.TreeFilter;
+import fr.labri.harmony.core.model.Action;
+
+/**
+ * Stores on disk the scores of the actions for each pattern, so that the next runs of xtic only evaluate the patterns
+ * which are new or changed, and the actions never seen before. <br>
+ * The score of an action only depends on the kinds, paths and contents of its two versions, so the scores are keyed by
+ * them, and for each action by the definition of the pattern: a pattern which is only renamed or moved to another
+ * aptitude is not evaluated again. <br>
+ * The actions are spread in {@link #BUCKETS} files by the first characters of their keys. A file is loaded on the first
+ * lookup of one of its actions and kept in memory, and the changed files are written back by {@link #flush()}, merged
+ * with the entries written by concurrent runs meanwhile. In a file, the keys of the patterns are stored once and the
+ * scores refer to them by index.
+ */
+public class ResultCache {
+
+	/**
+	 * Changed when the evaluation of the patterns changes, to ignore the scores of the previous versions
+	 */
+	private static final String VERSION = "1";
+
+	/**
+	 * Changed with the layout of the files
+	 */
+	private static final int FORMAT = 1;
+
+	static final int BUCKETS = 256;
+
+	private File dir;
+
+	private Bucket[] buckets = new Bucket[BUCKETS];
+
+	/**
+	 * The keys of the patterns, shared by all the entries
+	 */
+	private Map<String, String> patternKeys = new ConcurrentHashMap<>();
+
+	/**
+	 * The scores of an action
+	 */
+	private static class Entry {
+		String[] patterns;
+		long[] scores;
+
+		Entry(int size) {
+			patterns = new String[size];
+			scores = new long[size];
+		}
+	}
+
+	/**
+	 * The actions whose keys start with the same characters
+	 */
+	private class Bucket {
+		private File file;
+		private Map<String, Entry> entries;
+		private Set<String> changed = new HashSet<>();
+
+		Bucket(File file) {
+			this.file = file;
+		}
+
+		synchronized Entry get(String key) {
+			if (entries == null) entries = read(file);
+			return entries.get(key);
+		}
+
+		synchronized void put(String key, Entry entry) {
+			if (entries == null) entries = read(file);
+			entries.put(key, entry);
+			changed.add(key);
+		}
+
+		synchronized void flush() throws IOException {
+			if (changed.isEmpty()) return;
+			// The entries written by the concurrent runs since the file was loaded are kept
+			Map<String, Entry> merged = read(file);
+			for (String key : changed)
+				merged.put(key, entries.get(key));
+			write(file, merged);
+			entries = merged;
+			changed.clear();
+		}
+	}
+
+	/**
+	 * @param dir
+	 *            The directory of the cache
+	 */
+	public ResultCache(File dir) {
+		this.dir = dir;
+		for (int i = 0; i < BUCKETS; i++)
+			buckets[i] = new Bucket(new File(dir, String.format("%02x.scores", i)));
+	}
+
+	/**
+	 * @param source
+	 *            The action of the old version, the same as the action unless it is a rename
+	 * @param action
+	 * @param oldHash
+	 *            The {@link DiffCache#hash(String)} of the old version, null if there is none
+	 * @param newHash
+	 *            The {@link DiffCache#hash(String)} of the new version, null if there is none
+	 * @return The key of the scores of the action
+	 */
+	public static String key(Action source, Action action, String oldHash, String newHash) {
+		return DiffCache.hash(VERSION + ":" + source.getKind() + ":" + source.getItem().getNativeId() + ":" + (oldHash == null ? "-" : oldHash) + ":"
+				+ action.getKind() + ":" + action.getItem().getNativeId() + ":" + (newHash == null ? "-" : newHash));
+	}
+
+	/**
+	 * @param pattern
+	 * @return The hash of the definition of the pattern, i.e. all its filters and the options of its parser
+	 */
+	public static String key(PatternAptitude pattern) {
+		StringBuilder b = new StringBuilder();
+		append(b, "kind", pattern.getKind(), pattern.getKind().getValue());
+		for (FileFilter f : pattern.getFiles())
+			append(b, "file", f, f.getValue().pattern());
+		for (ContentFilter f : pattern.getContents())
+			append(b, "content", f, f.getValue());
+		b.append("parser:").append(pattern.getParser() == null ? "-" : pattern.getParser().name() + new TreeMap<>(pattern.getParser().getOptions())).append('\n');
+		for (TreeFilter f : pattern.getQueries())
+			append(b, "tree", f, f.getQuery());
+		return DiffCache.hash(b.toString());
+	}
+
+	private static void append(StringBuilder b, String type, Filter filter, String value) {
+		// The length delimits the value, which may contain any character
+		b.append(type).append(':').append(filter.isPresence()).append(':').append(filter.getDirection()).append(':').append(value.length()).append(':').append(value).append('\n');
+	}
+
+	/**
+	 * @param key
+	 * @return The scores of the action, by pattern key, empty if the action was never scored
+	 */
+	public Map<String, Long> get(String key) {
+		Map<String, Long> scores = new HashMap<>();
+		Entry entry = getBucket(key).get(key);
+		if (entry != null)
+			for (int i = 0; i < entry.patterns.length; i++)
+				scores.put(entry.patterns[i], entry.scores[i]);
+		return scores;
+	}
+
+	/**
+	 * Replaces the scores of the action, until the next {@link #flush()}
+	 *
+	 * @param key
+	 * @param scores
+	 *            The scores of all the patterns known for the action, by pattern key
+	 */
+	public void put(String key, Map<String, Long> scores) {
+		Entry entry = new Entry(scores.size());
+		int i = 0;
+		for (Map.Entry<String, Long> score : scores.entrySet()) {
+			entry.patterns[i] = intern(score.getKey());
+			entry.scores[i++] = score.getValue();
+		}
+		getBucket(key).put(key, entry);
+	}
+
+	/**
+	 * Writes the files of the changed actions
+	 */
+	public void flush() {
+		for (Bucket bucket : buckets) {
+			try {
+				bucket.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private Bucket getBucket(String key) {
+		return buckets[Integer.parseInt(key.substring(0, 2), 16)];
+	}
+
+	private String intern(String patternKey) {
+		String interned = patternKeys.get(patternKey);
+		if (interned != null) return interned;
+		patternKeys.put(patternKey, patternKey);
+		return patternKey;
+	}
+
+	private Map<String, Entry> read(File file) {
+		Map<String, Entry> entries = new HashMap<>();
+		if (!file.exists()) return entries;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != FORMAT) return entries;
+			String[] patterns = new String[in.readInt()];
+			for (int i = 0; i < patterns.length; i++)
+				patterns[i] = intern(in.readUTF());
+			int count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				String key = in.readUTF();
+				Entry entry = new Entry(in.readInt());
+				for (int j = 0; j < entry.patterns.length; j++) {
+					entry.patterns[j] = patterns[in.readInt()];
+					entry.scores[j] = in.readLong();
+				}
+				entries.put(key, entry);
+			}
+		} catch (IOException | RuntimeException e) {
+			// A corrupted file is computed again
+			file.delete();
+			entries.clear();
+		}
+		return entries;
+	}
+
+	private void write(File file, Map<String, Entry> entries) throws IOException {
+		List<String> patterns = new ArrayList<>();
+		Map<String, Integer> indexes = new HashMap<>();
+		for (Entry entry : entries.values()) {
+			for (String pattern : entry.patterns) {
+				if (!indexes.containsKey(pattern)) {
+					indexes.put(pattern, patterns.size());
+					patterns.add(pattern);
+				}
+			}
+		}
+		dir.mkdirs();
+		// Written aside then moved, so that concurrent runs never read a partial file
+		File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(FORMAT);
+			out.writeInt(patterns.size());
+			for (String pattern : patterns)
+				out.writeUTF(pattern);
+			out.writeInt(entries.size());
+			for (Map.Entry<String, Entry> e : entries.entrySet()) {
+				out.writeUTF(e.getKey());
+				out.writeInt(e.getValue().patterns.length);
+				for (int i = 0; i < e.getValue().patterns.length; i++) {
+					out.writeInt(indexes.get(e.getValue().patterns[i]));
+					out.writeLong(e.getValue().scores[i]);
+				}
+			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+}
@@ -2,40 +2,16 @@ package fr.labri.harmony.analysis.xtic;
 
 import java.io.Serializable;
 
-import javax.persistence.Basic;
-import javax.persistence.Entity;
-import javax.persistence.GeneratedValue;
-import javax.persistence.Id;
-import javax.persistence.ManyToOne;
-
-@Entity
+/**
+ * A score at a timestamp, as listed by {@link ListTimedScore}
+ */
 public class TimedScore implements Serializable{
 
 	private static final long serialVersionUID = 1L;
 
-	@Id
-	@GeneratedValue
-	private int id;
-	@Basic
 	private Long timestamp;
-	@Basic
 	private Long value;
 	
-	@ManyToOne
-	ListTimedScore list;
-	
-	public ListTimedScore getList() {
-		return list;
-	}
-	public void setList(ListTimedScore list) {
-		this.list = list;
-	}
-	public int getId() {
-		return id;
-	}
-	public void setId(int id) {
-		this.id = id;
-	}
 	public Long getTimestamp() {
 		return timestamp;
 	}
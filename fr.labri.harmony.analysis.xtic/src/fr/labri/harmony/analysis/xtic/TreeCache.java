@@ -0,0 +1,67 @@
+package fr.labri.harmony.analysis.xtic;
+
+import java.util.LinkedHashMap;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+import fr.labri.gumtree.tree.Tree;
+import fr.labri.harmony.analysis.xtic.aptitude.Parser;
+
+/**
+ * Caches the trees parsed by {@link DiffProducer}, keyed by the content of the file version, the parser and its
+ * options. A version which is new in a commit and old in the next one, or which is diffed against several parents, is
+ * then parsed once. <br>
+ * The most recently used trees are kept in memory, up to a number of trees. The trees are matched and written by the
+ * scoring threads, so each caller gets its own copy.
+ */
+public class TreeCache {
+
+	private LinkedHashMap<String, Tree> trees;
+
+	/**
+	 * @param maxTrees
+	 *            The number of trees kept in memory
+	 */
+	public TreeCache(final int maxTrees) {
+		trees = new LinkedHashMap<String, Tree>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Entry<String, Tree> eldest) {
+				return size() > maxTrees;
+			}
+		};
+	}
+
+	/**
+	 * @param parser
+	 * @param hash
+	 *            The {@link DiffCache#hash(String)} of the file version
+	 * @return The key of the tree of the version
+	 */
+	public static String key(Parser parser, String hash) {
+		return parser.name() + new TreeMap<>(parser.getOptions()) + ":" + hash;
+	}
+
+	/**
+	 * @param key
+	 * @return A copy of the cached tree, or null if it has to be parsed
+	 */
+	public Tree get(String key) {
+		Tree tree;
+		synchronized (this) {
+			tree = trees.get(key);
+		}
+		return tree == null ? null : tree.deepCopy();
+	}
+
+	/**
+	 * @param key
+	 * @param tree
+	 *            A tree which is not modified afterwards, i.e. not the one given to the matcher
+	 */
+	public synchronized void put(String key, Tree tree) {
+		trees.put(key, tree);
+	}
+
+}
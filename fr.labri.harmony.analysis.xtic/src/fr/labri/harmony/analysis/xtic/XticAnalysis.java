@@ -4,21 +4,30 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
-import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 import fr.labri.Counters;
+import fr.labri.CountersSkills;
 import fr.labri.Timer;
 import fr.labri.Timer.TimerToken;
 import fr.labri.harmony.analysis.xtic.aptitude.Aptitude;
@@ -26,8 +35,10 @@ import fr.labri.harmony.analysis.xtic.aptitude.AptitudeReader;
 import fr.labri.harmony.analysis.xtic.aptitude.AptitudeReaderException;
 import fr.labri.harmony.analysis.xtic.aptitude.Parser;
 import fr.labri.harmony.analysis.xtic.aptitude.PatternAptitude;
+import fr.labri.harmony.analysis.xtic.aptitude.PatternPlan;
+import fr.labri.harmony.analysis.xtic.aptitude.PatternPlan.CompiledPattern;
 import fr.labri.harmony.analysis.xtic.aptitude.filter.ContentFilter;
-import fr.labri.harmony.analysis.xtic.aptitude.filter.FileFilter;
+import fr.labri.harmony.analysis.xtic.aptitude.filter.ContentMatcher;
 import fr.labri.harmony.analysis.xtic.aptitude.filter.TreeFilter;
 import fr.labri.harmony.core.analysis.SingleSourceAnalysis;
 import fr.labri.harmony.core.config.model.AnalysisConfiguration;
@@ -38,6 +49,7 @@ import fr.labri.harmony.core.model.ActionKind;
 import fr.labri.harmony.core.model.Author;
 import fr.labri.harmony.core.model.Event;
 import fr.labri.harmony.core.model.Source;
+import net.sf.saxon.om.NodeInfo;
 
 public class XticAnalysis extends SingleSourceAnalysis {
 
@@ -46,6 +58,52 @@ public class XticAnalysis extends SingleSourceAnalysis {
 	private static final boolean BENCHMARK = Boolean.parseBoolean(System.getProperty("xtic.benchmark", "false"));
 	private static final int BENCHMARK_RUN = Integer.parseInt(System.getProperty("xtic.benchmark.run", "1"));
 
+	/**
+	 * The number of actions waiting to be scored per thread, so that the extraction of the next events does not get too far
+	 * ahead of the scoring
+	 */
+	private static final int PENDING_ACTIONS_PER_THREAD = 64;
+
+	/**
+	 * The number of compressed sizes of file contents kept to detect the renamed files
+	 */
+	private static final int COMPRESSED_SIZES = 100000;
+
+	/**
+	 * The millions of characters of diffs kept in memory
+	 */
+	private static final long DEFAULT_DIFF_CACHE_SIZE = 64;
+
+	/**
+	 * The millions of bytes of compressed diffs kept on disk, with the DIFF_CACHE_DIR option
+	 */
+	private static final long DEFAULT_DIFF_CACHE_DIR_SIZE = 1024;
+
+	/**
+	 * The number of parsed trees kept in memory
+	 */
+	private static final int DEFAULT_TREE_CACHE_SIZE = 1000;
+
+	/**
+	 * The number of threads scoring the actions
+	 */
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * The diffs already computed, shared by all the sources
+	 */
+	private DiffCache diffCache;
+
+	/**
+	 * The trees of the file versions already parsed, shared by all the sources
+	 */
+	private TreeCache treeCache;
+
+	/**
+	 * The scores of the actions computed by the previous runs, null if they are not kept
+	 */
+	private ResultCache resultCache;
+
 	public XticAnalysis() {
 		super();
 	}
@@ -59,7 +117,29 @@ public class XticAnalysis extends SingleSourceAnalysis {
 			if(config.getOptions().containsKey("RENAME_MOVE")) {
 				FilterVCS.toCompute = config.getOptions().get("RENAME_MOVE").toString().toUpperCase().equals("FALSE") ? false : true;
 			}
+			if(config.getOptions().containsKey("THREADS")) {
+				threads = Integer.valueOf(config.getOptions().get("THREADS").toString());
+			}
 		}
+		long diffCacheSize = DEFAULT_DIFF_CACHE_SIZE;
+		File diffCacheDir = null;
+		// The on-disk diffs are bounded too, the least recently used ones are deleted
+		long diffCacheDirSize = DEFAULT_DIFF_CACHE_DIR_SIZE;
+		int treeCacheSize = DEFAULT_TREE_CACHE_SIZE;
+		if(config.getOptions() != null) {
+			if(config.getOptions().containsKey("DIFF_CACHE_SIZE"))
+				diffCacheSize = Long.valueOf(config.getOptions().get("DIFF_CACHE_SIZE").toString());
+			if(config.getOptions().containsKey("DIFF_CACHE_DIR"))
+				diffCacheDir = new File(config.getOptions().get("DIFF_CACHE_DIR").toString());
+			if(config.getOptions().containsKey("DIFF_CACHE_DIR_SIZE"))
+				diffCacheDirSize = Long.valueOf(config.getOptions().get("DIFF_CACHE_DIR_SIZE").toString());
+			if(config.getOptions().containsKey("TREE_CACHE_SIZE"))
+				treeCacheSize = Integer.valueOf(config.getOptions().get("TREE_CACHE_SIZE").toString());
+		}
+		diffCache = new DiffCache(diffCacheSize * 1024 * 1024, diffCacheDir, diffCacheDirSize * 1024 * 1024);
+		treeCache = new TreeCache(treeCacheSize);
+		if(config.getOptions() != null && config.getOptions().containsKey("RESULT_CACHE_DIR"))
+			resultCache = new ResultCache(new File(config.getOptions().get("RESULT_CACHE_DIR").toString()));
 	}
 
 	@Override
@@ -118,16 +198,51 @@ public class XticAnalysis extends SingleSourceAnalysis {
 		final Source _src;
 		final Aptitude _apt;
 		final List<PatternAptitude> _patterns;
+		final PatternPlan _plan;
 		final Map<String, Developer> _indexDevs = new HashMap<String, Developer>();
 
+		/**
+		 * The keys of the definitions of the patterns in the {@link ResultCache}
+		 */
+		final Map<PatternAptitude, String> _patternKeys = new IdentityHashMap<>();
+
 		final Counters<String> _actions = new Counters<>();
 		final Timer<String> _timer = new Timer<>(Timer.simpleFactory());
-		Event lastEvent=null;
+
+		/**
+		 * The scores computed by each thread, merged once all the actions are scored
+		 */
+		final List<ScoreAccumulator> _accumulators = Collections.synchronizedList(new ArrayList<ScoreAccumulator>());
+		final ThreadLocal<ScoreAccumulator> _accumulator = new ThreadLocal<ScoreAccumulator>() {
+			@Override
+			protected ScoreAccumulator initialValue() {
+				ScoreAccumulator accumulator = new ScoreAccumulator();
+				_accumulators.add(accumulator);
+				return accumulator;
+			}
+		};
+		ExecutorService _pool;
+		Semaphore _pendingActions;
+
+		/**
+		 * The compressed sizes of the contents of the files, by hash, to detect the renamed files
+		 */
+		@SuppressWarnings("serial")
+		final Map<String, Integer> _compressedSizes = Collections.synchronizedMap(new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Entry<String, Integer> eldest) {
+				return size() > COMPRESSED_SIZES;
+			}
+		});
 
 		public AnalyseSource(Source src, Aptitude aptitude, Map<Aptitude, List<PatternAptitude>> patterns) throws IOException {
 			this._src = src;
 			_apt = aptitude;
 			_patterns = patterns.get(BENCHMARK ? _apt : null);
+			_plan = new PatternPlan(_patterns);
+			if (resultCache != null)
+				for (PatternAptitude p : _patterns)
+					_patternKeys.put(p, ResultCache.key(p));
 		}
 
 		public Timer<String> getTimer() {
@@ -156,6 +271,11 @@ public class XticAnalysis extends SingleSourceAnalysis {
 			if(TIMER)
 				init.stop();
 
+			if (threads > 1) {
+				_pool = new ForkJoinPool(threads);
+				_pendingActions = new Semaphore(threads * PENDING_ACTIONS_PER_THREAD);
+			}
+
 			int i = 0;
 			HarmonyLogger.info(oneBranch.size() + " events to compute ["+_src.getUrl()+"]");
 			for (Event e : oneBranch) {
@@ -171,10 +291,95 @@ public class XticAnalysis extends SingleSourceAnalysis {
 				if(TIMER) 
 					harmony.stop();
 			}
+			if (_pool != null) {
+				_pool.shutdown();
+				try {
+					_pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+				_pool = null;
+			}
+			if (resultCache != null)
+				resultCache.flush();
+			mergeAccumulators();
 			if(TIMER)
 				all.stop();
 		}
 
+		/**
+		 * Scores an action against all the patterns, in the pool if there is one
+		 */
+		private void score(final Developer dev, final long timestamp, final Action action, final Map<Action, Action> renamedFiles) {
+			Runnable task = new Runnable() {
+				@Override
+				public void run() {
+					ScoreAccumulator accumulator = _accumulator.get();
+					TimerToken aptitude = null;
+					if(TIMER)
+						aptitude = accumulator.timer.start("aptitude");
+					Score score = new Score(action, accumulator);
+					try {
+						for (PatternAptitude p : _patterns) {
+							long s = score.computeCached(p, renamedFiles);
+							accumulator.addAptitudePattern(dev, p, timestamp, s);
+						}
+						score.saveResults();
+					} catch (RuntimeException ex) {
+						ex.printStackTrace();
+					} finally {
+						score.dispose();
+						if(TIMER)
+							aptitude.stop();
+						if (_pendingActions != null)
+							_pendingActions.release();
+					}
+				}
+			};
+			if (_pool == null)
+				task.run();
+			else {
+				_pendingActions.acquireUninterruptibly();
+				_pool.execute(task);
+			}
+		}
+
+		/**
+		 * Runs the tasks in the pool if there is one, or in the current thread
+		 *
+		 * @return The results of the tasks, in the same order
+		 */
+		<T> List<T> invokeAll(List<? extends Callable<T>> tasks) {
+			List<T> results = new ArrayList<>();
+			try {
+				if (_pool == null) {
+					for (Callable<T> task : tasks)
+						results.add(task.call());
+				} else {
+					for (Future<T> result : _pool.invokeAll(tasks))
+						results.add(result.get());
+				}
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+			return results;
+		}
+
+		private void mergeAccumulators() {
+			synchronized (_accumulators) {
+				for (ScoreAccumulator accumulator : _accumulators) {
+					for (Entry<Developer, CountersSkills<PatternAptitude>> dev : accumulator.skills.entrySet())
+						for (Entry<PatternAptitude, ListTimedScore> skill : dev.getValue())
+							for (TimedScore ts : skill.getValue().getList())
+								dev.getKey().addAptitudePattern(skill.getKey(), ts.getTimestamp(), ts.getValue());
+					_actions.addAll(accumulator.actions);
+					_timer.addAll(accumulator.timer);
+				}
+				_accumulators.clear();
+			}
+			_accumulator.remove();
+		}
+
 		public Developer getDeveloper(Event e) {
 			Author auth = e.getAuthors().get(0);
 			String name = auth.getName();
@@ -239,55 +444,23 @@ public class XticAnalysis extends SingleSourceAnalysis {
 				if(TIMER)
 					preprocess.stop();
 
-				if (!actions.isEmpty()) {
-					TimerToken aptitude = null;
-					if(TIMER)
-						aptitude = _timer.start("aptitude");
-
-					for (Action a : actions) {
-						Score score = new Score(a);
-						for (PatternAptitude p : _patterns) {
-							long s = score.compute(p,renamedFiles);
-							dev.addAptitudePattern(p, e.getTimestamp(), s);
-						}
-						score = null;
-					}
-					if(TIMER)
-						aptitude.stop();
-				}
+				for (Action a : actions)
+					score(dev, e.getTimestamp(), a, renamedFiles);
 				actions = null;
 			}
 
 		}
 
-		public File checkoutFile(Event event, Action action, String value) {
-			if(action.getEvent().getActions().size() >= 10)
-				return checkoutFile(event, action, value, "reset" );
-			else
-				return checkoutFile(event, action, value, "checkout" );
-		}
-
-		public File checkoutFile(Event event, Action action, String value, String tag) {
-			TimerToken checkout = null;
-			if(TIMER)
-				checkout = _timer.start(tag);
-			if(tag.equals("reset")) {
-				if((lastEvent==null) || (lastEvent!=null && lastEvent.getId() != event.getId())) { 
-					_src.getWorkspace().update(event);
-					lastEvent=event;
-				}
+		/**
+		 * @param after
+		 *            Whether to read the file after the action, or before it
+		 * @return The content of the file of the action, or null if it does not exist
+		 */
+		String readContent(Action action, boolean after) {
+			// The workspace may be updated to read the file, so the reads are serialized
+			synchronized (_src.getWorkspace()) {
+				return after ? _src.getWorkspace().getFileContentAfter(action) : _src.getWorkspace().getFileContentBefore(action);
 			}
-			else {
-				_src.getWorkspace().update(event, action.getItem());
-			}
-			File path = new File(_src.getWorkspace().getPath(), action.getItem().getNativeId());
-			File newFile = new File(computeFile(path.toString(), value));
-			newFile.delete();
-			path.renameTo(newFile);
-			if(TIMER)
-				checkout.stop();
-
-			return newFile;
 		}
 
 		private String computeFile(String srcFile, String value) {
@@ -353,44 +526,161 @@ public class XticAnalysis extends SingleSourceAnalysis {
 		}
 
 
+		/**
+		 * The scores and counters of the actions scored by one thread
+		 */
+		class ScoreAccumulator {
+			final Map<Developer, CountersSkills<PatternAptitude>> skills = new IdentityHashMap<>();
+			final Counters<String> actions = new Counters<>();
+			final Timer<String> timer = new Timer<>(Timer.simpleFactory());
+
+			void addAptitudePattern(Developer dev, PatternAptitude p, long timestamp, long value) {
+				if(value==0L)
+					return;
+				CountersSkills<PatternAptitude> devSkills = skills.get(dev);
+				if (devSkills == null) {
+					devSkills = new CountersSkills<>();
+					skills.put(dev, devSkills);
+				}
+				devSkills.add(p, timestamp, value);
+			}
+		}
+
 		class Score {
 			private Action _action;
 			private Action _actionSource;
+			private ScoreAccumulator _acc;
+			private File _tmpDir;
 			private File _oldFile;
 			private File _newFile;
 			private String _text;
 			private String _oldText;
 			private String _xmlDiff[][] = new String[Parser.values().length][2];
-
-			public Score(Action action) {
+			private String _hash;
+			private String _oldHash;
+			private ContentMatcher _matcher;
+			private BitSet _matches;
+			private BitSet _oldMatches;
+
+			/**
+			 * The results of the filters shared by the patterns, -1 when not evaluated yet
+			 */
+			private int[] _kindResults;
+			private int[] _fileResults;
+			private int[] _treeResults;
+			private NodeInfo _diffTrees[][] = new NodeInfo[Parser.values().length][2];
+			private boolean _diffTreesBuilt[][] = new boolean[Parser.values().length][2];
+
+			/**
+			 * The scores of the action in the {@link ResultCache}, by pattern key, loaded by the first pattern which
+			 * accepts the file
+			 */
+			private String _resultKey;
+			private Map<String, Long> _results;
+			private boolean _resultsChanged;
+
+			public Score(Action action, ScoreAccumulator accumulator) {
 				_action = action;
+				_acc = accumulator;
+				_kindResults = new int[_plan.getKindCount()];
+				_fileResults = new int[_plan.getFileCount()];
+				_treeResults = new int[_plan.getTreeCount()];
+				Arrays.fill(_kindResults, -1);
+				Arrays.fill(_fileResults, -1);
+				Arrays.fill(_treeResults, -1);
+			}
+
+			private int getKindResult(int index) {
+				if (_kindResults[index] == -1)
+					_kindResults[index] = _plan.getKind(index).executeFilter(_actionSource.getKind().toString(), _action.getKind().toString());
+				return _kindResults[index];
+			}
+
+			private int getFileResult(int index) {
+				if (_fileResults[index] == -1)
+					_fileResults[index] = _plan.getFile(index).executeFilter(_actionSource.getItem().getNativeId(), _action.getItem().getNativeId());
+				return _fileResults[index];
+			}
+
+			private int getTreeResult(int index, NodeInfo oldDiffTree, NodeInfo newDiffTree) {
+				if (_treeResults[index] == -1) {
+					long start = System.nanoTime();
+					_treeResults[index] = _plan.getTree(index).executeFilter(oldDiffTree, newDiffTree);
+					_plan.recordTree(index, System.nanoTime() - start, _treeResults[index] == 0);
+				}
+				return _treeResults[index];
 			}
 
 			private String getText(boolean newFile) {
 				if(newFile) {
-					if (_newFile == null || _text == null) {
-						try {
-							_newFile = checkoutFile(_action.getEvent(), _action, "v1");
-							_text = Charset.forName("UTF-8").decode(ByteBuffer.wrap(Files.readAllBytes(Paths.get(_newFile.toString())))).toString();
-						} catch (IOException ex) {
-							ex.printStackTrace();
-						}
-					}
+					if (_text == null)
+						_text = readContent(_action, true);
 					return _text;
 				}
 				else {
-					if (_oldFile == null || _oldText == null) {
-						try {
-							_oldFile = checkoutFile(_action.getParentEvent(), _actionSource, "v0");
-							_oldText = Charset.forName("UTF-8").decode(ByteBuffer.wrap(Files.readAllBytes(Paths.get(_oldFile.toString())))).toString();
-						} catch (IOException ex) {
-							ex.printStackTrace();
-						}
-					}
+					if (_oldText == null)
+						_oldText = readContent(_actionSource, false);
 					return _oldText;
 				}
 			}
 
+			/**
+			 * @return The values of the content filters found in the text, computed once for all the patterns, or null
+			 *         if there is no text
+			 */
+			private BitSet getMatches(ContentMatcher matcher, boolean newFile) {
+				if (matcher != _matcher) {
+					_matcher = matcher;
+					_matches = null;
+					_oldMatches = null;
+				}
+				if (newFile) {
+					if (_matches == null && _text != null)
+						_matches = matcher.match(_text);
+					return _matches;
+				} else {
+					if (_oldMatches == null && _oldText != null)
+						_oldMatches = matcher.match(_oldText);
+					return _oldMatches;
+				}
+			}
+
+			/**
+			 * Writes the content of the file in a directory private to this score, for the parsers which read files
+			 */
+			private File getFile(boolean newFile) {
+				if (newFile ? _newFile != null : _oldFile != null)
+					return newFile ? _newFile : _oldFile;
+				String content = getText(newFile);
+				if (content == null)
+					return null;
+				Action action = newFile ? _action : _actionSource;
+				try {
+					if (_tmpDir == null)
+						_tmpDir = Files.createTempDirectory("xtic").toFile();
+					File file = new File(_tmpDir, computeFile(new File(action.getItem().getNativeId()).getName(), newFile ? "v1" : "v0"));
+					Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+					if (newFile)
+						_newFile = file;
+					else
+						_oldFile = file;
+					return file;
+				} catch (IOException ex) {
+					ex.printStackTrace();
+					return null;
+				}
+			}
+
+			public void dispose() {
+				if (_tmpDir == null)
+					return;
+				if (_oldFile != null)
+					_oldFile.delete();
+				if (_newFile != null)
+					_newFile.delete();
+				_tmpDir.delete();
+			}
+
 			private String getDiff(Parser type, boolean targetNewFile) {
 				int pos = type.ordinal();
 				String res;
@@ -399,45 +689,139 @@ public class XticAnalysis extends SingleSourceAnalysis {
 				else
 					res = _xmlDiff[pos][0];
 				if (res == null) {
-					if (_newFile == null)
-						_newFile = checkoutFile(_action.getEvent(), _action, "v1", "checkout_diff");;
-						if (_action.getKind().equals(ActionKind.Edit) || !_actionSource.equals(_action))
-							_oldFile = checkoutFile(_action.getParentEvent(), _actionSource, "v0", "checkout_diff");
+					String newText = getText(true);
+					String oldText = null;
+					if (_action.getKind().equals(ActionKind.Edit) || !_actionSource.equals(_action))
+						oldText = getText(false);
+					if (newText == null) {
+						_xmlDiff[pos][targetNewFile ? 1 : 0] = res = "";
+						return res;
+					}
 
-						TimerToken diff = null;
-						if(TIMER)
-							diff = _timer.start("aptitude_diff");
+					// The same versions may already have been diffed for another action, parent or run, the files are
+					// only written for the parsers otherwise
+					if (_hash == null)
+						_hash = DiffCache.hash(newText);
+					if (oldText != null && _oldHash == null)
+						_oldHash = DiffCache.hash(oldText);
+					String key = DiffCache.key(type, targetNewFile, oldText == null ? null : _oldHash, _hash);
+					res = diffCache.get(key);
+					if (res != null) {
+						_acc.actions.increment("diff_cached");
+						_xmlDiff[pos][targetNewFile ? 1 : 0] = res;
+						return res;
+					}
 
-						_xmlDiff[pos][targetNewFile ? 1 : 0] = res = DiffProducer.Factory(type).computeDiffToXml(_oldFile, _newFile, targetNewFile);
-						//System.out.println(res);
-						if(TIMER)
-							diff.stop();
+					File newFile = getFile(true);
+					File oldFile = oldText == null ? null : getFile(false);
+					if (newFile == null || (oldText != null && oldFile == null)) {
+						_xmlDiff[pos][targetNewFile ? 1 : 0] = res = "";
+						return res;
+					}
+
+					TimerToken diff = null;
+					if(TIMER)
+						diff = _acc.timer.start("aptitude_diff");
+
+					String oldTreeKey = oldText == null ? null : TreeCache.key(type, _oldHash);
+					_xmlDiff[pos][targetNewFile ? 1 : 0] = res = DiffProducer.Factory(type, treeCache).computeDiffToXml(oldFile, oldTreeKey, newFile, TreeCache.key(type, _hash), targetNewFile);
+					//System.out.println(res);
+					if(TIMER)
+						diff.stop();
+					// An empty diff may come from an I/O error, it is not kept
+					if (!res.isEmpty())
+						diffCache.put(key, res);
 				}
 				return res;
 			}
 
-			private long compute(PatternAptitude p, Map<Action, Action> renamedFiles) {
+			/**
+			 * @return The diff parsed once for all the queries of all the patterns, or null if there is no diff
+			 */
+			private NodeInfo getDiffTree(Parser type, boolean targetNewFile) {
+				int pos = type.ordinal();
+				int side = targetNewFile ? 1 : 0;
+				if (!_diffTreesBuilt[pos][side]) {
+					_diffTrees[pos][side] = TreeFilter.buildTree(getDiff(type, targetNewFile));
+					_diffTreesBuilt[pos][side] = true;
+				}
+				return _diffTrees[pos][side];
+			}
+
+			private void setSource(Map<Action, Action> renamedFiles) {
 				if(renamedFiles.containsKey(_action)) {
 					_actionSource = renamedFiles.get(_action);
 					_action.setKind(ActionKind.Edit);
 				}
 				else
 					_actionSource = _action;
+			}
+
+			/**
+			 * Reuses the score of the pattern computed by a previous run on the same versions of the file, if any
+			 */
+			private long computeCached(PatternAptitude p, Map<Action, Action> renamedFiles) {
+				if (resultCache == null)
+					return compute(p, renamedFiles);
+				setSource(renamedFiles);
+				// The actions rejected by the kind and file filters are cheaper to evaluate than to look up
+				CompiledPattern compiled = _plan.getPattern(p);
+				boolean accepted = getKindResult(compiled.getKind()) != 0;
+				for (int ff : compiled.getFiles())
+					accepted &= getFileResult(ff) == 1;
+				// So are the patterns without content and tree filters
+				if (!accepted || (p.getContents().isEmpty() && p.getQueries().isEmpty()))
+					return compute(p, renamedFiles);
+
+				if (_results == null) {
+					getText(true);
+					if (_text != null && _hash == null)
+						_hash = DiffCache.hash(_text);
+					String oldHash = null;
+					if (_action.getKind().equals(ActionKind.Edit) || !_actionSource.equals(_action)) {
+						getText(false);
+						if (_oldText != null && _oldHash == null)
+							_oldHash = DiffCache.hash(_oldText);
+						oldHash = _oldHash;
+					}
+					_resultKey = ResultCache.key(_actionSource, _action, oldHash, _hash);
+					_results = resultCache.get(_resultKey);
+				}
+				String patternKey = _patternKeys.get(p);
+				Long cached = _results.get(patternKey);
+				if (cached != null) {
+					_acc.actions.increment("result_cached");
+					return cached;
+				}
+				long score = compute(p, renamedFiles);
+				_results.put(patternKey, score);
+				_resultsChanged = true;
+				return score;
+			}
+
+			public void saveResults() {
+				if (_resultsChanged)
+					resultCache.put(_resultKey, _results);
+			}
+
+			private long compute(PatternAptitude p, Map<Action, Action> renamedFiles) {
+				setSource(renamedFiles);
+
+				CompiledPattern compiled = _plan.getPattern(p);
 
 				//Filtre Kind
-				if(p.getKind().executeFilter(_actionSource.getKind().toString(), _action.getKind().toString()) == 0)
+				if(getKindResult(compiled.getKind()) == 0)
 					return 0;
 
 				//Filtre File
-				_actions.increment("in_pipe");
-				p.getParser();
-				int toFindFile = p.getFiles().size();
+				_acc.actions.increment("in_pipe");
+				int toFindFile = compiled.getFiles().length;
 				if (toFindFile > 0) {
-					for (FileFilter ff : p.getFiles()) {
+					for (int ff : compiled.getFiles()) {
 						TimerToken filefilter = null;
 						if(TIMER)
-							filefilter = _timer.start("file_filter");
-						if (ff.executeFilter(_actionSource.getItem().getNativeId(), _action.getItem().getNativeId())==1)
+							filefilter = _acc.timer.start("file_filter");
+						if (getFileResult(ff)==1)
 							toFindFile--;
 						if(TIMER)
 							filefilter.stop();
@@ -445,7 +829,7 @@ public class XticAnalysis extends SingleSourceAnalysis {
 							return 0;
 					}
 				}
-				_actions.increment("file_ok");
+				_acc.actions.increment("file_ok");
 
 				//Filtre Content
 				int toFindContent = p.getContents().size();
@@ -461,9 +845,14 @@ public class XticAnalysis extends SingleSourceAnalysis {
 					}
 					TimerToken patternmatching = null;
 					if(TIMER)
-						patternmatching = _timer.start("aptitude_matching");
+						patternmatching = _acc.timer.start("aptitude_matching");
 					for (ContentFilter pat : p.getContents()) {
-						if (pat.executeFilter(_oldText,_text)==1)
+						int found;
+						if (pat.getMatcher() == null)
+							found = pat.executeFilter(_oldText,_text);
+						else
+							found = pat.executeFilter(getMatches(pat.getMatcher(), false), getMatches(pat.getMatcher(), true));
+						if (found==1)
 							toFindContent--;
 					}
 					if(TIMER)
@@ -471,27 +860,27 @@ public class XticAnalysis extends SingleSourceAnalysis {
 					if (toFindContent > 0)
 						return 0;
 				}
-				_actions.increment("content_ok");
+				_acc.actions.increment("content_ok");
 				if (p.getQueries().isEmpty()) {
-					_actions.increment("nodiff_ok");
+					_acc.actions.increment("nodiff_ok");
 					return 1;
 				}
 
 				//Filtre Tree
 				long result = 0;
-				String xmlOldDiff = "", xmlNewDiff = "";
+				NodeInfo oldDiffTree = null, newDiffTree = null;
 				if(p.needDiffOldFile())
-					xmlOldDiff = getDiff(p.getParser(), false);
+					oldDiffTree = getDiffTree(p.getParser(), false);
 				if(p.needDiffNewFile())
-					xmlNewDiff = getDiff(p.getParser(), true);
+					newDiffTree = getDiffTree(p.getParser(), true);
 
-				if (!xmlNewDiff.isEmpty() || !xmlOldDiff.isEmpty()) {
+				if (newDiffTree != null || oldDiffTree != null) {
 					TimerToken xpath = null;
 					if(TIMER)
-						xpath = _timer.start("aptitude_xpath");
+						xpath = _acc.timer.start("aptitude_xpath");
 					int score = 0;
-					for(TreeFilter tf : p.getQueries()) {
-						score = tf.executeFilter(xmlOldDiff, xmlNewDiff);
+					for(int tf : _plan.orderTrees(compiled.getTrees())) {
+						score = getTreeResult(tf, oldDiffTree, newDiffTree);
 						if(score==0) {
 							result=0;
 							break;
@@ -505,7 +894,7 @@ public class XticAnalysis extends SingleSourceAnalysis {
 					return 0;
 
 				if (result > 0)
-					_actions.increment("diff_ok");
+					_acc.actions.increment("diff_ok");
 				if(p.getQueries().size() > 1)
 					return 1;
 
@@ -25,7 +25,9 @@ import org.jdom2.input.SAXBuilder;
 import org.xml.sax.SAXException;
 
 import fr.labri.harmony.analysis.xtic.aptitude.filter.ContentFilter;
+import fr.labri.harmony.analysis.xtic.aptitude.filter.ContentMatcher;
 import fr.labri.harmony.analysis.xtic.aptitude.filter.FileFilter;
+import fr.labri.harmony.analysis.xtic.aptitude.filter.FileMatcher;
 import fr.labri.harmony.analysis.xtic.aptitude.filter.KindFilter;
 import fr.labri.harmony.analysis.xtic.aptitude.filter.TreeFilter;
 import fr.labri.harmony.core.config.model.AnalysisConfiguration;
@@ -38,7 +40,7 @@ public class AptitudeReader {
 			HarmonyLogger.error("The configuration file does not an 'xtic-files' option");
 			HarmonyLogger.error("Default Demo file is considered");
 			FileUtils.copyFile("fr.labri.harmony.analysis.xtic", "xtic/default.xml", Paths.get("tmp/default.xml"));
-			return readXticFile(new File("tmp/default.xml").getPath());
+			return compileFilters(readXticFile(new File("tmp/default.xml").getPath()));
 		}
 		File xticsource = new File(config.getOptions().get("xtic-files").toString());
 		if (!xticsource.exists())
@@ -61,7 +63,27 @@ public class AptitudeReader {
 			else 
 				idName.add(apt.getIdName());
 		}
-		return configs;
+		return compileFilters(configs);
+	}
+
+	/**
+	 * Compiles the content filters of all the patterns in a single {@link ContentMatcher}, so that each text is scanned
+	 * only once whatever the number of patterns, and the file filters in a single {@link FileMatcher}
+	 */
+	private static List<Aptitude> compileFilters(List<Aptitude> aptitudes) {
+		if (aptitudes == null)
+			return null;
+		List<ContentFilter> contents = new ArrayList<>();
+		List<FileFilter> files = new ArrayList<>();
+		for (Aptitude aptitude : aptitudes) {
+			for (PatternAptitude pattern : aptitude.getPatterns()) {
+				contents.addAll(pattern.getContents());
+				files.addAll(pattern.getFiles());
+			}
+		}
+		ContentMatcher.compile(contents);
+		FileMatcher.compile(files);
+		return aptitudes;
 	}
 
 	public static boolean isValid(String xmlFile) {
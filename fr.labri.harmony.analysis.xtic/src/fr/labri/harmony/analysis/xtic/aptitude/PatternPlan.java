@@ -0,0 +1,171 @@
+package fr.labri.harmony.analysis.xtic.aptitude;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import fr.labri.harmony.analysis.xtic.aptitude.filter.FileFilter;
+import fr.labri.harmony.analysis.xtic.aptitude.filter.Filter;
+import fr.labri.harmony.analysis.xtic.aptitude.filter.KindFilter;
+import fr.labri.harmony.analysis.xtic.aptitude.filter.TreeFilter;
+
+/**
+ * The execution plan of a set of patterns. The kind, file and tree filters which are equal in several patterns are
+ * shared, so that each distinct filter is evaluated once per action and its result reused by all the patterns. <br>
+ * The tree queries of a pattern all have to match, so they are evaluated by increasing observed cost per rejected
+ * action: the queries which are cheap and often fail come first, and the others are skipped as soon as one fails.
+ */
+public class PatternPlan {
+
+	private List<KindFilter> kinds = new ArrayList<>();
+	private List<FileFilter> files = new ArrayList<>();
+	private List<TreeFilter> trees = new ArrayList<>();
+
+	private Map<PatternAptitude, CompiledPattern> patterns = new IdentityHashMap<>();
+
+	private AtomicLongArray treeEvaluations;
+	private AtomicLongArray treeRejections;
+	private AtomicLongArray treeNanos;
+
+	/**
+	 * The indexes of the shared filters of a pattern
+	 */
+	public static class CompiledPattern {
+		private int kind;
+		private int[] files;
+		private int[] trees;
+
+		public int getKind() {
+			return kind;
+		}
+
+		public int[] getFiles() {
+			return files;
+		}
+
+		public int[] getTrees() {
+			return trees;
+		}
+	}
+
+	public PatternPlan(List<PatternAptitude> patterns) {
+		Map<String, Integer> kindIndexes = new HashMap<>();
+		Map<String, Integer> fileIndexes = new HashMap<>();
+		Map<String, Integer> treeIndexes = new HashMap<>();
+		for (PatternAptitude p : patterns) {
+			CompiledPattern compiled = new CompiledPattern();
+			compiled.kind = index(kindIndexes, kinds, p.getKind(), p.getKind().getValue());
+			compiled.files = new int[p.getFiles().size()];
+			for (int i = 0; i < compiled.files.length; i++) {
+				FileFilter f = p.getFiles().get(i);
+				compiled.files[i] = index(fileIndexes, files, f, f.getValue().pattern());
+			}
+			compiled.trees = new int[p.getQueries().size()];
+			for (int i = 0; i < compiled.trees.length; i++) {
+				TreeFilter t = p.getQueries().get(i);
+				compiled.trees[i] = index(treeIndexes, trees, t, p.getParser() + "|" + t.getQuery());
+			}
+			this.patterns.put(p, compiled);
+		}
+		treeEvaluations = new AtomicLongArray(trees.size());
+		treeRejections = new AtomicLongArray(trees.size());
+		treeNanos = new AtomicLongArray(trees.size());
+	}
+
+	private static <F extends Filter> int index(Map<String, Integer> indexes, List<F> filters, F filter, String value) {
+		String key = filter.isPresence() + "|" + filter.getDirection() + "|" + value;
+		Integer index = indexes.get(key);
+		if (index == null) {
+			index = filters.size();
+			indexes.put(key, index);
+			filters.add(filter);
+		}
+		return index;
+	}
+
+	public CompiledPattern getPattern(PatternAptitude p) {
+		return patterns.get(p);
+	}
+
+	public int getKindCount() {
+		return kinds.size();
+	}
+
+	public KindFilter getKind(int index) {
+		return kinds.get(index);
+	}
+
+	public int getFileCount() {
+		return files.size();
+	}
+
+	public FileFilter getFile(int index) {
+		return files.get(index);
+	}
+
+	public int getTreeCount() {
+		return trees.size();
+	}
+
+	public TreeFilter getTree(int index) {
+		return trees.get(index);
+	}
+
+	/**
+	 * Records an evaluation of a tree query, to order the next ones
+	 *
+	 * @param index
+	 * @param nanos
+	 *            The duration of the evaluation
+	 * @param rejected
+	 *            Whether the query did not match
+	 */
+	public void recordTree(int index, long nanos, boolean rejected) {
+		treeEvaluations.incrementAndGet(index);
+		treeNanos.addAndGet(index, nanos);
+		if (rejected) treeRejections.incrementAndGet(index);
+	}
+
+	/**
+	 * @param indexes
+	 *            The tree queries of a pattern
+	 * @return The queries in the order they should be evaluated
+	 */
+	public int[] orderTrees(int[] indexes) {
+		if (indexes.length < 2) return indexes;
+		final double[] ranks = new double[indexes.length];
+		Integer[] positions = new Integer[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			ranks[i] = getTreeRank(indexes[i]);
+			positions[i] = i;
+		}
+		Arrays.sort(positions, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(ranks[a], ranks[b]);
+			}
+		});
+		int[] ordered = new int[indexes.length];
+		for (int i = 0; i < indexes.length; i++)
+			ordered[i] = indexes[positions[i]];
+		return ordered;
+	}
+
+	/**
+	 * @return The mean cost of a query divided by its rejection rate, the queries never evaluated coming first
+	 */
+	private double getTreeRank(int index) {
+		long evaluations = treeEvaluations.get(index);
+		if (evaluations == 0) return 0;
+		double cost = (double) treeNanos.get(index) / evaluations;
+		// Smoothed so that a query which never failed yet is not ranked infinitely far
+		double rejectionRate = (treeRejections.get(index) + 1d) / (evaluations + 2d);
+		return cost / rejectionRate;
+	}
+
+}
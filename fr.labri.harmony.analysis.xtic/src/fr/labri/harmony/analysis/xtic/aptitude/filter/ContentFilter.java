@@ -1,9 +1,12 @@
 package fr.labri.harmony.analysis.xtic.aptitude.filter;
 
+import java.util.BitSet;
 
 public class ContentFilter extends Filter {
 
 	private String value;
+	private ContentMatcher matcher;
+	private int index;
 
 	public ContentFilter(String value, boolean presence, String direction) {
 		super(presence, direction);
@@ -17,6 +20,36 @@ public class ContentFilter extends Filter {
 		this.value = value;
 	}
 	
+	/**
+	 * @return The matcher which finds the value of this filter, null if the filter is not compiled
+	 */
+	public ContentMatcher getMatcher() {
+		return matcher;
+	}
+
+	void setMatcher(ContentMatcher matcher, int index) {
+		this.matcher = matcher;
+		this.index = index;
+	}
+
+	/**
+	 * Same as {@link #executeFilter(String, String)}, from the values found by {@link #getMatcher()} in each text
+	 * 
+	 * @param oldMatches
+	 *            null if there is no old text
+	 * @param newMatches
+	 *            null if there is no new text
+	 */
+	public int executeFilter(BitSet oldMatches, BitSet newMatches) {
+		if((direction.equals("source") || direction.equals("both"))) 
+			if(oldMatches != null && this.presence != oldMatches.get(index))
+				return 0;
+		if((direction.equals("target") || direction.equals("both"))) 
+			if(newMatches != null && this.presence != newMatches.get(index))
+				return 0;
+		return 1;
+	}
+
 	public int executeFilter(String oldElement, String newElement) {
 		if((direction.equals("source") || direction.equals("both"))) 
 			if(oldElement != null && this.presence != oldElement.contains(value))
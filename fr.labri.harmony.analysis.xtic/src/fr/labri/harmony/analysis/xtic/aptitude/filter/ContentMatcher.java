@@ -0,0 +1,135 @@
+package fr.labri.harmony.analysis.xtic.aptitude.filter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds all the values of a set of {@link ContentFilter}s in a text in a single scan, with an Aho-Corasick automaton.
+ * The automaton is a complete DFA over the characters which appear in the values, all the other characters leading
+ * back to the initial state.
+ */
+public class ContentMatcher {
+
+	private Map<String, Integer> indexes = new LinkedHashMap<>();
+
+	/**
+	 * The symbol of each character, 0 for the characters which do not appear in any value
+	 */
+	private int[] symbols;
+	private int width;
+
+	/**
+	 * The next state, for each state and symbol
+	 */
+	private int[] transitions;
+
+	/**
+	 * The indexes of the values ending at each state
+	 */
+	private int[][] outputs;
+
+	/**
+	 * The values which are found in any text, i.e. the empty string
+	 */
+	private BitSet alwaysFound = new BitSet();
+
+	/**
+	 * Compiles the values of the given filters, and binds each filter to the matcher
+	 *
+	 * @param filters
+	 * @return The matcher of the filters
+	 */
+	public static ContentMatcher compile(List<ContentFilter> filters) {
+		return new ContentMatcher(filters);
+	}
+
+	private ContentMatcher(List<ContentFilter> filters) {
+		for (ContentFilter filter : filters) {
+			Integer index = indexes.get(filter.getValue());
+			if (index == null) {
+				index = indexes.size();
+				indexes.put(filter.getValue(), index);
+			}
+			filter.setMatcher(this, index);
+		}
+
+		symbols = new int[Character.MAX_VALUE + 1];
+		width = 1;
+		for (String value : indexes.keySet())
+			for (int i = 0; i < value.length(); i++)
+				if (symbols[value.charAt(i)] == 0) symbols[value.charAt(i)] = width++;
+
+		// The trie of the values, the state 0 being the root
+		List<int[]> rows = new ArrayList<>();
+		List<List<Integer>> ends = new ArrayList<>();
+		rows.add(new int[width]);
+		ends.add(new ArrayList<Integer>());
+		for (Map.Entry<String, Integer> value : indexes.entrySet()) {
+			if (value.getKey().isEmpty()) {
+				alwaysFound.set(value.getValue());
+				continue;
+			}
+			int state = 0;
+			for (int i = 0; i < value.getKey().length(); i++) {
+				int symbol = symbols[value.getKey().charAt(i)];
+				if (rows.get(state)[symbol] == 0) {
+					rows.get(state)[symbol] = rows.size();
+					rows.add(new int[width]);
+					ends.add(new ArrayList<Integer>());
+				}
+				state = rows.get(state)[symbol];
+			}
+			ends.get(state).add(value.getValue());
+		}
+
+		// Breadth first, the failure of a state is shallower so its transitions are already complete
+		int[] failures = new int[rows.size()];
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		for (int symbol = 0; symbol < width; symbol++) {
+			int child = rows.get(0)[symbol];
+			if (child != 0) queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			int state = queue.poll();
+			int[] row = rows.get(state);
+			int[] failureRow = rows.get(failures[state]);
+			ends.get(state).addAll(ends.get(failures[state]));
+			for (int symbol = 0; symbol < width; symbol++) {
+				int child = row[symbol];
+				if (child != 0) {
+					failures[child] = failureRow[symbol];
+					queue.add(child);
+				} else row[symbol] = failureRow[symbol];
+			}
+		}
+
+		transitions = new int[rows.size() * width];
+		outputs = new int[rows.size()][];
+		for (int state = 0; state < rows.size(); state++) {
+			System.arraycopy(rows.get(state), 0, transitions, state * width, width);
+			outputs[state] = new int[ends.get(state).size()];
+			for (int i = 0; i < outputs[state].length; i++)
+				outputs[state][i] = ends.get(state).get(i);
+		}
+	}
+
+	/**
+	 * @param text
+	 * @return The indexes of the values found in the text
+	 */
+	public BitSet match(String text) {
+		BitSet found = (BitSet) alwaysFound.clone();
+		int state = 0;
+		for (int i = 0; i < text.length(); i++) {
+			state = transitions[state * width + symbols[text.charAt(i)]];
+			for (int index : outputs[state])
+				found.set(index);
+		}
+		return found;
+	}
+
+}
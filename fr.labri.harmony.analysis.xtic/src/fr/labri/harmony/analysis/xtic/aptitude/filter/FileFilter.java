@@ -6,6 +6,8 @@ import java.util.regex.Pattern;
 public class FileFilter extends Filter {
 
 	private Pattern value;
+	private FileMatcher matcher;
+	private int index;
 
 	public FileFilter(String value, boolean presence, String direction) {
 		super(presence, direction);
@@ -17,17 +19,33 @@ public class FileFilter extends Filter {
 	}
 	public void setValue(Pattern value) {
 		this.value = value;
+		this.matcher = null;
 	}
 	
+	void setMatcher(FileMatcher matcher, int index) {
+		this.matcher = matcher;
+		this.index = index;
+	}
+
 	public int executeFilter(String oldElement, String newElement) {
 		if((direction.equals("source") || direction.equals("both"))) 
-			if(oldElement != null && this.presence != this.value.matcher(oldElement.trim()).find())
+			if(oldElement != null && this.presence != find(oldElement))
 				return 0;
 		if((direction.equals("target") || direction.equals("both"))) 
-			if(newElement != null && this.presence != this.value.matcher(newElement.trim()).find())
+			if(newElement != null && this.presence != find(newElement))
 				return 0;
 		return 1;
 	}
 
+	/**
+	 * @return Whether the expression is found in the path, through the matcher of all the file filters if this filter
+	 *         is compiled
+	 */
+	private boolean find(String path) {
+		if (matcher != null)
+			return matcher.match(path).get(index);
+		return this.value.matcher(path.trim()).find();
+	}
+
 	
 }
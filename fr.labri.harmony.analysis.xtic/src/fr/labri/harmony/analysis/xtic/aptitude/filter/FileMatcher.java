@@ -0,0 +1,115 @@
+package fr.labri.harmony.analysis.xtic.aptitude.filter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates the regular expressions of a set of {@link FileFilter}s on a path at once. The expressions which can only
+ * match a given extension, e.g. <code>\.java$</code>, are indexed by this extension, so that only the expressions of
+ * the extension of the path and the ones which could not be indexed are run. <br>
+ * The result is memoized by path for the whole run, as the same paths are changed again and again.
+ */
+public class FileMatcher {
+
+	/**
+	 * An expression ending with a literal extension, and without alternative which could avoid it
+	 */
+	private static final Pattern EXTENSION_SUFFIX = Pattern.compile("[^|]*?(\\\\+)\\.([A-Za-z0-9_]+)\\$");
+
+	private List<Pattern> patterns = new ArrayList<>();
+	private Map<String, int[]> byExtension = new HashMap<>();
+	private int[] unindexed;
+
+	private ConcurrentHashMap<String, BitSet> matches = new ConcurrentHashMap<>();
+
+	/**
+	 * Compiles the expressions of the given filters, and binds each filter to the matcher
+	 *
+	 * @param filters
+	 * @return The matcher of the filters
+	 */
+	public static FileMatcher compile(List<FileFilter> filters) {
+		return new FileMatcher(filters);
+	}
+
+	private FileMatcher(List<FileFilter> filters) {
+		Map<String, Integer> indexes = new LinkedHashMap<>();
+		for (FileFilter filter : filters) {
+			Integer index = indexes.get(filter.getValue().pattern());
+			if (index == null) {
+				index = patterns.size();
+				indexes.put(filter.getValue().pattern(), index);
+				patterns.add(filter.getValue());
+			}
+			filter.setMatcher(this, index);
+		}
+
+		Map<String, List<Integer>> extensions = new HashMap<>();
+		List<Integer> others = new ArrayList<>();
+		for (int i = 0; i < patterns.size(); i++) {
+			String extension = getExtension(patterns.get(i));
+			if (extension == null) others.add(i);
+			else {
+				if (!extensions.containsKey(extension)) extensions.put(extension, new ArrayList<Integer>());
+				extensions.get(extension).add(i);
+			}
+		}
+		for (Map.Entry<String, List<Integer>> e : extensions.entrySet())
+			byExtension.put(e.getKey(), toArray(e.getValue()));
+		unindexed = toArray(others);
+	}
+
+	/**
+	 * @return The extension a path must have to match the expression, or null if it cannot be determined
+	 */
+	private static String getExtension(Pattern pattern) {
+		if (pattern.flags() != 0) return null;
+		Matcher m = EXTENSION_SUFFIX.matcher(pattern.pattern());
+		// An even number of backslashes escapes itself, the dot is then a wildcard
+		if (!m.matches() || m.group(1).length() % 2 == 0 || pattern.pattern().contains("(?")) return null;
+		return m.group(2);
+	}
+
+	private static String getExtension(String path) {
+		int dot = path.lastIndexOf('.');
+		if (dot == -1 || dot < path.lastIndexOf('/')) return "";
+		return path.substring(dot + 1);
+	}
+
+	private static int[] toArray(List<Integer> list) {
+		int[] array = new int[list.size()];
+		for (int i = 0; i < array.length; i++)
+			array[i] = list.get(i);
+		return array;
+	}
+
+	/**
+	 * @param path
+	 * @return The indexes of the expressions found in the path
+	 */
+	public BitSet match(String path) {
+		BitSet found = matches.get(path);
+		if (found == null) {
+			found = new BitSet(patterns.size());
+			String trimmed = path.trim();
+			int[] candidates = byExtension.get(getExtension(trimmed));
+			if (candidates != null) find(trimmed, candidates, found);
+			find(trimmed, unindexed, found);
+			matches.put(path, found);
+		}
+		return found;
+	}
+
+	private void find(String path, int[] candidates, BitSet found) {
+		for (int index : candidates)
+			if (patterns.get(index).matcher(path).find()) found.set(index);
+	}
+
+}
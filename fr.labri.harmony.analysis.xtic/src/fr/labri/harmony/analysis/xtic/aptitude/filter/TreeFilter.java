@@ -1,88 +1,89 @@
 package fr.labri.harmony.analysis.xtic.aptitude.filter;
 
-import java.io.IOException;
 import java.io.StringReader;
+import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.xpath.XPath;
+import javax.xml.transform.stream.StreamSource;
 import javax.xml.xpath.XPathConstants;
 import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import javax.xml.xpath.XPathFactoryConfigurationException;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
+import net.sf.saxon.om.NodeInfo;
+import net.sf.saxon.trans.XPathException;
+import net.sf.saxon.xpath.XPathFactoryImpl;
 
 public class TreeFilter extends Filter {
-	
+
+	/**
+	 * Saxon only evaluates an expression on a tree built with the same configuration, so all the queries and all the
+	 * trees share this factory
+	 */
+	private static final XPathFactoryImpl XPATH_FACTORY = new XPathFactoryImpl();
+
+	private String query;
 	private XPathExpression expression;
 
 	public TreeFilter(String query, boolean presence, String direction) {
 		super(presence, direction);
+		this.query = query;
 		try {
-			System.setProperty("javax.xml.xpath.XPathFactory:http://saxon.sf.net/", "net.sf.saxon.xpath.XPathFactoryImpl");
-			XPathFactory xpf = XPathFactory.newInstance("http://saxon.sf.net/");
-			XPath xpath = xpf.newXPath();
-			expression = xpath.compile(query);
-		} catch (XPathFactoryConfigurationException e) {
-			e.printStackTrace();
+			expression = XPATH_FACTORY.newXPath().compile(query);
 		} catch (XPathExpressionException e) {
 			e.printStackTrace();
 		}
 	}
 
+	public String getQuery() {
+		return query;
+	}
+
+	/**
+	 * Parses the XML of a diff once, so that all the queries of all the patterns can be evaluated on it
+	 *
+	 * @param xml
+	 * @return The tree, or null if the XML is empty or cannot be parsed
+	 */
+	public static NodeInfo buildTree(String xml) {
+		if (xml == null || xml.isEmpty())
+			return null;
+		try {
+			return XPATH_FACTORY.getConfiguration().buildDocument(new StreamSource(new StringReader(xml)));
+		} catch (XPathException e) {
+			return null;
+		}
+	}
 
 	public int executeFilter(String oldElement, String newElement) {
+		return executeFilter(buildTree(oldElement), buildTree(newElement));
+	}
+
+	/**
+	 * @param oldTree
+	 *            Built by {@link #buildTree(String)}, null if there is no diff
+	 * @param newTree
+	 *            Built by {@link #buildTree(String)}, null if there is no diff
+	 */
+	public int executeFilter(NodeInfo oldTree, NodeInfo newTree) {
 		try {
-			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-			DocumentBuilder db = dbf.newDocumentBuilder();
 			int oldResult = 0;
-			if(direction.equals("source")) {
-				if(!oldElement.isEmpty()){
-					Document doc = db.parse(new InputSource(new StringReader(oldElement)));
-					oldResult = ((NodeList) expression.evaluate(doc, XPathConstants.NODESET)).getLength();
-					if(oldResult==0 && presence)
-						return 0;
-					if(oldResult > 0 && !presence)
-						return 0;
-				}
-				else return 0;
+			if(direction.equals("source") || direction.equals("both")) {
+				if(oldTree == null)
+					return 0;
+				oldResult = count(oldTree);
+				if(oldResult==0 && presence)
+					return 0;
+				if(oldResult > 0 && !presence)
+					return 0;
 			}
 			int newResult = 0;
-			if(direction.equals("target")) {
-				if(!newElement.isEmpty()){
-					Document doc = db.parse(new InputSource(new StringReader(newElement)));
-					newResult = ((NodeList) expression.evaluate(doc, XPathConstants.NODESET)).getLength();
-					if(newResult==0 && presence)
-						return 0;
-					if(newResult > 0 && !presence)
-						return 0;
-				}
-				else return 0;
-			}
-			if(direction.equals("both")) {
-				if(!oldElement.isEmpty() && !newElement.isEmpty()) {
-					//source
-					Document doc = db.parse(new InputSource(new StringReader(oldElement)));
-					oldResult = ((NodeList) expression.evaluate(doc, XPathConstants.NODESET)).getLength();
-					if(oldResult==0 && presence)
-						return 0;
-					if(oldResult > 0 && !presence)
-						return 0;
-					//target
-					doc = db.parse(new InputSource(new StringReader(newElement)));
-					newResult = ((NodeList) expression.evaluate(doc, XPathConstants.NODESET)).getLength();
-					if(newResult==0 && presence)
-						return 0;
-					if(newResult > 0 && !presence)
-						return 0;
-				}
-				else return 0;
+			if(direction.equals("target") || direction.equals("both")) {
+				if(newTree == null)
+					return 0;
+				newResult = count(newTree);
+				if(newResult==0 && presence)
+					return 0;
+				if(newResult > 0 && !presence)
+					return 0;
 			}
 			//If there is a combination of queries
 			if(direction.equals("both"))
@@ -91,13 +92,14 @@ public class TreeFilter extends Filter {
 				return oldResult;
 			else
 				return newResult;
-		} catch (ParserConfigurationException | IOException | XPathExpressionException e) {
+		} catch (XPathExpressionException e) {
 			e.printStackTrace();
-		} catch (SAXException e) {
-			
 		}
 		return 0;
 	}
 
-	
+	private int count(NodeInfo tree) throws XPathExpressionException {
+		return ((List<?>) expression.evaluate(tree, XPathConstants.NODESET)).size();
+	}
+
 }
@@ -28,7 +28,7 @@ public class ReportCSVTime extends Report {
 			for(PatternAptitude ap : apt.getPatterns()) {
 				for(Developer dev : developers) 
 					if(dev.getScore().get(ap) != null) 
-						if(!dev.getScore().get(ap).getList().isEmpty()) {
+						if(!dev.getScore().get(ap).isEmpty()) {
 							timestamps.addAll(dev.getScore().get(ap).getTimestamps());
 							for(TimedScore ts : dev.getScore().get(ap).getList()) {
 								ps.println(apt.getIdName()+";"+ap.getIdName()+";"+dev.getName()+";"+ts.getTimestamp()+";"+ts.getValue());
@@ -60,7 +60,7 @@ public class ReportCSVTimeForR extends Report {
 					continue;
 				for(Developer dev : developers) 
 					if(dev.getScore().get(ap) != null) 
-						if(!dev.getScore().get(ap).getList().isEmpty()) 
+						if(!dev.getScore().get(ap).isEmpty()) 
 							for(long ts : dev.getScore().get(ap).getTimestamps() )
 								timestamps.add(dateF.format(new Date(ts)));
 			}
@@ -78,7 +78,7 @@ public class ReportCSVTimeForR extends Report {
 					for(Developer dev : developers)  {
 						long score_dev = 0L;
 						if(dev.getScore().get(ap) != null) 
-							if(!dev.getScore().get(ap).getList().isEmpty()) {
+							if(!dev.getScore().get(ap).isEmpty()) {
 								for(TimedScore ts : dev.getScore().get(ap).getList()) {
 									try {
 										if(ts.getTimestamp() <= dateF.parse(day).getTime() ||
@@ -50,7 +50,7 @@ public class ReportHTMLAptCoEvolution extends ReportHTML {
 					score_apt.put(ap, new ListTimedScore());
 					for(Developer dev : developers) {
 						if(dev.getScore().get(ap) != null) 
-							if(!dev.getScore().get(ap).getList().isEmpty()) {
+							if(!dev.getScore().get(ap).isEmpty()) {
 								timestamps.addAll(dev.getScore().get(ap).getTimestamps());
 								for(TimedScore ts : dev.getScore().get(ap).getList()) {
 									score_apt.get(ap).addValues(ts.getTimestamp(), ts.getValue());
@@ -41,14 +41,14 @@ public class ReportHTMLAptCoHappening extends ReportHTMLCoHappening {
 			for(PatternAptitude ap : apt.getPatterns()) {
 				for(Developer dev : developers) {
 					if(dev.getScore().get(ap) != null) 
-						if(!dev.getScore().get(ap).getList().isEmpty()) {
+						if(!dev.getScore().get(ap).isEmpty()) {
 							for(TimedScore ts : dev.getScore().get(ap).getList()) {
 								score_apt_global.get(apt).addValues(ts.getTimestamp(), ts.getValue());
 							}
 						}
 				}
 			}
-			if(!score_apt_global.get(apt).getList().isEmpty()) {
+			if(!score_apt_global.get(apt).isEmpty()) {
 				list_aptitudes.add(apt);
 			}
 		}
@@ -80,13 +80,13 @@ public class ReportHTMLAptCoHappening extends ReportHTMLCoHappening {
 				score_apt_global.put(apt, new ListTimedScore());
 				for(PatternAptitude ap : apt.getPatterns()) {
 					if(dev.getScore().get(ap) != null) 
-						if(!dev.getScore().get(ap).getList().isEmpty()) {
+						if(!dev.getScore().get(ap).isEmpty()) {
 							for(TimedScore ts : dev.getScore().get(ap).getList()) {
 								score_apt_global.get(apt).addValues(ts.getTimestamp(), ts.getValue());
 							}
 						}
 				}	
-				if(!score_apt_global.get(apt).getList().isEmpty()) {
+				if(!score_apt_global.get(apt).isEmpty()) {
 					list_aptitudes.add(apt);
 				}
 			}
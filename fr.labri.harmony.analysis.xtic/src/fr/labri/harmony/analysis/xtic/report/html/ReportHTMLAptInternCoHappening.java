@@ -43,13 +43,13 @@ public class ReportHTMLAptInternCoHappening extends ReportHTMLCoHappening {
 				score_apt.put(ap, new ListTimedScore());
 				for(Developer dev : developers) {
 					if(dev.getScore().get(ap) != null) 
-						if(!dev.getScore().get(ap).getList().isEmpty()) {
+						if(!dev.getScore().get(ap).isEmpty()) {
 							for(TimedScore ts : dev.getScore().get(ap).getList()) {
 								score_apt.get(ap).addValues(ts.getTimestamp(), ts.getValue());
 							}
 						}
 				}
-				if(!score_apt.get(ap).getList().isEmpty()) {
+				if(!score_apt.get(ap).isEmpty()) {
 					list_patterns.add(ap);
 				}
 			}
@@ -83,12 +83,12 @@ public class ReportHTMLAptInternCoHappening extends ReportHTMLCoHappening {
 				for(PatternAptitude ap : apt.getPatterns()) {
 					score_apt.put(ap, new ListTimedScore());
 					if(dev.getScore().get(ap) != null) 
-						if(!dev.getScore().get(ap).getList().isEmpty()) {
+						if(!dev.getScore().get(ap).isEmpty()) {
 							for(TimedScore ts : dev.getScore().get(ap).getList()) {
 								score_apt.get(ap).addValues(ts.getTimestamp(), ts.getValue());
 							}
 						}
-					if(!score_apt.get(ap).getList().isEmpty()) {
+					if(!score_apt.get(ap).isEmpty()) {
 						list_patterns.add(ap);
 					}
 				}	
@@ -51,7 +51,7 @@ public class ReportHTMLDevelopers extends ReportHTML {
 		for(Aptitude apt : aptitudes) {
 			for(PatternAptitude ap : apt.getPatterns()) {
 				if(dev.getScore().get(ap) != null) {
-					if(!dev.getScore().get(ap).getList().isEmpty()) 
+					if(!dev.getScore().get(ap).isEmpty()) 
 						timestamps.addAll(dev.getScore().get(ap).getTimestamps());
 				}
 			}
@@ -69,7 +69,7 @@ public class ReportHTMLDevelopers extends ReportHTML {
 		for(Aptitude apt : aptitudes)
 			for(PatternAptitude ap : apt.getPatterns())
 				if(dev.getScore().get(ap)!=null) {
-					if(!dev.getScore().get(ap).getList().isEmpty()) {
+					if(!dev.getScore().get(ap).isEmpty()) {
 						for(long timestamp : timestamps)
 							dev.addIfAbsentAptitudePattern(ap, timestamp);
 					}
@@ -85,7 +85,7 @@ public class ReportHTMLDevelopers extends ReportHTML {
 			Counters<Long> values = new Counters<>();
 			for(PatternAptitude ap : apt.getPatterns()) {
 				if(dev.getScore().get(ap)!=null) {
-					if(!dev.getScore().get(ap).getList().isEmpty()) {
+					if(!dev.getScore().get(ap).isEmpty()) {
 						for(TimedScore ts : dev.getScore().get(ap).scoreSortedByTime()) {
 							values.add(ts.getTimestamp(),ts.getValue());
 						}
@@ -134,7 +134,7 @@ public class ReportHTMLDevelopers extends ReportHTML {
 		for(Aptitude apt : aptitudes)
 			for(PatternAptitude ap : apt.getPatterns()) {
 				if(dev.getScore().get(ap) != null) {
-					if(!dev.getScore().get(ap).getList().isEmpty())
+					if(!dev.getScore().get(ap).isEmpty())
 						timestamps.addAll(dev.getScore().get(ap).getTimestamps());
 				}
 			}
@@ -151,7 +151,7 @@ public class ReportHTMLDevelopers extends ReportHTML {
 		for(Aptitude apt : aptitudes)
 			for(PatternAptitude ap : apt.getPatterns())
 				if(dev.getScore().get(ap)!=null) {
-					if(!dev.getScore().get(ap).getList().isEmpty()) {
+					if(!dev.getScore().get(ap).isEmpty()) {
 						for(long timestamp : timestamps)
 							dev.addIfAbsentAptitudePattern(ap, timestamp);
 					}
@@ -162,7 +162,7 @@ public class ReportHTMLDevelopers extends ReportHTML {
 		for(Aptitude apt : aptitudes) {
 			for(PatternAptitude ap : apt.getPatterns()) {
 				if(dev.getScore().get(ap)!=null) {
-					if(!dev.getScore().get(ap).getList().isEmpty()) {
+					if(!dev.getScore().get(ap).isEmpty()) {
 						if(!firstApt)
 							ps.println(",");
 						ps.println(" {"
@@ -40,7 +40,7 @@ public class ReportHTMLEvolutionAptitudes extends ReportHTML {
 				score_apt.put(ap, new ListTimedScore());
 				for(Developer dev : developers) 
 					if(dev.getScore().get(ap) != null) 
-						if(!dev.getScore().get(ap).getList().isEmpty()) {
+						if(!dev.getScore().get(ap).isEmpty()) {
 							timestamps.addAll(dev.getScore().get(ap).getTimestamps());
 							for(TimedScore ts : dev.getScore().get(ap).getList()) {
 								score_apt.get(ap).addValues(ts.getTimestamp(), ts.getValue());
@@ -54,7 +54,7 @@ public class ReportHTMLEvolutionAptitudes extends ReportHTML {
 			for(PatternAptitude ap : apt.getPatterns())
 				for(Developer dev : developers) 
 					if(dev.getScore().get(ap) != null) 
-						if(!dev.getScore().get(ap).getList().isEmpty())
+						if(!dev.getScore().get(ap).isEmpty())
 							for(long timestamp : timestamps) {
 								score_apt.get(ap).addIfAbsent(timestamp);
 								score_apt_global.get(apt).addIfAbsent(timestamp);
@@ -65,7 +65,7 @@ public class ReportHTMLEvolutionAptitudes extends ReportHTML {
 		boolean firstApt = true;
 		for(Aptitude apt : aptitudes) {
 			StringBuffer sb = new StringBuffer();
-			if(!score_apt_global.get(apt).getList().isEmpty()) {
+			if(!score_apt_global.get(apt).isEmpty()) {
 				if(!firstApt)
 					ps.print(",");
 				ps.print(" {"
@@ -112,14 +112,14 @@ public class ReportHTMLEvolutionAptitudes extends ReportHTML {
 		Set<Long> timestamps = new HashSet<Long>();
 		for(PatternAptitude pa : score_apt.keySet()) 
 			if(pa.getAptitude().getId()==apt.getId()) 
-				if(!score_apt.get(pa).getList().isEmpty()) 
+				if(!score_apt.get(pa).isEmpty()) 
 					for(TimedScore ts : score_apt.get(pa).scoreSortedByTime()) 
 						timestamps.add(ts.getTimestamp());
 
 		boolean firstApt = true;
 		for(PatternAptitude pa : score_apt.keySet()) {
 			if(pa.getAptitude().getId()==apt.getId()) {
-				if(!score_apt.get(pa).getList().isEmpty()) {
+				if(!score_apt.get(pa).isEmpty()) {
 					if(!firstApt)
 						ps.print(",");
 					ps.print(" {"
@@ -153,7 +153,7 @@ public class ReportHTMLEvolutionAptitudes extends ReportHTML {
 		Set<Long> timestamps = new HashSet<Long>();
 		for(Developer dev : developers) 
 			if(dev.getScore().get(aptitude) != null) 
-				if(!dev.getScore().get(aptitude).getList().isEmpty())
+				if(!dev.getScore().get(aptitude).isEmpty())
 					timestamps.addAll(dev.getScore().get(aptitude).getTimestamps());
 
 		if(timestamps.isEmpty()) {
@@ -166,7 +166,7 @@ public class ReportHTMLEvolutionAptitudes extends ReportHTML {
 		//On ajoute des valeurs vides aux devs pour les timestamps
 		for(Developer dev : developers) 
 			if(dev.getScore().get(aptitude) != null) 
-				if(!dev.getScore().get(aptitude).getList().isEmpty()) {
+				if(!dev.getScore().get(aptitude).isEmpty()) {
 					for(long timestamp : timestamps)
 						dev.addIfAbsentAptitudePattern(aptitude, timestamp);
 				}
@@ -175,7 +175,7 @@ public class ReportHTMLEvolutionAptitudes extends ReportHTML {
 		boolean firstDev = true;
 		for(Developer dev : developers) {
 			if(dev.getScore().get(aptitude) != null) {
-				if(!dev.getScore().get(aptitude).getList().isEmpty()) {
+				if(!dev.getScore().get(aptitude).isEmpty()) {
 					if(!firstDev)
 						ps.println(",");
 					ps.println(" {"
@@ -179,7 +179,7 @@ public class ReportJSON extends Report {
 								for(Developer dev : devs) {
 									for(PatternAptitude dev_apt : dev.getScore().keySet()) {
 										if(dev_apt.hashCode() == apt_P) {
-											if(!dev.getScore().get(dev_apt).getList().isEmpty()) {
+											if(!dev.getScore().get(dev_apt).isEmpty()) {
 												for(TimedScore ts : dev.getScore().get(dev_apt).getList()) {
 													if(limit >= 10)
 														break;
@@ -170,7 +170,7 @@ public class ReportJSONMongo extends Report {
 									if(dev!=null && dev.getScore()!=null) {
 										for(PatternAptitude dev_apt : dev.getScore().keySet()) {
 											if(dev_apt.hashCode() == apt_P) {
-												if(!dev.getScore().get(dev_apt).getList().isEmpty()) {
+												if(!dev.getScore().get(dev_apt).isEmpty()) {
 													for(TimedScore ts : dev.getScore().get(dev_apt).getList()) {
 														PojoObservation observation = new PojoObservation();
 														observation.setWho(((ObjectId)ds.getKey(developers.get(dev.hashCode())).getId()));
@@ -159,7 +159,7 @@ public class ReportJSONStudent extends Report {
 									System.out.println(dev.getId());
 									for(PatternAptitude dev_apt : dev.getScore().keySet()) {
 										if(dev_apt.hashCode() == apt_P) {
-											if(!dev.getScore().get(dev_apt).getList().isEmpty()) {
+											if(!dev.getScore().get(dev_apt).isEmpty()) {
 												jGenerator.writeStartObject();
 												jGenerator.writeNumberField("repo", src.getId()); 
 												jGenerator.writeNumberField("dev", dev.getId());
@@ -8,6 +8,7 @@ import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.SetMultimap;
@@ -38,8 +39,10 @@ public class AuthorMerger extends SingleSourceAnalysis {
 		ArrayList<String> releasesCommits = (ArrayList<String>) src.getConfig().getOption("releases");
 		// releases order : R0, R -1, R -2
 
-		Event r0 = dao.getEvent(src, releasesCommits.get(0));
-		Event r1 = dao.getEvent(src, releasesCommits.get(releasesCommits.size() - 1));
+		// The releases can be given by commit or by tag
+		Map<String, Event> releases = dao.getEvents(src, releasesCommits);
+		Event r0 = releases.get(releasesCommits.get(0));
+		Event r1 = releases.get(releasesCommits.get(releasesCommits.size() - 1));
 
 		HashSet<Author> authors = new HashSet<>();
 
@@ -137,4 +140,4 @@ public class AuthorMerger extends SingleSourceAnalysis {
 		
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
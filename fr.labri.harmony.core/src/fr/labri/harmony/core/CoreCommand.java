@@ -1,20 +1,34 @@
 package fr.labri.harmony.core;
 
+import java.io.File;
+
 import org.eclipse.osgi.framework.console.CommandInterpreter;
 import org.eclipse.osgi.framework.console.CommandProvider;
 
 import fr.labri.harmony.core.config.GlobalConfigReader;
 import fr.labri.harmony.core.config.SourceConfigReader;
+import fr.labri.harmony.core.dao.Dao;
+import fr.labri.harmony.core.dao.DaoFactory;
+import fr.labri.harmony.core.dao.SourceArchive;
 import fr.labri.harmony.core.execution.StudyScheduler;
 import fr.labri.harmony.core.log.HarmonyLogger;
+import fr.labri.harmony.core.model.Source;
 
 public class CoreCommand implements CommandProvider {
 
 	public CoreCommand() {
 	}
 
+	/**
+	 * <code>harmony &lt;global-config&gt; &lt;source-config&gt;</code> runs a study,
+	 * <code>harmony export &lt;global-config&gt; &lt;source-url&gt; &lt;file&gt;</code> exports an extracted source and
+	 * <code>harmony import &lt;global-config&gt; &lt;file&gt;</code> imports it back.
+	 */
 	public void _harmony(CommandInterpreter ci) {
-			harmony(ci.nextArgument(), ci.nextArgument());
+		String first = ci.nextArgument();
+		if ("export".equals(first)) export(ci.nextArgument(), ci.nextArgument(), ci.nextArgument());
+		else if ("import".equals(first)) importSource(ci.nextArgument(), ci.nextArgument());
+		else harmony(first, ci.nextArgument());
 	}
 
 	public void harmony(String globalConfigPath, String sourceConfigPath) {
@@ -29,6 +43,30 @@ public class CoreCommand implements CommandProvider {
 		}
 	}
 
+	public void export(String globalConfigPath, String sourceUrl, String archivePath) {
+		try {
+			GlobalConfigReader global = new GlobalConfigReader(globalConfigPath);
+			Dao dao = new DaoFactory(global.getDatabaseConfiguration()).createDao();
+			Source source = dao.getSourceByUrl(sourceUrl);
+			if (source == null) HarmonyLogger.error("No source with url %s in the database", sourceUrl);
+			else SourceArchive.exportSource(dao, source, new File(archivePath));
+		} catch (Exception ex) {
+			HarmonyLogger.error("Harmony was not able to export the source %s", sourceUrl);
+			ex.printStackTrace();
+		}
+	}
+
+	public void importSource(String globalConfigPath, String archivePath) {
+		try {
+			GlobalConfigReader global = new GlobalConfigReader(globalConfigPath);
+			DaoFactory factory = new DaoFactory(global.getDatabaseConfiguration());
+			SourceArchive.importSource(factory.createDao(), factory.createModelPersister(), new File(archivePath));
+		} catch (Exception ex) {
+			HarmonyLogger.error("Harmony was not able to import the source archive %s", archivePath);
+			ex.printStackTrace();
+		}
+	}
+
 	@Override
 	public String getHelp() {
 		return null;
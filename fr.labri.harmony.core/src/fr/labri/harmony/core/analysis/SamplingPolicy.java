@@ -0,0 +1,218 @@
+package fr.labri.harmony.core.analysis;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import fr.labri.harmony.core.model.Event;
+import fr.labri.harmony.core.model.Release;
+
+/**
+ * Selects the events of a source on which a per-event analysis is run, so that it does not have to process the whole
+ * history. It is configured with the analysis option {@link #OPT_SAMPLING}, whose value is one of:
+ * <ul>
+ * <li><code>all</code>: every event (the default)</li>
+ * <li><code>every:N</code>: one event out of N</li>
+ * <li><code>day</code>, <code>week</code> or <code>month</code>: the last event of each day, week or month (UTC)</li>
+ * <li><code>tags</code>: the tagged events</li>
+ * <li><code>tags:FROM..TO</code>: the events between the events tagged FROM and TO, inclusive. FROM or TO can be left
+ * empty, but a tag which is not a release of the source is an error</li>
+ * </ul>
+ * The tags are read from the releases of the source, see {@link fr.labri.harmony.core.dao.Dao#getReleases(fr.labri.harmony.core.model.Source)}.
+ * The policy is stored with the results of the analyses, see {@link #toString()}.
+ */
+public class SamplingPolicy {
+
+	public static final String OPT_SAMPLING = "sampling";
+
+	public static final SamplingPolicy ALL = new SamplingPolicy(Kind.ALL, 1, null, null);
+
+	private static final long DAY = 24 * 60 * 60 * 1000L;
+
+	private enum Kind {
+		ALL, EVERY, DAY, WEEK, MONTH, TAGS, BETWEEN_TAGS
+	}
+
+	private Kind kind;
+	private int step;
+	private String fromTag;
+	private String toTag;
+
+	private SamplingPolicy(Kind kind, int step, String fromTag, String toTag) {
+		this.kind = kind;
+		this.step = step;
+		this.fromTag = fromTag;
+		this.toTag = toTag;
+	}
+
+	/**
+	 * @param spec
+	 *            The value of the {@link #OPT_SAMPLING} option, can be null
+	 * @return The corresponding policy
+	 * @throws IllegalArgumentException
+	 *             If the value is not a valid policy
+	 */
+	public static SamplingPolicy parse(String spec) {
+		if (spec == null || spec.isEmpty() || spec.equals("all")) return ALL;
+		switch (spec) {
+		case "day":
+			return new SamplingPolicy(Kind.DAY, 1, null, null);
+		case "week":
+			return new SamplingPolicy(Kind.WEEK, 1, null, null);
+		case "month":
+			return new SamplingPolicy(Kind.MONTH, 1, null, null);
+		case "tags":
+			return new SamplingPolicy(Kind.TAGS, 1, null, null);
+		}
+		if (spec.startsWith("every:")) {
+			int step = Integer.parseInt(spec.substring("every:".length()));
+			if (step < 1) throw new IllegalArgumentException("Invalid sampling step: " + spec);
+			return step == 1 ? ALL : new SamplingPolicy(Kind.EVERY, step, null, null);
+		}
+		if (spec.startsWith("tags:") && spec.contains("..")) {
+			String range = spec.substring("tags:".length());
+			String from = range.substring(0, range.indexOf(".."));
+			String to = range.substring(range.indexOf("..") + 2);
+			return new SamplingPolicy(Kind.BETWEEN_TAGS, 1, from.isEmpty() ? null : from, to.isEmpty() ? null : to);
+		}
+		throw new IllegalArgumentException("Unknown sampling policy: " + spec);
+	}
+
+	public boolean isAll() {
+		return kind == Kind.ALL;
+	}
+
+	/**
+	 * @return Whether {@link #sample(List, List)} needs the releases of the source
+	 */
+	public boolean usesReleases() {
+		return kind == Kind.TAGS || kind == Kind.BETWEEN_TAGS;
+	}
+
+	/**
+	 * @param events
+	 *            The events of a source, ordered by timestamp
+	 * @param releases
+	 *            The releases of the source, only read if {@link #usesReleases()}
+	 * @return The selected events, in the same order
+	 * @throws IllegalArgumentException
+	 *             If a tag of the policy is not a release of the source
+	 */
+	public List<Event> sample(List<Event> events, List<Release> releases) {
+		switch (kind) {
+		case ALL:
+			return events;
+		case EVERY:
+			return sampleEvery(events);
+		case DAY:
+		case WEEK:
+		case MONTH:
+			return sampleLastOfPeriod(events);
+		case TAGS:
+			return sampleTagged(events, releases);
+		case BETWEEN_TAGS:
+			return sampleBetweenTags(events, releases);
+		default:
+			return events;
+		}
+	}
+
+	private List<Event> sampleEvery(List<Event> events) {
+		List<Event> sampled = new ArrayList<>();
+		for (int i = 0; i < events.size(); i += step)
+			sampled.add(events.get(i));
+		return sampled;
+	}
+
+	private List<Event> sampleTagged(List<Event> events, List<Release> releases) {
+		Map<Integer, Integer> indexes = getIndexes(events);
+		boolean[] tagged = new boolean[events.size()];
+		for (Release r : releases) {
+			Integer i = indexes.get(r.getEvent().getId());
+			if (i != null) tagged[i] = true;
+		}
+		List<Event> sampled = new ArrayList<>();
+		for (int i = 0; i < events.size(); i++)
+			if (tagged[i]) sampled.add(events.get(i));
+		return sampled;
+	}
+
+	private List<Event> sampleLastOfPeriod(List<Event> events) {
+		List<Event> sampled = new ArrayList<>();
+		Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+		for (int i = 0; i < events.size(); i++) {
+			if (i == events.size() - 1 || getPeriod(events.get(i), calendar) != getPeriod(events.get(i + 1), calendar)) sampled.add(events.get(i));
+		}
+		return sampled;
+	}
+
+	private long getPeriod(Event e, Calendar calendar) {
+		long days = floorDiv(e.getTimestamp(), DAY);
+		switch (kind) {
+		case DAY:
+			return days;
+		case WEEK:
+			// The epoch is a thursday, weeks start on monday
+			return floorDiv(days + 3, 7);
+		default:
+			calendar.setTimeInMillis(e.getTimestamp());
+			return calendar.get(Calendar.YEAR) * 12 + calendar.get(Calendar.MONTH);
+		}
+	}
+
+	private static long floorDiv(long x, long y) {
+		return x >= 0 ? x / y : -((-x - 1) / y) - 1;
+	}
+
+	private List<Event> sampleBetweenTags(List<Event> events, List<Release> releases) {
+		Map<Integer, Integer> indexes = getIndexes(events);
+		int from = fromTag == null ? 0 : getIndex(fromTag, indexes, releases);
+		int to = toTag == null ? events.size() - 1 : getIndex(toTag, indexes, releases);
+		if (from > to) return new ArrayList<>();
+		return events.subList(from, to + 1);
+	}
+
+	private static Map<Integer, Integer> getIndexes(List<Event> events) {
+		Map<Integer, Integer> indexes = new HashMap<>();
+		for (int i = 0; i < events.size(); i++)
+			indexes.put(events.get(i).getId(), i);
+		return indexes;
+	}
+
+	private int getIndex(String tag, Map<Integer, Integer> indexes, List<Release> releases) {
+		for (Release r : releases) {
+			if (tag.equals(r.getTag())) {
+				Integer i = indexes.get(r.getEvent().getId());
+				if (i != null) return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown tag in the sampling policy " + this + ": " + tag);
+	}
+
+	/**
+	 * @return The value of the {@link #OPT_SAMPLING} option which gives this policy
+	 */
+	@Override
+	public String toString() {
+		switch (kind) {
+		case EVERY:
+			return "every:" + step;
+		case DAY:
+			return "day";
+		case WEEK:
+			return "week";
+		case MONTH:
+			return "month";
+		case TAGS:
+			return "tags";
+		case BETWEEN_TAGS:
+			return "tags:" + (fromTag == null ? "" : fromTag) + ".." + (toTag == null ? "" : toTag);
+		default:
+			return "all";
+		}
+	}
+
+}
@@ -14,6 +14,7 @@ public class ConfigProperties {
 	public static final String OUT = "out";
 	public static final String TMP = "tmp";
 	public static final String FOLDERS = "folders";
+	public static final String MIRRORS = "mirrors";
 	
 	public static final String URL = "url";
 	public static final String ITEM_FILTER = "item-filter";
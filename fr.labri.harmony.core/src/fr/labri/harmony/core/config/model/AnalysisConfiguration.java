@@ -7,6 +7,8 @@ import java.util.HashMap;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import fr.labri.harmony.core.analysis.SamplingPolicy;
+
 public class AnalysisConfiguration {
 	private String analysisName;
 	private String persistenceUnit;
@@ -24,6 +26,11 @@ public class AnalysisConfiguration {
 	private boolean requireActions = true;
 
 	private boolean requireHarmonyModel = true;
+
+	/*
+	 * Whether the analysis reads the files of the source through its workspace. True by default
+	 */
+	private boolean requireWorkspace = true;
 	
 	public AnalysisConfiguration() {
 		dependencies = Collections.emptyList();
@@ -105,4 +112,27 @@ public class AnalysisConfiguration {
 		this.requireHarmonyModel = requireHarmonyModel;
 	}
 
+	/**
+	 * @return Whether the analysis reads the files of the source through its workspace. If no analysis does, the source
+	 *         is not checked out.
+	 */
+	public boolean requireWorkspace() {
+		return requireWorkspace;
+	}
+
+	@JsonProperty("require-workspace")
+	public void setRequireWorkspace(boolean requireWorkspace) {
+		this.requireWorkspace = requireWorkspace;
+	}
+
+	/**
+	 * @return The events on which the analysis is run, from the option {@link SamplingPolicy#OPT_SAMPLING}. All the
+	 *         events by default.
+	 */
+	@JsonIgnore
+	public SamplingPolicy getSamplingPolicy() {
+		Object opt = options == null ? null : options.get(SamplingPolicy.OPT_SAMPLING);
+		return SamplingPolicy.parse(opt == null ? null : opt.toString());
+	}
+
 }
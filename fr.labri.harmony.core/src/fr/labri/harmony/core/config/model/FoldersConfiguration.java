@@ -8,6 +8,7 @@ public class FoldersConfiguration {
 
 	private String tmpFolder;
 	private String outFolder;
+	private String mirrorFolder;
 
 	public FoldersConfiguration(String tmpFolder, String outFolder) {
 		super();
@@ -38,4 +39,17 @@ public class FoldersConfiguration {
 		this.outFolder = outFolder;
 	}
 
+	/**
+	 * @return The folder in which the repositories are mirrored, so that they are fetched instead of cloned again by the
+	 *         next studies. Null if the repositories are not mirrored.
+	 */
+	public String getMirrorFolder() {
+		return mirrorFolder;
+	}
+
+	@JsonProperty(MIRRORS)
+	public void setMirrorFolder(String mirrorFolder) {
+		this.mirrorFolder = mirrorFolder;
+	}
+
 }
@@ -1,12 +1,15 @@
 package fr.labri.harmony.core.config.model;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import fr.labri.harmony.core.source.ItemFilter;
 import fr.labri.harmony.core.source.SourceExtractor;
+import fr.labri.harmony.core.source.WorkspaceMode;
 
 /**
  * Model class for the configuration of a source. It is mapped to a JSON object thanks to the annotations on the
@@ -20,9 +23,14 @@ public class SourceConfiguration {
 	private String password;
 	private String pathOnServer;
 	private String itemFilter;
+	private List<String> itemIncludes;
+	private List<String> itemExcludes;
+	private ItemFilter compiledItemFilter;
 	private FoldersConfiguration foldersConfiguration;
 	private String configurationFileName;
 	private Boolean extractAllBranches;
+	private Boolean firstParentHistory;
+	private WorkspaceMode workspaceMode;
 
 	private HashMap<String, Object> options;
 
@@ -33,9 +41,13 @@ public class SourceConfiguration {
 		password = null;
 		pathOnServer = null;
 		itemFilter = null;
+		itemIncludes = null;
+		itemExcludes = null;
 		foldersConfiguration = null;
 		configurationFileName = null;
 		extractAllBranches = null;
+		firstParentHistory = null;
+		workspaceMode = WorkspaceMode.FULL;
 		options = new HashMap<>();
 	}
 
@@ -51,9 +63,12 @@ public class SourceConfiguration {
 		if (password == null) password = defaultConfig.getPassword();
 		if (pathOnServer == null) pathOnServer = defaultConfig.getPathOnServer();
 		if (itemFilter == null) itemFilter = defaultConfig.getItemFilter();
+		if (itemIncludes == null) itemIncludes = defaultConfig.getItemIncludes();
+		if (itemExcludes == null) itemExcludes = defaultConfig.getItemExcludes();
 		if (foldersConfiguration == null) foldersConfiguration = defaultConfig.getFoldersConfiguration();
 		if (configurationFileName == null) configurationFileName = defaultConfig.getConfigurationFileName();
 		if (extractAllBranches == null) extractAllBranches = defaultConfig.extractAllBranches();
+		if (firstParentHistory == null) firstParentHistory = defaultConfig.firstParentHistory();
 		for (Map.Entry<String, Object> entry : defaultConfig.getOptions().entrySet()) {
 			if (!options.containsKey(entry.getKey())) options.put(entry.getKey(), entry.getValue());
 		}
@@ -80,6 +95,42 @@ public class SourceConfiguration {
 	
 	public void setItemFilter(String itemFilter) {
 		this.itemFilter = itemFilter;
+		compiledItemFilter = null;
+	}
+
+	/**
+	 * @return The glob patterns of the items to extract, null to extract all the items
+	 */
+	@JsonProperty("item-include")
+	public List<String> getItemIncludes() {
+		return itemIncludes;
+	}
+
+	public void setItemIncludes(List<String> itemIncludes) {
+		this.itemIncludes = itemIncludes;
+		compiledItemFilter = null;
+	}
+
+	/**
+	 * @return The glob patterns of the items not to extract
+	 */
+	@JsonProperty("item-exclude")
+	public List<String> getItemExcludes() {
+		return itemExcludes;
+	}
+
+	public void setItemExcludes(List<String> itemExcludes) {
+		this.itemExcludes = itemExcludes;
+		compiledItemFilter = null;
+	}
+
+	/**
+	 * @return The item filter, item include and item exclude settings compiled together
+	 */
+	@JsonIgnore
+	public synchronized ItemFilter getCompiledItemFilter() {
+		if (compiledItemFilter == null) compiledItemFilter = new ItemFilter(itemIncludes, itemExcludes, itemFilter);
+		return compiledItemFilter;
 	}
 
 	public void setSourceExtractorName(String sourceExtractorName) {
@@ -153,6 +204,32 @@ public class SourceConfiguration {
 		this.extractAllBranches = extractAllBranches;
 	}
 
+	/**
+	 * @return Whether only the first parent of the merges is followed. The merges are then extracted as a single diff
+	 *         against their first parent.
+	 */
+	public boolean firstParentHistory() {
+		return (firstParentHistory == null) ? false : firstParentHistory;
+	}
+
+	@JsonProperty("first-parent")
+	public void setFirstParentHistory(boolean firstParentHistory) {
+		this.firstParentHistory = firstParentHistory;
+	}
+
+	/**
+	 * @return What the workspace of the source has to fetch, {@link WorkspaceMode#FULL} unless the analyses of the study
+	 *         need less.
+	 */
+	public WorkspaceMode getWorkspaceMode() {
+		return workspaceMode;
+	}
+
+	@JsonIgnore
+	public void setWorkspaceMode(WorkspaceMode workspaceMode) {
+		this.workspaceMode = workspaceMode;
+	}
+
 	public boolean hasOption(String optItemFilter) {
 		return options.containsKey(optItemFilter);
 	}
@@ -3,6 +3,7 @@ package fr.labri.harmony.core.dao;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -15,6 +16,7 @@ import javax.persistence.criteria.CriteriaQuery;
 import javax.persistence.criteria.Root;
 
 import fr.labri.harmony.core.analysis.IAnalysis;
+import fr.labri.harmony.core.analysis.SamplingPolicy;
 import fr.labri.harmony.core.log.HarmonyLogger;
 import fr.labri.harmony.core.model.Action;
 import fr.labri.harmony.core.model.ActionKind;
@@ -22,7 +24,9 @@ import fr.labri.harmony.core.model.Author;
 import fr.labri.harmony.core.model.Event;
 import fr.labri.harmony.core.model.HarmonyModelElement;
 import fr.labri.harmony.core.model.Item;
+import fr.labri.harmony.core.model.Release;
 import fr.labri.harmony.core.model.Source;
+import fr.labri.harmony.core.source.ActionMaterializer;
 
 public class Dao extends AbstractDao {
 
@@ -53,6 +57,17 @@ public class Dao extends AbstractDao {
 	 * Events Retrieval Methods *
 	 ****************************/
 
+	/**
+	 * @param source
+	 * @param samplingPolicy
+	 *            Usually the policy of the analysis, see {@link fr.labri.harmony.core.config.model.AnalysisConfiguration#getSamplingPolicy()}
+	 * @return The events of the source selected by the policy, ordered by their timestamp
+	 */
+	public List<Event> getEvents(Source source, SamplingPolicy samplingPolicy) {
+		List<Release> releases = samplingPolicy.usesReleases() ? getReleases(source) : new ArrayList<Release>();
+		return samplingPolicy.sample(getEvents(source), releases);
+	}
+
 	/**
 	 * 
 	 * @param item
@@ -79,7 +94,7 @@ public class Dao extends AbstractDao {
 	 * @return The event with the specified tag
 	 */
 	public Event getEventWithTag(Source src, String tag) {
-		String queryString = "SELECT e FROM Event e WHERE e.source = :source AND :tag MEMBER OF e.tags";
+		String queryString = "SELECT r.event FROM Release r WHERE r.source = :source AND r.tag = :tag";
 
 		TypedQuery<Event> query = getEntityManager().createQuery(queryString, Event.class);
 		query.setParameter("source", src).setParameter("tag", tag).setMaxResults(1);
@@ -87,9 +102,58 @@ public class Dao extends AbstractDao {
 		try {
 			return query.getSingleResult();
 		} catch (NoResultException e) {
-			return null;
+			// The source may have been extracted before releases were indexed
+			queryString = "SELECT e FROM Event e WHERE e.source = :source AND :tag MEMBER OF e.tags";
+			query = getEntityManager().createQuery(queryString, Event.class);
+			query.setParameter("source", src).setParameter("tag", tag).setMaxResults(1);
+			try {
+				return query.getSingleResult();
+			} catch (NoResultException ex) {
+				return null;
+			}
+		}
+
+	}
+
+	/**
+	 * Resolves in one query references to events given in a configuration, which can be tags or native ids.
+	 * 
+	 * @param src
+	 * @param references
+	 *            Tags or native ids of events
+	 * @return The events by reference. The references which match no event are absent.
+	 */
+	public Map<String, Event> getEvents(Source src, Collection<String> references) {
+		Map<String, Event> events = new HashMap<>();
+		if (references.isEmpty()) return events;
+		String queryString = "SELECT r FROM Release r JOIN FETCH r.event WHERE r.source = :source AND r.tag IN :tags";
+		TypedQuery<Release> query = getEntityManager().createQuery(queryString, Release.class);
+		query.setParameter("source", src).setParameter("tags", references);
+		for (Release r : query.getResultList())
+			events.put(r.getTag(), r.getEvent());
+		for (String reference : references) {
+			if (!events.containsKey(reference)) {
+				Event e = getEvent(src, reference);
+				if (e == null) e = getEventWithTag(src, reference);
+				if (e != null) events.put(reference, e);
+			}
 		}
+		return events;
+	}
 
+	/******************************
+	 * Releases Retrieval Methods *
+	 ******************************/
+
+	/**
+	 * @param src
+	 * @return The timeline of the releases of the source, ordered by the topological position of their events
+	 */
+	public List<Release> getReleases(Source src) {
+		String queryString = "SELECT r FROM Release r JOIN FETCH r.event WHERE r.source = :source ORDER BY r.position, r.tag";
+		TypedQuery<Release> query = getEntityManager().createQuery(queryString, Release.class);
+		query.setParameter("source", src);
+		return query.getResultList();
 	}
 
 	/**
@@ -162,7 +226,10 @@ public class Dao extends AbstractDao {
 	 * Actions Retrieval Methods *
 	 *****************************/
 
+	// For the sources extracted with lazy actions, the actions which can be returned are extracted first
+
 	public List<Action> getActions(Source s) {
+		ActionMaterializer.materialize(s, null, null);
 		return getList(Action.class, s);
 	}
 
@@ -172,6 +239,7 @@ public class Dao extends AbstractDao {
 	 * @return The list of actions which affected and item, ordered by timestamp;
 	 */
 	public List<Action> getActions(Item item) {
+		ActionMaterializer.materialize(item.getSource(), null, null);
 		List<Action> actions = new ArrayList<>();
 		EntityManager m = getEntityManager();
 		m.getTransaction().begin();
@@ -202,6 +270,7 @@ public class Dao extends AbstractDao {
 	 * @return The list of actions which affected and item between fromDate and toDate, ordered by timestamp
 	 */
 	public List<Action> getActions(Item item, Date fromDate, Date toDate) {
+		ActionMaterializer.materialize(item.getSource(), fromDate == null ? null : fromDate.getTime(), toDate == null ? null : toDate.getTime());
 		EntityManager em = getEntityManager();
 		String stringQuery = "SELECT a FROM Action a JOIN a.item i JOIN a.event e WHERE i = :item ";
 
@@ -228,6 +297,7 @@ public class Dao extends AbstractDao {
 	 * @return The action related to the creation of the Item or null if there is no such action
 	 */
 	public Action getCreateAction(Item item) {
+		ActionMaterializer.materialize(item.getSource(), null, null);
 		EntityManager m = getEntityManager();
 
 		String stringQuery = "SELECT a FROM Action a JOIN a.event e WHERE a.item = :item AND a.kind = :createKind";
@@ -249,6 +319,7 @@ public class Dao extends AbstractDao {
 	 * @return The action related to the deletion of the Item or null if there is no such action
 	 */
 	public Action getDeleteAction(Item item) {
+		ActionMaterializer.materialize(item.getSource(), null, null);
 		EntityManager m = getEntityManager();
 
 		String stringQuery = "SELECT a FROM Action a JOIN a.event e WHERE a.item = :item AND a.kind = :deleteKind";
@@ -369,6 +440,19 @@ public class Dao extends AbstractDao {
 	 *            The element of the model the data is associated to.
 	 */
 	public void saveData(String database, Object data, HarmonyModelElement harmonyModelElement) {
+		saveData(database, data, harmonyModelElement, SamplingPolicy.ALL);
+	}
+
+	/**
+	 * Saves a data Object computed on a sample of the events of a source, see {@link #getEvents(Source, SamplingPolicy)}. The
+	 * policy is recorded with the data.
+	 * 
+	 * @param database
+	 * @param data
+	 * @param harmonyModelElement
+	 * @param samplingPolicy
+	 */
+	public void saveData(String database, Object data, HarmonyModelElement harmonyModelElement, SamplingPolicy samplingPolicy) {
 
 		EntityManager dataEntityManager = getEntityManager(database);
 		dataEntityManager.getTransaction().begin();
@@ -378,6 +462,7 @@ public class Dao extends AbstractDao {
 		int dataId = (int) entityManagerFactories.get(database).getPersistenceUnitUtil().getIdentifier(data);
 		DataMappingObject dmo = new DataMappingObject(database, data.getClass().getSimpleName(), dataId, harmonyModelElement.getId(), harmonyModelElement
 				.getClass().getSimpleName());
+		if (!samplingPolicy.isAll()) dmo.setSamplingPolicy(samplingPolicy.toString());
 		save(dmo);
 	}
 
@@ -28,6 +28,11 @@ public class DataMappingObject {
 	@Index
 	private String elementType;
 
+	/**
+	 * The sampling policy of the events with which the data was computed, null if it was computed on all the events
+	 */
+	private String samplingPolicy;
+
 	public DataMappingObject() {
 	}
 	
@@ -80,4 +85,12 @@ public class DataMappingObject {
 		this.elementType = elementType;
 	}
 
+	public String getSamplingPolicy() {
+		return samplingPolicy;
+	}
+
+	public void setSamplingPolicy(String samplingPolicy) {
+		this.samplingPolicy = samplingPolicy;
+	}
+
 }
@@ -4,13 +4,16 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
 
 import fr.labri.harmony.core.model.Action;
 import fr.labri.harmony.core.model.Author;
 import fr.labri.harmony.core.model.Event;
 import fr.labri.harmony.core.model.Item;
+import fr.labri.harmony.core.model.Release;
 import fr.labri.harmony.core.model.Source;
 import fr.labri.harmony.core.source.Workspace;
 
@@ -24,6 +27,17 @@ public class ModelPersister extends AbstractDao {
 
 	private HashMap<String, Item> itemsCache;
 	private List<Action> actionsCache;
+
+	/**
+	 * The releases of the events in the cache. They are saved after their events.
+	 */
+	private List<Release> releasesCache;
+
+	/**
+	 * The number of events of the current source saved so far. Extractors save the events parents first, so it is their
+	 * topological position.
+	 */
+	private int eventPosition;
 	
 	ModelPersister(HarmonyEntityManagerFactory harmonyModelEMF) {
 		super(harmonyModelEMF);
@@ -32,6 +46,7 @@ public class ModelPersister extends AbstractDao {
 		authorsCache = new HashMap<>();
 		itemsCache = new HashMap<>();
 		actionsCache = new ArrayList<>();
+		releasesCache = new ArrayList<>();
 	}
 	
 	
@@ -45,6 +60,9 @@ public class ModelPersister extends AbstractDao {
 	
 	public void saveEvent(Event e) {
 		eventsCache.put(e.getNativeId(), e);
+		for (String tag : e.getTags())
+			releasesCache.add(new Release(e.getSource(), tag, e, eventPosition));
+		eventPosition++;
 
 		if (eventsCache.size() >= EVENT_CACHE_SIZE) {
 			flushEvents();
@@ -99,6 +117,8 @@ public class ModelPersister extends AbstractDao {
 		flushAuthors();
 		saveEvents(eventsCache.values());
 		eventsCache.clear();
+		save(releasesCache);
+		releasesCache.clear();
 	}
 	
 	public void flushActions() {
@@ -113,6 +133,8 @@ public class ModelPersister extends AbstractDao {
 
 	public void saveSource(Source s) {
 		save(s);
+		// The events of the new source follow
+		eventPosition = 0;
 	}
 
 	public void saveEvents(Collection<Event> events) {
@@ -134,6 +156,10 @@ public class ModelPersister extends AbstractDao {
 	public void updateAction(Action a) {
 		update(a);
 	}
+
+	public void updateSource(Source s) {
+		update(s);
+	}
 	
 	public Source reloadSource(Source source) {
 		Workspace ws = source.getWorkspace();
@@ -151,6 +177,91 @@ public class ModelPersister extends AbstractDao {
 	}
 
 
+	/**
+	 * Marks all the events of the source as waiting for their actions to be extracted
+	 */
+	public void markActionsPending(Source source) {
+		EntityManager m = getEntityManager();
+		m.getTransaction().begin();
+		m.createQuery("UPDATE Event e SET e.actionsPending = true WHERE e.source = :source").setParameter("source", source).executeUpdate();
+		m.getTransaction().commit();
+		m.close();
+	}
+
+	public void markActionsExtracted(Event e) {
+		EntityManager m = getEntityManager();
+		m.getTransaction().begin();
+		m.createQuery("UPDATE Event e SET e.actionsPending = false WHERE e.id = :id").setParameter("id", e.getId()).executeUpdate();
+		m.getTransaction().commit();
+		m.close();
+		e.setActionsPending(false);
+	}
+
+	/**
+	 * @param source
+	 * @param from
+	 *            Can be null
+	 * @param to
+	 *            Can be null
+	 * @return The events of the source between the given timestamps whose actions have not been extracted yet, ordered by
+	 *         timestamp
+	 */
+	public List<Event> getEventsWithPendingActions(Source source, Long from, Long to) {
+		String queryString = "SELECT e FROM Event e WHERE e.source = :source AND e.actionsPending = true";
+		if (from != null) queryString += " AND e.timestamp >= :from";
+		if (to != null) queryString += " AND e.timestamp <= :to";
+		queryString += " ORDER BY e.timestamp ASC";
+
+		EntityManager m = getEntityManager();
+		TypedQuery<Event> query = m.createQuery(queryString, Event.class);
+		query.setParameter("source", source);
+		if (from != null) query.setParameter("from", from);
+		if (to != null) query.setParameter("to", to);
+		List<Event> events = query.getResultList();
+		m.close();
+		return events;
+	}
+
+	/**
+	 * @param e
+	 * @return The actions of the event stored in the database
+	 */
+	public List<Action> getActions(Event e) {
+		return getActions(e.getId());
+	}
+
+	/**
+	 * @param eventId
+	 * @return The actions of the event with the given id stored in the database, with their items
+	 */
+	public List<Action> getActions(int eventId) {
+		EntityManager m = getEntityManager();
+		TypedQuery<Action> query = m.createQuery("SELECT a FROM Action a JOIN FETCH a.item WHERE a.event.id = :id", Action.class);
+		query.setParameter("id", eventId);
+		List<Action> actions = query.getResultList();
+		m.close();
+		return actions;
+	}
+
+	/**
+	 * @param source
+	 * @return The ids of the events of the other sources with a shared history which have the same native id as an event of
+	 *         the given source, and whose actions are extracted, by native id
+	 */
+	public Map<String, Integer> getSharedEvents(Source source) {
+		// Joined on the hashes of the native ids, which are large objects, and the collisions are filtered here
+		String queryString = "SELECT f.nativeId, f.id, e.nativeId FROM Event e, Event f WHERE e.source = :source AND f.source <> :source "
+				+ "AND f.source.sharedHistory = true AND f.actionsPending = false AND f.nativeIdHash = e.nativeIdHash";
+		EntityManager m = getEntityManager();
+		TypedQuery<Object[]> query = m.createQuery(queryString, Object[].class);
+		query.setParameter("source", source);
+		Map<String, Integer> sharedEvents = new HashMap<>();
+		for (Object[] row : query.getResultList())
+			if (row[0].equals(row[2]) && !sharedEvents.containsKey(row[0])) sharedEvents.put((String) row[0], (Integer) row[1]);
+		m.close();
+		return sharedEvents;
+	}
+
 	public void flushAll() {
 		flushEvents();
 		flushActions();
@@ -0,0 +1,458 @@
+package fr.labri.harmony.core.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+
+import fr.labri.harmony.core.log.HarmonyLogger;
+import fr.labri.harmony.core.model.Action;
+import fr.labri.harmony.core.model.ActionKind;
+import fr.labri.harmony.core.model.Author;
+import fr.labri.harmony.core.model.Event;
+import fr.labri.harmony.core.model.HarmonyModelElement;
+import fr.labri.harmony.core.model.Item;
+import fr.labri.harmony.core.model.Source;
+
+/**
+ * Exports the model of an extracted source (events, parents, authors, items, actions, metadata and tags) to a single
+ * file, and imports it back in another database, so that a source does not have to be extracted again. <br>
+ * The file is columnar: each field of the events and of the actions is stored in its own block, compressed
+ * separately. Authors, items and metadata keys are stored once in dictionaries, and referenced by index.
+ */
+public class SourceArchive {
+
+	private static final int MAGIC = 0x48524d59; // HRMY
+	private static final int VERSION = 2;
+
+	private static final int BATCH_SIZE = 1000;
+
+	/**
+	 * Exports a source to a file
+	 *
+	 * @param dao
+	 * @param source
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void exportSource(Dao dao, Source source, File file) throws IOException {
+		EntityManager m = dao.getEntityManager();
+		// The elements are read with a single entity manager, so that each of them is loaded only once
+		TypedQuery<Author> authorsQuery = m.createQuery("SELECT a FROM Author a WHERE a.source = :source", Author.class);
+		List<Author> authors = authorsQuery.setParameter("source", source).getResultList();
+		TypedQuery<Item> itemsQuery = m.createQuery("SELECT i FROM Item i WHERE i.source = :source", Item.class);
+		itemsQuery.setHint("eclipselink.batch", "i.metadata");
+		List<Item> items = itemsQuery.setParameter("source", source).getResultList();
+		TypedQuery<Event> eventsQuery = m.createQuery("SELECT e FROM Event e WHERE e.source = :source", Event.class);
+		eventsQuery.setHint("eclipselink.batch.type", "IN");
+		eventsQuery.setHint("eclipselink.batch", "e.authors");
+		eventsQuery.setHint("eclipselink.batch", "e.parents");
+		eventsQuery.setHint("eclipselink.batch", "e.tags");
+		eventsQuery.setHint("eclipselink.batch", "e.metadata");
+		List<Event> events = sortParentsFirst(eventsQuery.setParameter("source", source).getResultList());
+		TypedQuery<Action> actionsQuery = m.createQuery("SELECT a FROM Action a WHERE a.source = :source", Action.class);
+		actionsQuery.setHint("eclipselink.batch", "a.metadata");
+		List<Action> actions = actionsQuery.setParameter("source", source).getResultList();
+
+		Map<Integer, Integer> authorIndexes = getIndexes(authors);
+		Map<Integer, Integer> itemIndexes = getIndexes(items);
+		Map<Integer, Integer> eventIndexes = getIndexes(events);
+		Dictionary keys = new Dictionary();
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			Column header = new Column();
+			header.writeString(source.getUrl());
+			header.writeVarInt(source.isSharedHistory() ? 1 : 0);
+			header.writeTo(out);
+
+			Column authorsColumn = new Column();
+			authorsColumn.writeVarInt(authors.size());
+			for (Author a : authors) {
+				authorsColumn.writeString(a.getNativeId());
+				authorsColumn.writeString(a.getName());
+				authorsColumn.writeString(a.getEmail());
+			}
+			authorsColumn.writeTo(out);
+
+			Column paths = new Column();
+			Column itemsMetadata = new Column();
+			paths.writeVarInt(items.size());
+			for (Item i : items) {
+				paths.writeString(i.getNativeId());
+				itemsMetadata.writeMetadata(i.getMetadata(), keys);
+			}
+
+			Column nativeIds = new Column();
+			Column timestamps = new Column();
+			Column eventsAuthors = new Column();
+			Column parents = new Column();
+			Column tags = new Column();
+			Column eventsMetadata = new Column();
+			Column flags = new Column();
+			nativeIds.writeVarInt(events.size());
+			long previousTimestamp = 0;
+			for (Event e : events) {
+				nativeIds.writeString(e.getNativeId());
+				timestamps.writeVarLong(zigzag(e.getTimestamp() - previousTimestamp));
+				previousTimestamp = e.getTimestamp();
+				eventsAuthors.writeVarInt(e.getAuthors().size());
+				for (Author a : e.getAuthors())
+					eventsAuthors.writeVarInt(authorIndexes.get(a.getId()));
+				parents.writeVarInt(e.getParents().size());
+				for (Event p : e.getParents())
+					parents.writeVarInt(eventIndexes.get(p.getId()));
+				tags.writeVarInt(e.getTags().size());
+				for (String tag : e.getTags())
+					tags.writeString(tag);
+				eventsMetadata.writeMetadata(e.getMetadata(), keys);
+				flags.writeVarInt(e.hasPendingActions() ? 1 : 0);
+			}
+
+			Column actionsEvents = new Column();
+			Column actionsParents = new Column();
+			Column actionsItems = new Column();
+			Column kinds = new Column();
+			Column actionsMetadata = new Column();
+			actionsEvents.writeVarInt(actions.size());
+			for (Action a : actions) {
+				actionsEvents.writeVarInt(eventIndexes.get(a.getEvent().getId()));
+				actionsParents.writeVarInt(a.getParentEvent() == null ? 0 : eventIndexes.get(a.getParentEvent().getId()) + 1);
+				actionsItems.writeVarInt(itemIndexes.get(a.getItem().getId()));
+				kinds.writeVarInt(a.getKind().ordinal());
+				actionsMetadata.writeMetadata(a.getMetadata(), keys);
+			}
+
+			// The keys are needed to read the metadata, so they come first
+			keys.writeTo(out);
+			for (Column column : new Column[] { paths, itemsMetadata, nativeIds, timestamps, eventsAuthors, parents, tags, eventsMetadata, flags,
+					actionsEvents, actionsParents, actionsItems, kinds, actionsMetadata })
+				column.writeTo(out);
+		} finally {
+			m.close();
+		}
+		HarmonyLogger.info("Exported %d events and %d actions of source %s to %s", events.size(), actions.size(), source.getUrl(), file);
+	}
+
+	/**
+	 * Imports a source exported by {@link #exportSource(Dao, Source, File)}. The source must not already exist in the
+	 * database.
+	 *
+	 * @param dao
+	 * @param modelPersister
+	 * @param file
+	 * @return The imported source
+	 * @throws IOException
+	 */
+	public static Source importSource(Dao dao, ModelPersister modelPersister, File file) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (in.readInt() != MAGIC) throw new IOException(file + " is not a harmony source archive");
+			int version = in.readInt();
+			if (version != VERSION) throw new IOException("Unsupported archive version: " + version);
+
+			ColumnReader header = new ColumnReader(in);
+			Source source = new Source();
+			source.setUrl(header.readString());
+			source.setSharedHistory(header.readVarInt() == 1);
+			if (dao.getSourceByUrl(source.getUrl()) != null) throw new IOException("Source " + source.getUrl() + " already exists");
+			modelPersister.saveSource(source);
+
+			ColumnReader authorsColumn = new ColumnReader(in);
+			List<Author> authors = new ArrayList<>();
+			for (int i = authorsColumn.readVarInt(); i > 0; i--) {
+				Author a = new Author(source, authorsColumn.readString(), authorsColumn.readString());
+				a.setEmail(authorsColumn.readString());
+				authors.add(a);
+			}
+			modelPersister.saveAuthors(authors);
+
+			List<String> keys = new ColumnReader(in).readStrings();
+
+			ColumnReader paths = new ColumnReader(in);
+			ColumnReader itemsMetadata = new ColumnReader(in);
+			List<Item> items = new ArrayList<>();
+			for (int i = paths.readVarInt(); i > 0; i--) {
+				Item item = new Item(source, paths.readString());
+				itemsMetadata.readMetadata(item.getMetadata(), keys);
+				items.add(item);
+			}
+			modelPersister.saveItems(items);
+
+			ColumnReader nativeIds = new ColumnReader(in);
+			ColumnReader timestamps = new ColumnReader(in);
+			ColumnReader eventsAuthors = new ColumnReader(in);
+			ColumnReader parents = new ColumnReader(in);
+			ColumnReader tags = new ColumnReader(in);
+			ColumnReader eventsMetadata = new ColumnReader(in);
+			ColumnReader flags = new ColumnReader(in);
+			int eventCount = nativeIds.readVarInt();
+			List<Event> events = new ArrayList<>(eventCount);
+			long timestamp = 0;
+			for (int i = 0; i < eventCount; i++) {
+				timestamp += unzigzag(timestamps.readVarLong());
+				List<Author> eventAuthors = new ArrayList<>();
+				for (int j = eventsAuthors.readVarInt(); j > 0; j--)
+					eventAuthors.add(authors.get(eventsAuthors.readVarInt()));
+				// The events are stored parents first
+				Set<Event> eventParents = new HashSet<>();
+				for (int j = parents.readVarInt(); j > 0; j--)
+					eventParents.add(events.get(parents.readVarInt()));
+				Event e = new Event(source, nativeIds.readString(), timestamp, eventParents, eventAuthors);
+				for (int j = tags.readVarInt(); j > 0; j--)
+					e.getTags().add(tags.readString());
+				eventsMetadata.readMetadata(e.getMetadata(), keys);
+				e.setActionsPending(flags.readVarInt() == 1);
+				events.add(e);
+				modelPersister.saveEvent(e);
+			}
+			modelPersister.flushEvents();
+
+			ColumnReader actionsEvents = new ColumnReader(in);
+			ColumnReader actionsParents = new ColumnReader(in);
+			ColumnReader actionsItems = new ColumnReader(in);
+			ColumnReader kinds = new ColumnReader(in);
+			ColumnReader actionsMetadata = new ColumnReader(in);
+			int actionCount = actionsEvents.readVarInt();
+			List<Action> actions = new ArrayList<>(BATCH_SIZE);
+			for (int i = 0; i < actionCount; i++) {
+				Event e = events.get(actionsEvents.readVarInt());
+				int parent = actionsParents.readVarInt();
+				Item item = items.get(actionsItems.readVarInt());
+				Action a = new Action(item, ActionKind.values()[kinds.readVarInt()], e, parent == 0 ? null : events.get(parent - 1), source);
+				actionsMetadata.readMetadata(a.getMetadata(), keys);
+				actions.add(a);
+				if (actions.size() == BATCH_SIZE) {
+					modelPersister.saveActions(actions);
+					actions.clear();
+				}
+			}
+			modelPersister.saveActions(actions);
+
+			HarmonyLogger.info("Imported %d events and %d actions of source %s from %s", eventCount, actionCount, source.getUrl(), file);
+			return modelPersister.reloadSource(source);
+		}
+	}
+
+	/**
+	 * @return The events ordered so that the parents of an event come before it
+	 */
+	private static List<Event> sortParentsFirst(List<Event> events) {
+		List<Event> sorted = new ArrayList<>(events.size());
+		Set<Event> visited = new HashSet<>();
+		ArrayDeque<Event> stack = new ArrayDeque<>();
+		for (Event root : events) {
+			if (visited.contains(root)) continue;
+			stack.push(root);
+			while (!stack.isEmpty()) {
+				Event e = stack.peek();
+				if (visited.contains(e)) {
+					stack.pop();
+					continue;
+				}
+				boolean parentsVisited = true;
+				for (Event p : e.getParents()) {
+					if (!visited.contains(p)) {
+						stack.push(p);
+						parentsVisited = false;
+					}
+				}
+				if (parentsVisited) {
+					stack.pop();
+					visited.add(e);
+					sorted.add(e);
+				}
+			}
+		}
+		return sorted;
+	}
+
+	private static Map<Integer, Integer> getIndexes(List<? extends HarmonyModelElement> elements) {
+		Map<Integer, Integer> indexes = new HashMap<>();
+		for (int i = 0; i < elements.size(); i++)
+			indexes.put(elements.get(i).getId(), i);
+		return indexes;
+	}
+
+	/**
+	 * Assigns an index to each distinct string, in order of first use
+	 */
+	private static class Dictionary {
+
+		private Map<String, Integer> indexes = new HashMap<>();
+		private List<String> strings = new ArrayList<>();
+
+		int indexOf(String s) {
+			Integer index = indexes.get(s);
+			if (index == null) {
+				index = strings.size();
+				indexes.put(s, index);
+				strings.add(s);
+			}
+			return index;
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			Column column = new Column();
+			column.writeVarInt(strings.size());
+			for (String s : strings)
+				column.writeString(s);
+			column.writeTo(out);
+		}
+	}
+
+	/**
+	 * Maps the signed values to unsigned ones, the small negative values staying small
+	 */
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unzigzag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	/**
+	 * A block of the archive, written in memory then compressed
+	 */
+	private static class Column {
+
+		private ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+		void writeVarInt(int value) {
+			writeVarLong(value & 0xffffffffL);
+		}
+
+		/**
+		 * Writes an unsigned value. A value which can be negative (e.g. a delta) is first encoded by {@link #zigzag(long)}.
+		 */
+		void writeVarLong(long value) {
+			while ((value & ~0x7fL) != 0) {
+				bytes.write((int) ((value & 0x7f) | 0x80));
+				value >>>= 7;
+			}
+			bytes.write((int) value);
+		}
+
+		/**
+		 * Writes a string, which can be null
+		 */
+		void writeString(String s) {
+			if (s == null) {
+				writeVarInt(0);
+				return;
+			}
+			byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+			writeVarInt(utf8.length + 1);
+			bytes.write(utf8, 0, utf8.length);
+		}
+
+		void writeMetadata(Map<String, String> metadata, Dictionary keys) {
+			writeVarInt(metadata.size());
+			for (Map.Entry<String, String> entry : metadata.entrySet()) {
+				writeVarInt(keys.indexOf(entry.getKey()));
+				writeString(entry.getValue());
+			}
+		}
+
+		void writeTo(DataOutputStream out) throws IOException {
+			byte[] raw = bytes.toByteArray();
+			Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+			deflater.setInput(raw);
+			deflater.finish();
+			ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished())
+				compressed.write(buffer, 0, deflater.deflate(buffer));
+			deflater.end();
+			out.writeInt(raw.length);
+			out.writeInt(compressed.size());
+			compressed.writeTo(out);
+		}
+	}
+
+	private static class ColumnReader {
+
+		private byte[] bytes;
+		private int position;
+
+		ColumnReader(DataInputStream in) throws IOException {
+			bytes = new byte[in.readInt()];
+			byte[] compressed = new byte[in.readInt()];
+			in.readFully(compressed);
+			Inflater inflater = new Inflater();
+			inflater.setInput(compressed);
+			try {
+				int length = 0;
+				while (length < bytes.length) {
+					int inflated = inflater.inflate(bytes, length, bytes.length - length);
+					if (inflated == 0 && (inflater.finished() || inflater.needsInput())) throw new IOException("Truncated archive block");
+					length += inflated;
+				}
+			} catch (DataFormatException e) {
+				throw new IOException(e);
+			} finally {
+				inflater.end();
+			}
+		}
+
+		int readVarInt() throws IOException {
+			return (int) readVarLong();
+		}
+
+		long readVarLong() throws IOException {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				if (position >= bytes.length) throw new IOException("Truncated archive block");
+				b = bytes[position++];
+				value |= (long) (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+		String readString() throws IOException {
+			int length = readVarInt();
+			if (length == 0) return null;
+			String s = new String(bytes, position, length - 1, StandardCharsets.UTF_8);
+			position += length - 1;
+			return s;
+		}
+
+		List<String> readStrings() throws IOException {
+			List<String> strings = new ArrayList<>();
+			for (int i = readVarInt(); i > 0; i--)
+				strings.add(readString());
+			return strings;
+		}
+
+		void readMetadata(Map<String, String> metadata, List<String> keys) throws IOException {
+			for (int i = readVarInt(); i > 0; i--)
+				metadata.put(keys.get(readVarInt()), readString());
+		}
+	}
+
+}
@@ -26,6 +26,7 @@ import fr.labri.harmony.core.log.HarmonyLogger;
 import fr.labri.harmony.core.model.Source;
 import fr.labri.harmony.core.source.SourceExtractor;
 import fr.labri.harmony.core.source.SourceExtractorFactory;
+import fr.labri.harmony.core.source.WorkspaceMode;
 
 public class StudyScheduler {
 
@@ -126,6 +127,21 @@ public class StudyScheduler {
 
 			@Override
 			public void run() {
+				// If at least one analysis requires the actions, the harmony model or the workspace, we have to extract them
+				// these values are at true by default, so unless specified explicitly in the configuration, they will be extracted
+				// if there is no analysis, we simply extract the model
+				boolean extractActions = analysesConfigurations.isEmpty();
+				boolean extractHarmonyModel = analysesConfigurations.isEmpty();
+				boolean requireWorkspace = false;
+				for (AnalysisConfiguration a : analysesConfigurations) {
+					if (a != null) {
+						extractActions = (a.requireActions()) || extractActions;
+						extractHarmonyModel = (a.requireHarmonyModel()) || extractHarmonyModel;
+						requireWorkspace = (a.requireWorkspace()) || requireWorkspace;
+					}
+				}
+				sourceConfiguration.setWorkspaceMode(WorkspaceMode.forNeeds(requireWorkspace, extractActions));
+
 				SourceExtractor<?> sourceExtractor = sourceExtractorFactory.createSourceExtractor(sourceConfiguration);
 				if (sourceExtractor == null) {
 					HarmonyLogger.error("Could not load the source:" + sourceConfiguration.getRepositoryURL());
@@ -146,23 +162,7 @@ public class StudyScheduler {
 						HarmonyLogger.info("Initializing existing source, extraction will not be performed again.");
 						sourceExtractor.initializeExistingSource(src);
 					} else {
-
-						if (analysesConfigurations.isEmpty()) {
-							// if there is no analysis, we simply extract the model
-							sourceExtractor.initializeSource(true, true);
-						} else {
-							// If at least one analysis requires the actions or the harmony model, we have to extract them
-							// these values are at true by default, so unless specified explicitly in the configuration, they will be extracted
-							boolean extractActions = false;
-							boolean extractHarmonyModel = false;
-							for (AnalysisConfiguration a : analysesConfigurations) {
-								if (a != null) {
-									extractActions = (a.requireActions()) || extractActions;
-									extractHarmonyModel = (a.requireHarmonyModel()) || extractHarmonyModel;
-								}
-							}
-							sourceExtractor.initializeSource(extractHarmonyModel, extractActions);
-						}
+						sourceExtractor.initializeSource(extractHarmonyModel, extractActions);
 					}
 
 					AnalysisFactory analysisFactory = new AnalysisFactory(dao);
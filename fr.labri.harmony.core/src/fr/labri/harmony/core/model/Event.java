@@ -14,6 +14,12 @@ import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.ManyToMany;
 import javax.persistence.OneToMany;
+import javax.persistence.PrePersist;
+import javax.persistence.PreUpdate;
+
+import org.eclipse.persistence.annotations.Index;
+
+import fr.labri.harmony.core.source.ActionMaterializer;
 
 /**
  * An event is performed on a source, by one or several authors (only one in
@@ -24,6 +30,18 @@ import javax.persistence.OneToMany;
 @Entity
 public class Event extends SourceElement {
 
+	/**
+	 * Metadata key of the history in which the event was extracted: {@link #FIRST_PARENT_HISTORY}, or absent for the
+	 * full history
+	 */
+	public final static String HISTORY_KEY = "history";
+	public final static String FIRST_PARENT_HISTORY = "first-parent";
+	/**
+	 * Metadata key of the native ids of the parents of a merge which are not linked to the event in first-parent history,
+	 * separated by spaces
+	 */
+	public final static String MERGED_PARENTS_KEY = "merged-parents";
+
 	@ManyToMany
 	private List<Author> authors;
 
@@ -39,6 +57,20 @@ public class Event extends SourceElement {
 	@ElementCollection
 	private Set<String> tags;
 
+	/**
+	 * True if the source was extracted with lazy actions, and the actions of the event have not been extracted yet
+	 */
+	@Basic
+	private boolean actionsPending;
+
+	/**
+	 * The hash code of the native id, so that the events with the same native id are joined on an indexed column instead
+	 * of the native id, which is a large object
+	 */
+	@Basic
+	@Index
+	private int nativeIdHash;
+
 	public Event() {
 		super();
 		authors = new ArrayList<Author>();
@@ -94,7 +126,18 @@ public class Event extends SourceElement {
 		this.parents = parents;
 	}
 
+	/**
+	 * @return The actions of the event. If the source was extracted with lazy actions, the actions of this event only are
+	 *         extracted and stored on the first call.
+	 */
 	public List<Action> getActions() {
+		if (actionsPending) {
+			List<Action> extracted = ActionMaterializer.materialize(this);
+			if (extracted != null) {
+				actions = extracted;
+				actionsPending = false;
+			}
+		}
 		return actions;
 	}
 
@@ -110,12 +153,20 @@ public class Event extends SourceElement {
 	public Set<Action> getActions(Event parent) {
 		if (parent == null) throw new IllegalArgumentException("null parent");
 		Set<Action> result = new HashSet<>();
-		for (Action a : actions) {
+		for (Action a : getActions()) {
 			if (a.getParentEvent() != null && a.getParentEvent().equals(parent)) result.add(a);
 		}
 		return result;
 	}
 
+	public boolean hasPendingActions() {
+		return actionsPending;
+	}
+
+	public void setActionsPending(boolean actionsPending) {
+		this.actionsPending = actionsPending;
+	}
+
 	public Set<String> getTags() {
 		return tags;
 	}
@@ -124,6 +175,20 @@ public class Event extends SourceElement {
 		this.tags = tags;
 	}
 
+	/**
+	 * @return Whether the event was extracted in first-parent history. Then it has at most one parent, and the actions of
+	 *         a merge are a single diff against its first parent.
+	 */
+	public boolean isFirstParentHistory() {
+		return FIRST_PARENT_HISTORY.equals(getMetadata().get(HISTORY_KEY));
+	}
+
+	@PrePersist
+	@PreUpdate
+	void hashNativeId() {
+		nativeIdHash = nativeId == null ? 0 : nativeId.hashCode();
+	}
+
 	public String getTimestampAsString() {
 		DateFormat f = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.MEDIUM);
 		return f.format(new Date(timestamp));
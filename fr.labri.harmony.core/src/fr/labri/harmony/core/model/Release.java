@@ -0,0 +1,99 @@
+package fr.labri.harmony.core.model;
+
+import javax.persistence.Basic;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+
+import org.eclipse.persistence.annotations.Index;
+
+/**
+ * A tag of a source, and the event it points to. The releases of a source form its timeline: they are ordered by the
+ * topological position of their events. <br>
+ * Releases are indexed by tag, unlike {@link Event#getTags()}, so that the events of many tags are found in one query.
+ */
+@Entity
+public class Release implements HarmonyModelElement {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.TABLE)
+	private int id;
+
+	@ManyToOne
+	@JoinColumn(nullable = false, name = "sourceId")
+	private Source source;
+
+	@Basic
+	@Index
+	private String tag;
+
+	@ManyToOne
+	@JoinColumn(nullable = false, name = "eventId")
+	private Event event;
+
+	/**
+	 * The position of the event in the order in which the events were extracted, parents first
+	 */
+	@Basic
+	private int position;
+
+	public Release() {
+	}
+
+	public Release(Source source, String tag, Event event, int position) {
+		this.source = source;
+		this.tag = tag;
+		this.event = event;
+		this.position = position;
+	}
+
+	@Override
+	public int getId() {
+		return id;
+	}
+
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	public Source getSource() {
+		return source;
+	}
+
+	public void setSource(Source source) {
+		this.source = source;
+	}
+
+	public String getTag() {
+		return tag;
+	}
+
+	public void setTag(String tag) {
+		this.tag = tag;
+	}
+
+	public Event getEvent() {
+		return event;
+	}
+
+	public void setEvent(Event event) {
+		this.event = event;
+	}
+
+	public int getPosition() {
+		return position;
+	}
+
+	public void setPosition(int position) {
+		this.position = position;
+	}
+
+	@Override
+	public String toString() {
+		return "Release: " + tag;
+	}
+
+}
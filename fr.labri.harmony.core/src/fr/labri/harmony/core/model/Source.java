@@ -42,6 +42,16 @@ public class Source implements HarmonyModelElement {
 	@OneToMany(cascade=CascadeType.REMOVE,fetch=FetchType.LAZY,mappedBy="source")
 	private List<Action> actions;
 
+	@OneToMany(cascade=CascadeType.REMOVE,fetch=FetchType.LAZY,mappedBy="source")
+	private List<Release> releases;
+
+	/**
+	 * Whether all the actions of the source were extracted with the option shared-history, so that the sources sharing
+	 * commits with it can reuse its actions
+	 */
+	@Basic
+	private boolean sharedHistory;
+
 	@Transient
 	private Workspace workspace;
 	
@@ -54,6 +64,7 @@ public class Source implements HarmonyModelElement {
 		authors = new ArrayList<>();
 		items = new ArrayList<>();
 		actions = new ArrayList<>();
+		releases = new ArrayList<>();
 	}
 
 	public List<Action> getActions() {
@@ -64,6 +75,14 @@ public class Source implements HarmonyModelElement {
 		this.actions = actions;
 	}
 
+	public List<Release> getReleases() {
+		return releases;
+	}
+
+	public void setReleases(List<Release> releases) {
+		this.releases = releases;
+	}
+
 	public void setWorkspace(Workspace workspace) {
 		this.workspace = workspace;
 	}
@@ -108,6 +127,14 @@ public class Source implements HarmonyModelElement {
 		this.authors = authors;
 	}
 
+	public boolean isSharedHistory() {
+		return sharedHistory;
+	}
+
+	public void setSharedHistory(boolean sharedHistory) {
+		this.sharedHistory = sharedHistory;
+	}
+
 	public SourceConfiguration getConfig() {
 		return config;
 	}
@@ -3,21 +3,56 @@ package fr.labri.harmony.core.source;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
 
 import fr.labri.harmony.core.log.HarmonyLogger;
 import fr.labri.harmony.core.model.Action;
 import fr.labri.harmony.core.model.ActionKind;
+import fr.labri.harmony.core.model.Event;
+import fr.labri.harmony.core.model.Item;
 
 
 public abstract class AbstractLocalWorkspace extends AbstractWorkspace {
 
+	/**
+	 * Source option. If true, {@link #update(Event)} only applies the actions between the event currently checked out and
+	 * the requested one, when it is one of its parents or children. Requires the actions of the source to be extracted
+	 * without item filter.
+	 */
+	public static final String OPT_INCREMENTAL_CHECKOUT = "incremental-checkout";
+
+	/**
+	 * Source option. If true, {@link #getSnapshot(Event)} returns immutable snapshots built by a {@link SnapshotCache},
+	 * instead of updating the workspace. The snapshots can only be built concurrently with other uses of the workspace
+	 * when {@link #listFiles(Event)} is supported.
+	 */
+	public static final String OPT_SNAPSHOT_CACHE = "snapshot-cache";
+
+	/**
+	 * Source option. The disk budget of the snapshot cache, in megabytes.
+	 */
+	public static final String OPT_SNAPSHOT_CACHE_SIZE = "snapshot-cache-size";
+
+	private static final long DEFAULT_SNAPSHOT_CACHE_SIZE = 1024;
+
 	public AbstractLocalWorkspace(SourceExtractor<?> sourceExtractor) {
 		super(sourceExtractor);
 	}
 
 	protected String path;
+
+	/**
+	 * The event the whole working tree corresponds to, null if unknown
+	 */
+	private Event currentEvent;
+
+	private long lastUpdateBytesWritten = -1;
+	private long bytesWritten;
+	private int incrementalUpdates;
+
+	private SnapshotCache snapshotCache;
 	
 	@Override
 	public void init() {
@@ -53,6 +88,188 @@ public abstract class AbstractLocalWorkspace extends AbstractWorkspace {
 	public String getPath() {
 		return path;
 	}
+
+	/**
+	 * @return What the workspace has to fetch from the repository
+	 */
+	public WorkspaceMode getMode() {
+		return sourceExtractor.getConfig().getWorkspaceMode();
+	}
+
+	/**
+	 * @return The local path of the mirror of the repository, shared by all the studies, or null if the repositories are
+	 *         not mirrored.
+	 */
+	protected String getMirrorPath() {
+		String mirrorFolder = sourceExtractor.getConfig().getFoldersConfiguration().getMirrorFolder();
+		if (mirrorFolder == null) return null;
+		try {
+			URL url = new URL(getUrl());
+			return new File(mirrorFolder + "/" + url.getHost() + url.getPath()).getAbsolutePath();
+		} catch (IOException e) {
+			throw new WorkspaceException(e);
+		}
+	}
+
+	private void checkWorkingTree() throws WorkspaceException {
+		if (!getMode().hasWorkingTree()) throw new WorkspaceException("The workspace " + getPath() + " has no working tree (" + getMode() + " mode)");
+	}
+
+	@Override
+	public void update(Event e) throws WorkspaceException {
+		checkWorkingTree();
+		if (currentEvent != null && isIncrementalCheckoutEnabled() && updateIncrementally(e)) return;
+		currentEvent = null;
+		checkout(e);
+		currentEvent = e;
+		lastUpdateBytesWritten = -1;
+	}
+
+	@Override
+	public void update(Event e, Item item) throws WorkspaceException {
+		checkWorkingTree();
+		// The working tree does not correspond to a single event anymore
+		currentEvent = null;
+		checkout(e, item);
+	}
+
+	/**
+	 * Updates the whole working tree to its state after the given event
+	 */
+	protected void checkout(Event e) throws WorkspaceException {
+		throw new WorkspaceException("Not implemented");
+	}
+
+	/**
+	 * Updates a single item of the working tree to the version it had after the given event
+	 */
+	protected void checkout(Event e, Item item) throws WorkspaceException {
+		throw new WorkspaceException("Not implemented");
+	}
+
+	/**
+	 * Removes an item which does not exist after the given event from the working tree
+	 */
+	protected void remove(Event e, Item item) throws WorkspaceException {
+		File file = new File(getPath(), item.getNativeId());
+		FileUtils.deleteQuietly(file);
+		// Remove the directories left empty, as a full checkout would do
+		File dir = file.getParentFile();
+		File root = new File(getPath());
+		while (dir != null && !dir.equals(root) && dir.delete())
+			dir = dir.getParentFile();
+	}
+
+	/**
+	 * @return Whether {@link #checkout(Event, Item)} and {@link #remove(Event, Item)} can be used to move the working tree
+	 *         from an event to another.
+	 */
+	protected boolean supportsIncrementalCheckout() {
+		return false;
+	}
+
+	private boolean isIncrementalCheckoutEnabled() {
+		Object opt = sourceExtractor.getConfig().getOption(OPT_INCREMENTAL_CHECKOUT);
+		return opt != null && Boolean.parseBoolean(opt.toString()) && supportsIncrementalCheckout() && sourceExtractor.getConfig().getCompiledItemFilter().isEmpty();
+	}
+
+	/**
+	 * Applies the actions between the current event and the given one, if it is one of its parents or children.
+	 *
+	 * @return false if the working tree cannot be updated incrementally
+	 */
+	private boolean updateIncrementally(Event e) {
+		long written = 0;
+		if (currentEvent.equals(e)) {
+			// Nothing to do
+		} else if (e.getParents().contains(currentEvent)) {
+			// An event without actions has probably not been extracted, we cannot rely on it
+			if (e.getActions().isEmpty()) return false;
+			for (Action a : e.getActions(currentEvent))
+				written += apply(a, false);
+		} else if (currentEvent.getParents().contains(e)) {
+			if (currentEvent.getActions().isEmpty()) return false;
+			for (Action a : currentEvent.getActions(e))
+				written += apply(a, true);
+		} else return false;
+
+		currentEvent = e;
+		lastUpdateBytesWritten = written;
+		bytesWritten += written;
+		incrementalUpdates++;
+		return true;
+	}
+
+	/**
+	 * @param revert
+	 *            If true, the working tree is moved from the event of the action to its parent event.
+	 * @return The number of bytes written
+	 */
+	private long apply(Action a, boolean revert) {
+		Event target = revert ? a.getParentEvent() : a.getEvent();
+		boolean existsAfter = revert ? !a.getKind().equals(ActionKind.Create) : !a.getKind().equals(ActionKind.Delete);
+		if (!existsAfter) {
+			remove(target, a.getItem());
+			return 0;
+		}
+		String renamedFrom = a.getMetadata().get(Action.RENAME_KEY);
+		if (!revert && renamedFrom != null) FileUtils.deleteQuietly(new File(getPath(), renamedFrom));
+		checkout(target, a.getItem());
+		return new File(getPath(), a.getItem().getNativeId()).length();
+	}
+
+	@Override
+	public Snapshot getSnapshot(Event e) throws WorkspaceException {
+		Object opt = sourceExtractor.getConfig().getOption(OPT_SNAPSHOT_CACHE);
+		if (opt == null || !Boolean.parseBoolean(opt.toString())) return super.getSnapshot(e);
+		synchronized (this) {
+			if (snapshotCache == null) {
+				Object size = sourceExtractor.getConfig().getOption(OPT_SNAPSHOT_CACHE_SIZE);
+				long budget = size == null ? DEFAULT_SNAPSHOT_CACHE_SIZE : Long.parseLong(size.toString());
+				snapshotCache = new SnapshotCache(this, new File(getPath() + "-snapshots"), budget * 1024 * 1024);
+			}
+		}
+		return snapshotCache.getSnapshot(e);
+	}
+
+	/**
+	 * Lists the files of the source after the given event without checking it out, for the snapshot cache.
+	 * 
+	 * @param e
+	 * @return A map from the path of each file to an identifier of its content, e.g. its git blob id, or null if the
+	 *         workspace has to be checked out to read the files.
+	 */
+	protected Map<String, String> listFiles(Event e) throws WorkspaceException {
+		return null;
+	}
+
+	/**
+	 * @param contentId
+	 *            An identifier returned by {@link #listFiles(Event)}
+	 * @return The content of a file, or null if it cannot be found
+	 */
+	protected byte[] readContent(String contentId) throws WorkspaceException {
+		throw new WorkspaceException("Not implemented");
+	}
+
+	/**
+	 * @return The number of bytes written in the working tree by the last call to {@link #update(Event)}, or -1 if it
+	 *         performed a full checkout.
+	 */
+	public long getLastUpdateBytesWritten() {
+		return lastUpdateBytesWritten;
+	}
+
+	/**
+	 * @return The number of bytes written in the working tree by all the incremental updates
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public int getIncrementalUpdates() {
+		return incrementalUpdates;
+	}
 	
 	@Override
 	public String getFileContentAfter(Action action) {
@@ -1,14 +1,21 @@
 package fr.labri.harmony.core.source;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import fr.labri.harmony.core.analysis.ISingleSourceAnalysis;
 import fr.labri.harmony.core.config.model.SourceConfiguration;
 import fr.labri.harmony.core.dao.AbstractDao;
 import fr.labri.harmony.core.dao.ModelPersister;
 import fr.labri.harmony.core.log.HarmonyLogger;
+import fr.labri.harmony.core.model.Action;
 import fr.labri.harmony.core.model.Event;
+import fr.labri.harmony.core.model.Item;
 import fr.labri.harmony.core.model.Source;
 
 public abstract class AbstractSourceExtractor<W extends Workspace> implements SourceExtractor<W> {
@@ -18,12 +25,40 @@ public abstract class AbstractSourceExtractor<W extends Workspace> implements So
 	public final static String COMMITTER = "committer";
 	public final static String BRANCH = "branch";
 
+	/**
+	 * Source option. If true, the actions of an event are only extracted when they are first read, and are then stored
+	 * like the others. The first call to {@link Event#getActions()} extracts the actions of that event only, and the
+	 * methods of the Dao returning actions extract the events of their source or date range. Reading the events, e.g.
+	 * with {@link fr.labri.harmony.core.dao.Dao#getEvents(fr.labri.harmony.core.model.Source)}, extracts no action.
+	 * Ignored by the extractors which override {@link #initializeSource(boolean, boolean)} to extract the actions together
+	 * with the events.
+	 */
+	public static final String OPT_LAZY_ACTIONS = "lazy-actions";
+
+	/**
+	 * Source option. If true, the actions of the commits already extracted in another source with this option, e.g. an
+	 * other fork of the same project, are copied from it instead of being diffed again. The sources sharing their history
+	 * must be extracted with the same item filter.
+	 */
+	public static final String OPT_SHARED_HISTORY = "shared-history";
+
 	protected ModelPersister modelPersister;
 	protected W workspace;
 	protected Source source;
 	protected List<ISingleSourceAnalysis> analyses;
 	protected SourceConfiguration config;
 
+	/**
+	 * The ids of the events of other sources whose actions can be reused, by native id
+	 */
+	private Map<String, Integer> sharedEvents;
+
+	/**
+	 * True if {@link #extractEvents()} must also extract the actions of the events, see
+	 * {@link #canExtractActionsWithEvents()}
+	 */
+	protected boolean extractActionsWithEvents;
+
 	public AbstractSourceExtractor(SourceConfiguration config, ModelPersister modelPersister) {
 		this.config = config;
 		analyses = new ArrayList<>();	
@@ -68,22 +103,33 @@ public abstract class AbstractSourceExtractor<W extends Workspace> implements So
 
 		modelPersister.saveSource(source);
 		if (extractHarmonyModel) {
+			// The lazy and shared actions are extracted event by event
+			extractActionsWithEvents = extractActions && canExtractActionsWithEvents() && !isLazyActionsEnabled() && !isSharedHistoryEnabled();
 			HarmonyLogger.info("Extracting Events for source " + getUrl());
 			extractEvents();
 			// Save the remaining events
 			modelPersister.flushEvents();
 			
-			if (extractActions) {
+			if (extractActions && isLazyActionsEnabled()) {
+				HarmonyLogger.info("Actions of source " + getUrl() + " will be extracted when read");
+				modelPersister.markActionsPending(source);
+			} else if (extractActions && !extractActionsWithEvents) {
 				HarmonyLogger.info("Extracting Actions for source " + getUrl());
 
 				for (Event e : modelPersister.getEvents(source))
-					extractActions(e);
+					extractOrShareActions(e);
 				modelPersister.flushActions();
 			}
+			if (extractActions && isSharedHistoryEnabled()) {
+				// The other sources can now reuse the actions of this one
+				source.setSharedHistory(true);
+				modelPersister.updateSource(source);
+			}
 			source = modelPersister.reloadSource(source);
 		}
 		// include the configuration in the source (may be useful to get the source's options)
 		source.setConfig(getConfig());
+		if (isLazyActionsEnabled()) ActionMaterializer.register(source, this);
 
 		onExtractionFinished();
 	}
@@ -98,6 +144,94 @@ public abstract class AbstractSourceExtractor<W extends Workspace> implements So
 		}
 		source.setWorkspace(workspace);
 		source.setConfig(getConfig());
+		// The actions of a source extracted lazily may still be pending
+		if (isLazyActionsEnabled()) ActionMaterializer.register(source, this);
+	}
+
+	private boolean isLazyActionsEnabled() {
+		Object opt = config.getOption(OPT_LAZY_ACTIONS);
+		return opt != null && Boolean.parseBoolean(opt.toString());
+	}
+
+	/**
+	 * Extracts and stores the actions of an event of a source extracted with lazy actions, unless it has already been done.
+	 * 
+	 * @param e
+	 * @return The actions of the event
+	 */
+	public synchronized List<Action> materializeActions(Event e) {
+		Event stored = modelPersister.getEvent(source, e.getNativeId());
+		if (stored.hasPendingActions()) {
+			extractOrShareActions(stored);
+			modelPersister.flushActions();
+			modelPersister.markActionsExtracted(stored);
+		}
+		return modelPersister.getActions(stored);
+	}
+
+	/**
+	 * Extracts and stores the actions of the events between the given timestamps which have not been extracted yet.
+	 * 
+	 * @param from
+	 *            Can be null
+	 * @param to
+	 *            Can be null
+	 */
+	public synchronized void materializeActions(Long from, Long to) {
+		List<Event> events = modelPersister.getEventsWithPendingActions(source, from, to);
+		if (events.isEmpty()) return;
+		for (Event e : events)
+			extractOrShareActions(e);
+		modelPersister.flushActions();
+		for (Event e : events)
+			modelPersister.markActionsExtracted(e);
+	}
+
+	private boolean isSharedHistoryEnabled() {
+		Object opt = config.getOption(OPT_SHARED_HISTORY);
+		return opt != null && Boolean.parseBoolean(opt.toString());
+	}
+
+	/**
+	 * Extracts the actions of an event, or copies them from the same commit in another source when the history is shared
+	 */
+	private void extractOrShareActions(Event e) {
+		if (sharedEvents == null) sharedEvents = isSharedHistoryEnabled() ? modelPersister.getSharedEvents(source) : Collections.<String, Integer> emptyMap();
+		Integer sharedEventId = sharedEvents.get(e.getNativeId());
+		if (sharedEventId == null) extractActions(e);
+		else shareActions(e, sharedEventId);
+	}
+
+	private void shareActions(Event e, int sharedEventId) {
+		Map<String, Event> parents = new HashMap<>();
+		for (Event parent : e.getParents())
+			parents.put(parent.getNativeId(), parent);
+		for (Action shared : modelPersister.getActions(sharedEventId)) {
+			Event parent = null;
+			if (shared.getParentEvent() != null) {
+				parent = parents.get(shared.getParentEvent().getNativeId());
+				// The parent was not followed in this source, e.g. in first-parent history
+				if (parent == null) continue;
+			}
+			String path = shared.getItem().getNativeId();
+			Item i = modelPersister.getItem(source, path);
+			if (i == null) {
+				i = new Item(source, path);
+				modelPersister.saveItem(i);
+			}
+			Action a = new Action(i, shared.getKind(), e, parent, source);
+			a.getMetadata().putAll(shared.getMetadata());
+			modelPersister.saveAction(a);
+		}
+	}
+
+	/**
+	 * @return Whether {@link #extractEvents()} can extract the actions in the same pass as the events, when
+	 *         {@link #extractActionsWithEvents} is set. {@link #extractActions(Event)} is then only called for the actions
+	 *         extracted lazily or shared with other sources. False by default.
+	 */
+	protected boolean canExtractActionsWithEvents() {
+		return false;
 	}
 
 	/**
@@ -107,7 +241,34 @@ public abstract class AbstractSourceExtractor<W extends Workspace> implements So
 		HarmonyLogger.info("Extraction finished for source " + source.getUrl());
 	}
 
+	/**
+	 * Links an event to its parents. In first-parent history, a merge is only linked to its first parent, so that its
+	 * actions are extracted as a single diff against it, and the other parents are recorded in its metadata.
+	 * 
+	 * @param e
+	 * @param parentIds
+	 *            The native ids of the parents of the event, the first parent first
+	 */
+	protected void linkParents(Event e, List<String> parentIds) {
+		Set<Event> parents = new HashSet<>();
+		if (config.firstParentHistory()) {
+			e.getMetadata().put(Event.HISTORY_KEY, Event.FIRST_PARENT_HISTORY);
+			if (parentIds.size() > 1) {
+				StringBuilder merged = new StringBuilder();
+				for (String parentId : parentIds.subList(1, parentIds.size()))
+					merged.append(merged.length() == 0 ? "" : " ").append(parentId);
+				e.getMetadata().put(Event.MERGED_PARENTS_KEY, merged.toString());
+				parentIds = parentIds.subList(0, 1);
+			}
+		}
+		for (String parentId : parentIds) {
+			Event parent = modelPersister.getEvent(source, parentId);
+			if (parent != null) parents.add(parent);
+		}
+		e.setParents(parents);
+	}
+
 	protected boolean extractItemWithPath(String path) {
-		return config.getItemFilter() == null || path.matches(config.getItemFilter());
+		return config.getCompiledItemFilter().accept(path);
 	}
 }
@@ -35,9 +35,15 @@ public abstract class AbstractWorkspace implements Workspace {
 		throw new WorkspaceException("Not implemented");
 	}
 	
+	@Override
+	public Snapshot getSnapshot(Event e) throws WorkspaceException {
+		update(e);
+		return new Snapshot(getPath());
+	}
+	
 	@Override
 	public void clean() throws WorkspaceException {
 		throw new WorkspaceException("Not implemented");
 	}
 	
-}
\ No newline at end of file
+}
\ No newline at end of file
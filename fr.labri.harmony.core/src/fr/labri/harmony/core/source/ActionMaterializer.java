@@ -0,0 +1,56 @@
+package fr.labri.harmony.core.source;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import fr.labri.harmony.core.log.HarmonyLogger;
+import fr.labri.harmony.core.model.Action;
+import fr.labri.harmony.core.model.Event;
+import fr.labri.harmony.core.model.Source;
+
+/**
+ * Extracts on demand the actions of the sources extracted with the option
+ * {@link AbstractSourceExtractor#OPT_LAZY_ACTIONS}. The events and the sources are loaded by different entity managers,
+ * so the extractors are found from the url of the source.
+ */
+public class ActionMaterializer {
+
+	private static final Map<String, AbstractSourceExtractor<?>> extractors = new ConcurrentHashMap<>();
+
+	private ActionMaterializer() {
+	}
+
+	public static void register(Source source, AbstractSourceExtractor<?> extractor) {
+		extractors.put(source.getUrl(), extractor);
+	}
+
+	/**
+	 * @param e
+	 *            An event whose actions have not been extracted yet
+	 * @return The actions of the event, or null if its source is not available anymore
+	 */
+	public static List<Action> materialize(Event e) {
+		AbstractSourceExtractor<?> extractor = extractors.get(e.getSource().getUrl());
+		if (extractor == null) {
+			HarmonyLogger.error("The actions of event " + e.getNativeId() + " cannot be extracted, its source is not initialized");
+			return null;
+		}
+		return extractor.materializeActions(e);
+	}
+
+	/**
+	 * Extracts the actions of the events of the source that have not been extracted yet
+	 * 
+	 * @param source
+	 * @param from
+	 *            The timestamp of the first event, can be null
+	 * @param to
+	 *            The timestamp of the last event, can be null
+	 */
+	public static void materialize(Source source, Long from, Long to) {
+		AbstractSourceExtractor<?> extractor = extractors.get(source.getUrl());
+		if (extractor != null) extractor.materializeActions(from, to);
+	}
+
+}
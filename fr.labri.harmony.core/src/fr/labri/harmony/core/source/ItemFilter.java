@@ -0,0 +1,167 @@
+package fr.labri.harmony.core.source;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Selects the items extracted from a source, from lists of glob patterns to include and exclude, and an optional
+ * regular expression. The patterns are compiled once, and can be pushed down to the VCS so that the excluded paths are
+ * never diffed. <br>
+ * Globs follow the syntax of git pathspecs: <code>*</code> and <code>?</code> do not match <code>/</code>,
+ * <code>**&#47;</code> matches any number of directories, and a glob matching a directory matches everything inside it.
+ * They are matched against the path of the item without its leading slash, the regular expression against the
+ * path as given by the source.
+ */
+public class ItemFilter {
+
+	private List<String> includes;
+	private List<String> excludes;
+
+	private Pattern includePattern;
+	private Pattern excludePattern;
+	private Pattern regex;
+
+	/**
+	 * The directories before the first wildcard of each include glob
+	 */
+	private List<String> includePrefixes;
+
+	/**
+	 * Matches the directories excluded with all their content
+	 */
+	private Pattern excludedDirectoryPattern;
+
+	/**
+	 * @param includes
+	 *            Can be null or empty, then all the paths are included
+	 * @param excludes
+	 *            Can be null
+	 * @param regex
+	 *            Can be null
+	 */
+	public ItemFilter(List<String> includes, List<String> excludes, String regex) {
+		this.includes = includes == null ? Collections.<String> emptyList() : includes;
+		this.excludes = excludes == null ? Collections.<String> emptyList() : excludes;
+		this.regex = regex == null ? null : Pattern.compile(regex);
+
+		includePattern = compile(this.includes);
+		excludePattern = compile(this.excludes);
+
+		includePrefixes = new ArrayList<>();
+		for (String glob : this.includes)
+			includePrefixes.add(getLiteralDirectory(glob));
+
+		List<String> excludedDirectories = new ArrayList<>(this.excludes);
+		for (String glob : this.excludes)
+			if (glob.endsWith("/**")) excludedDirectories.add(glob.substring(0, glob.length() - 3));
+		excludedDirectoryPattern = compile(excludedDirectories);
+	}
+
+	/**
+	 * @return Whether all the items are extracted
+	 */
+	public boolean isEmpty() {
+		return includes.isEmpty() && excludes.isEmpty() && regex == null;
+	}
+
+	/**
+	 * @param path
+	 * @return Whether the item with the given path is extracted
+	 */
+	public boolean accept(String path) {
+		if (regex != null && !regex.matcher(path).matches()) return false;
+		String relativePath = path.startsWith("/") ? path.substring(1) : path;
+		if (includePattern != null && !includePattern.matcher(relativePath).matches()) return false;
+		return excludePattern == null || !excludePattern.matcher(relativePath).matches();
+	}
+
+	/**
+	 * Used to prune the directories when walking a tree.
+	 *
+	 * @param directory
+	 *            The path of a directory, without leading or trailing slash
+	 * @return false if no item in the directory can be extracted
+	 */
+	public boolean mayContain(String directory) {
+		if (excludedDirectoryPattern != null && excludedDirectoryPattern.matcher(directory).matches()) return false;
+		if (includePrefixes.isEmpty()) return true;
+		for (String prefix : includePrefixes) {
+			if (prefix.isEmpty() || prefix.equals(directory) || prefix.startsWith(directory + "/") || directory.startsWith(prefix + "/")) return true;
+		}
+		return false;
+	}
+
+	public List<String> getIncludes() {
+		return includes;
+	}
+
+	public List<String> getExcludes() {
+		return excludes;
+	}
+
+	/**
+	 * @return A single pattern matching any of the given globs, or null if there is no glob
+	 */
+	private static Pattern compile(List<String> globs) {
+		if (globs.isEmpty()) return null;
+		StringBuilder b = new StringBuilder();
+		for (String glob : globs) {
+			if (b.length() > 0) b.append('|');
+			// As in git, a pattern matching a directory matches its content
+			b.append("(?:").append(toRegex(glob)).append("(?:/.*)?)");
+		}
+		return Pattern.compile(b.toString());
+	}
+
+	private static String toRegex(String glob) {
+		StringBuilder b = new StringBuilder();
+		int i = 0;
+		while (i < glob.length()) {
+			char c = glob.charAt(i);
+			if (c == '*') {
+				if (glob.startsWith("**/", i)) {
+					b.append("(?:.*/)?");
+					i += 3;
+				} else if (glob.startsWith("**", i)) {
+					b.append(".*");
+					i += 2;
+				} else {
+					b.append("[^/]*");
+					i++;
+				}
+			} else if (c == '?') {
+				b.append("[^/]");
+				i++;
+			} else if (c == '[' && glob.indexOf(']', i + 1) != -1) {
+				int end = glob.indexOf(']', i + 1);
+				String set = glob.substring(i + 1, end);
+				if (set.startsWith("!")) set = "^" + set.substring(1);
+				b.append('[').append(set.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+				i = end + 1;
+			} else {
+				if ("\\.^$|+(){}[]".indexOf(c) != -1) b.append('\\');
+				b.append(c);
+				i++;
+			}
+		}
+		return b.toString();
+	}
+
+	/**
+	 * @return The directory part of the glob before its first wildcard, e.g. <code>src/main</code> for
+	 *         <code>src/main/**&#47;*.java</code>, or the whole glob if it has no wildcard
+	 */
+	private static String getLiteralDirectory(String glob) {
+		int wildcard = glob.length();
+		for (char c : new char[] { '*', '?', '[' }) {
+			int index = glob.indexOf(c);
+			if (index != -1 && index < wildcard) wildcard = index;
+		}
+		if (wildcard == glob.length()) return glob;
+		int slash = glob.lastIndexOf('/', wildcard);
+		return slash == -1 ? "" : glob.substring(0, slash);
+	}
+
+}
@@ -0,0 +1,47 @@
+package fr.labri.harmony.core.source;
+
+import java.io.Closeable;
+
+/**
+ * A lease on the files of a source after an event, returned by {@link Workspace#getSnapshot(fr.labri.harmony.core.model.Event)}.
+ * The directory stays valid until the lease is closed, after which it may be deleted or updated to another event.
+ */
+public class Snapshot implements Closeable {
+
+	private final String path;
+	private final Runnable onClose;
+	private boolean closed;
+
+	/**
+	 * @param path
+	 *            The directory of the files, e.g. the workspace itself
+	 */
+	public Snapshot(String path) {
+		this(path, null);
+	}
+
+	/**
+	 * @param path
+	 * @param onClose
+	 *            Run once, when the lease is closed
+	 */
+	public Snapshot(String path, Runnable onClose) {
+		this.path = path;
+		this.onClose = onClose;
+	}
+
+	/**
+	 * @return The local path to the directory of the files. It must not be modified.
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (closed) return;
+		closed = true;
+		if (onClose != null) onClose.run();
+	}
+
+}
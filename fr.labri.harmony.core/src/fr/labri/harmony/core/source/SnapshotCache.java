@@ -0,0 +1,261 @@
+package fr.labri.harmony.core.source;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+
+import fr.labri.harmony.core.log.HarmonyLogger;
+import fr.labri.harmony.core.model.Event;
+
+/**
+ * Materializes read-only snapshots of a source, one directory tree per event. The contents of the files are stored once
+ * in a content-addressed blob store, and hard-linked into the snapshots, so the files shared by several snapshots only
+ * use disk space once. The least recently used snapshots are evicted when the blobs exceed the disk budget, unless they
+ * are still leased. <br>
+ * Snapshots are never modified once built, so they can be read concurrently while the workspace is used for something
+ * else.
+ */
+public class SnapshotCache {
+
+	private static final String BLOBS_DIR = "blobs";
+	private static final String SNAPSHOTS_DIR = "snapshots";
+	private static final String[] VCS_DIRS = { ".git", ".svn", ".hg" };
+
+	private AbstractLocalWorkspace workspace;
+	private File blobsDir;
+	private File snapshotsDir;
+	private long diskBudget;
+
+	/**
+	 * The cached snapshots, by native id of their event, from the least to the most recently used
+	 */
+	private LinkedHashMap<String, CachedSnapshot> snapshots;
+	private Map<String, Integer> blobReferences;
+	private Map<String, Long> blobSizes;
+	private long diskUsage;
+
+	private boolean hardLinksSupported = true;
+
+	private static class CachedSnapshot {
+		Set<String> blobs = new HashSet<>();
+		/**
+		 * The number of leases not closed yet, the snapshot cannot be evicted until it is 0
+		 */
+		int leases;
+		/**
+		 * The bytes of the files which had to be copied instead of linked
+		 */
+		long copiedBytes;
+	}
+
+	/**
+	 * @param workspace
+	 * @param root
+	 *            The directory of the cache. It is cleared, as the cache does not survive the workspace.
+	 * @param diskBudget
+	 *            The number of bytes above which snapshots are evicted. The most recent snapshot is always kept.
+	 */
+	public SnapshotCache(AbstractLocalWorkspace workspace, File root, long diskBudget) {
+		this.workspace = workspace;
+		this.diskBudget = diskBudget;
+		this.blobsDir = new File(root, BLOBS_DIR);
+		this.snapshotsDir = new File(root, SNAPSHOTS_DIR);
+		this.snapshots = new LinkedHashMap<>(16, 0.75f, true);
+		this.blobReferences = new HashMap<>();
+		this.blobSizes = new HashMap<>();
+		try {
+			FileUtils.deleteDirectory(root);
+			FileUtils.forceMkdir(blobsDir);
+			FileUtils.forceMkdir(snapshotsDir);
+		} catch (IOException e) {
+			throw new WorkspaceException(e);
+		}
+	}
+
+	/**
+	 * When the workspace cannot list the files of an event, the snapshot is built from a checkout of the workspace, under
+	 * the lock of the cache: the workspace is then modified, and the snapshots are built one at a time.
+	 * 
+	 * @param e
+	 * @return A lease on the directory containing the files of the source after the given event. It must not be
+	 *         modified, and it is not evicted until the lease is closed.
+	 * @throws WorkspaceException
+	 */
+	public synchronized Snapshot getSnapshot(Event e) throws WorkspaceException {
+		File dir = new File(snapshotsDir, e.getNativeId());
+		CachedSnapshot cached = snapshots.get(e.getNativeId());
+		if (cached != null) return lease(cached, dir);
+
+		FileUtils.deleteQuietly(dir);
+		CachedSnapshot snapshot = new CachedSnapshot();
+		try {
+			Map<String, String> files = workspace.listFiles(e);
+			if (files != null) {
+				for (Entry<String, String> file : files.entrySet()) {
+					if (!getBlob(file.getValue()).exists()) {
+						byte[] content = workspace.readContent(file.getValue());
+						if (content == null) continue;
+						storeBlob(file.getValue(), content);
+					}
+					addToSnapshot(snapshot, file.getValue(), new File(dir, file.getKey()));
+				}
+			} else {
+				// The files can only be read from a checkout
+				workspace.update(e);
+				File root = new File(workspace.getPath());
+				addCheckedOutFiles(snapshot, root, root, dir);
+			}
+		} catch (IOException ex) {
+			// Do not leave a partial snapshot behind
+			releaseBlobs(snapshot);
+			FileUtils.deleteQuietly(dir);
+			throw new WorkspaceException(ex);
+		}
+		snapshots.put(e.getNativeId(), snapshot);
+		Snapshot lease = lease(snapshot, dir);
+		evict();
+		return lease;
+	}
+
+	private Snapshot lease(final CachedSnapshot snapshot, File dir) {
+		snapshot.leases++;
+		return new Snapshot(dir.getAbsolutePath(), new Runnable() {
+			@Override
+			public void run() {
+				synchronized (SnapshotCache.this) {
+					snapshot.leases--;
+					// The snapshots kept while leased may now be evicted
+					evict();
+				}
+			}
+		});
+	}
+
+	private void addCheckedOutFiles(CachedSnapshot snapshot, File root, File current, File dir) throws IOException {
+		File[] children = current.listFiles();
+		if (children == null) return;
+		for (File child : children) {
+			if (child.isDirectory()) {
+				if (current.equals(root) && isVcsDir(child.getName())) continue;
+				addCheckedOutFiles(snapshot, root, child, new File(dir, child.getName()));
+			} else if (child.isFile()) {
+				byte[] content = FileUtils.readFileToByteArray(child);
+				String id = sha1(content);
+				if (!getBlob(id).exists()) storeBlob(id, content);
+				addToSnapshot(snapshot, id, new File(dir, child.getName()));
+			}
+		}
+	}
+
+	private void addToSnapshot(CachedSnapshot snapshot, String id, File target) throws IOException {
+		File blob = getBlob(id);
+		FileUtils.forceMkdir(target.getParentFile());
+		if (!link(blob, target)) {
+			snapshot.copiedBytes += blob.length();
+			diskUsage += blob.length();
+		}
+		if (snapshot.blobs.add(id)) {
+			Integer references = blobReferences.get(id);
+			blobReferences.put(id, references == null ? 1 : references + 1);
+		}
+	}
+
+	/**
+	 * @return false if the blob had to be copied
+	 */
+	private boolean link(File blob, File target) throws IOException {
+		if (hardLinksSupported) {
+			try {
+				Files.createLink(target.toPath(), blob.toPath());
+				return true;
+			} catch (UnsupportedOperationException | FileSystemException e) {
+				HarmonyLogger.error("Cannot create hard links in " + snapshotsDir + " (" + e.getMessage() + "), snapshot files will be copied");
+				hardLinksSupported = false;
+			}
+		}
+		Files.copy(blob.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		target.setReadOnly();
+		return false;
+	}
+
+	private void storeBlob(String id, byte[] content) throws IOException {
+		File blob = getBlob(id);
+		File tmp = new File(blob.getPath() + ".tmp");
+		FileUtils.writeByteArrayToFile(tmp, content);
+		tmp.setReadOnly();
+		Files.move(tmp.toPath(), blob.toPath(), StandardCopyOption.ATOMIC_MOVE);
+		blobSizes.put(id, (long) content.length);
+		diskUsage += content.length;
+	}
+
+	private File getBlob(String id) {
+		return new File(new File(blobsDir, id.substring(0, 2)), id);
+	}
+
+	private void evict() {
+		Iterator<Entry<String, CachedSnapshot>> it = snapshots.entrySet().iterator();
+		// The most recent snapshot is always kept
+		for (int candidates = snapshots.size() - 1; diskUsage > diskBudget && candidates > 0; candidates--) {
+			Entry<String, CachedSnapshot> eldest = it.next();
+			if (eldest.getValue().leases > 0) continue;
+			it.remove();
+			FileUtils.deleteQuietly(new File(snapshotsDir, eldest.getKey()));
+			releaseBlobs(eldest.getValue());
+		}
+	}
+
+	/**
+	 * Releases the blobs of a deleted snapshot, and deletes the ones which are not used anymore
+	 */
+	private void releaseBlobs(CachedSnapshot snapshot) {
+		diskUsage -= snapshot.copiedBytes;
+		for (String id : snapshot.blobs) {
+			int references = blobReferences.get(id) - 1;
+			if (references > 0) blobReferences.put(id, references);
+			else {
+				blobReferences.remove(id);
+				FileUtils.deleteQuietly(getBlob(id));
+				diskUsage -= blobSizes.remove(id);
+			}
+		}
+	}
+
+	private static boolean isVcsDir(String name) {
+		for (String vcsDir : VCS_DIRS)
+			if (vcsDir.equals(name)) return true;
+		return false;
+	}
+
+	private static String sha1(byte[] content) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(content);
+			StringBuilder b = new StringBuilder();
+			for (byte d : digest)
+				b.append(String.format("%02x", d));
+			return b.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new WorkspaceException(e);
+		}
+	}
+
+	/**
+	 * @return The number of bytes used by the cache
+	 */
+	public synchronized long getDiskUsage() {
+		return diskUsage;
+	}
+
+}
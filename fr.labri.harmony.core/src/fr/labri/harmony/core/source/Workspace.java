@@ -46,6 +46,17 @@ public interface Workspace {
 	 */
 	String getPath();
 
+	/**
+	 * Gives access to the files of the source after the given event. Depending on the workspace, this is either the
+	 * workspace itself, updated to the event, or an immutable snapshot which is not affected by later updates.
+	 * 
+	 * @param e
+	 * @return A lease on a directory containing the files of the source after the event, to close once the files are
+	 *         read. The directory must not be modified.
+	 * @throws WorkspaceException
+	 */
+	Snapshot getSnapshot(Event e) throws WorkspaceException;
+
 	/**
 	 * 
 	 * @param action
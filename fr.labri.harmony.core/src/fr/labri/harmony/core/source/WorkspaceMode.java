@@ -0,0 +1,45 @@
+package fr.labri.harmony.core.source;
+
+/**
+ * What a workspace has to fetch from the repository, chosen from the needs of the analyses run on the source.
+ */
+public enum WorkspaceMode {
+
+	/**
+	 * A working tree which can be updated to any event. Needed as soon as an analysis reads the files of the source.
+	 */
+	FULL,
+
+	/**
+	 * No working tree, and the file contents are only fetched when they are read, e.g. a blob-less partial clone for git.
+	 * Enough to extract the events and the actions from tree diffs, but not the metadata computed from the contents
+	 * (churn, renames).
+	 */
+	PARTIAL,
+
+	/**
+	 * No working tree, only the history, e.g. a bare clone for git or the log for svn. Enough to extract the events.
+	 */
+	BARE;
+
+	/**
+	 * @param requireWorkspace
+	 *            Whether an analysis reads the files of the source
+	 * @param requireActions
+	 *            Whether the actions have to be extracted
+	 * @return The smallest mode which satisfies the given needs
+	 */
+	public static WorkspaceMode forNeeds(boolean requireWorkspace, boolean requireActions) {
+		if (requireWorkspace) return FULL;
+		if (requireActions) return PARTIAL;
+		return BARE;
+	}
+
+	/**
+	 * @return Whether the workspace has a working tree
+	 */
+	public boolean hasWorkingTree() {
+		return this == FULL;
+	}
+
+}
@@ -6,13 +6,36 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 public class ProcessExecutor {
 
+	public static final byte LINE_DELIMITER = '\n';
+	public static final byte NUL_DELIMITER = 0;
+
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
 	private ArrayList<String> processOutput;
 	private ArrayList<String> processError;
 	private ProcessBuilder processBuilder;
 
+	/**
+	 * Receives the records of a process output as they are produced. The buffer is reused between calls, so its content
+	 * must be copied if it has to be kept.
+	 */
+	public interface RecordHandler {
+
+		/**
+		 * @param buffer
+		 * @param offset
+		 *            The index of the first byte of the record in the buffer
+		 * @param length
+		 *            The length of the record, without its delimiter
+		 */
+		void handleRecord(byte[] buffer, int offset, int length);
+
+	}
+
 	public ProcessExecutor(String... command) {
 		ArrayList<String> checkedCommand = new ArrayList<>();
 		for (String arg : command) {
@@ -29,19 +52,72 @@ public class ProcessExecutor {
 		return this;
 	}
 
+	/**
+	 * Runs the process and collects the lines of its output, which are then available through {@link #getOutput()}
+	 */
 	public ProcessExecutor run() throws IOException, InterruptedException {
+		return run(new RecordHandler() {
+			@Override
+			public void handleRecord(byte[] buffer, int offset, int length) {
+				if (length > 0 && buffer[offset + length - 1] == '\r') length--;
+				processOutput.add(new String(buffer, offset, length));
+			}
+		}, LINE_DELIMITER);
+	}
+
+	/**
+	 * Runs the process and streams its output to the given handler, record by record. Nothing is retained in memory: the
+	 * handler is called by the current thread, so the process is blocked when it writes faster than the handler reads.
+	 *
+	 * @param handler
+	 * @param delimiter
+	 *            The byte terminating a record, e.g. {@link #LINE_DELIMITER}, or {@link #NUL_DELIMITER} for commands
+	 *            run with -z
+	 */
+	public ProcessExecutor run(RecordHandler handler, byte delimiter) throws IOException, InterruptedException {
 		Process process = processBuilder.start();
 
-		Thread t1 = new Thread(new ProcessStreamReader(process.getInputStream(), processOutput));
-		Thread t2 = new Thread(new ProcessStreamReader(process.getErrorStream(), processError));
-		t1.start();
-		t2.start();
+		Thread errorReader = new Thread(new ProcessStreamReader(process.getErrorStream(), processError));
+		errorReader.start();
+		boolean completed = false;
+		try (InputStream outputStream = process.getInputStream()) {
+			readRecords(outputStream, handler, delimiter);
+			completed = true;
+		} finally {
+			if (!completed) process.destroy();
+		}
 		process.waitFor();
-		t1.join();
-		t2.join();
+		errorReader.join();
 		return this;
 	}
 
+	private void readRecords(InputStream inputStream, RecordHandler handler, byte delimiter) throws IOException {
+		byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+		// The unprocessed bytes are between start and end
+		int start = 0;
+		int end = 0;
+		int read;
+		while ((read = inputStream.read(buffer, end, buffer.length - end)) != -1) {
+			int position = end;
+			end += read;
+			for (; position < end; position++) {
+				if (buffer[position] == delimiter) {
+					handler.handleRecord(buffer, start, position - start);
+					start = position + 1;
+				}
+			}
+			// Move the incomplete record to the beginning of the buffer, and grow the buffer if it does not fit
+			if (start > 0) {
+				System.arraycopy(buffer, start, buffer, 0, end - start);
+				end -= start;
+				start = 0;
+			} else if (end == buffer.length) {
+				buffer = Arrays.copyOf(buffer, buffer.length * 2);
+			}
+		}
+		if (end > start) handler.handleRecord(buffer, start, end - start);
+	}
+
 	public ArrayList<String> getOutput() {
 		return processOutput;
 	}
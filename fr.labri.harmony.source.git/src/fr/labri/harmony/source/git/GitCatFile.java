@@ -0,0 +1,47 @@
+package fr.labri.harmony.source.git;
+
+import java.io.IOException;
+
+/**
+ * Reads git objects through a long-lived <code>git cat-file --batch</code> process.
+ */
+public class GitCatFile extends GitCoprocess {
+
+	public GitCatFile(String directory) {
+		super(directory, "git", "cat-file", "--batch");
+	}
+
+	/**
+	 * @param object
+	 *            Any object name understood by git, e.g. <code>&lt;commit&gt;:&lt;path&gt;</code>
+	 * @return The content of the object, or null if there is no such object
+	 */
+	public synchronized byte[] read(String object) {
+		for (int attempt = 1;; attempt++) {
+			try {
+				start();
+				write(object + "\n");
+				// The header is either "<sha> <type> <size>" or "<object> missing"
+				String header = readRecord(false, null);
+				if (header.endsWith(" missing") || header.endsWith(" ambiguous")) return null;
+				byte[] content = readBytes(Integer.parseInt(header.substring(header.lastIndexOf(' ') + 1)));
+				// Contents are followed by a newline
+				skipByte();
+				return content;
+			} catch (IOException | NumberFormatException e) {
+				onFailure(e instanceof IOException ? (IOException) e : new IOException(e), attempt);
+			}
+		}
+	}
+
+	/**
+	 * @param commit
+	 * @param path
+	 * @return The content of the file at the given path in the given commit, or null if there is no such file.
+	 */
+	public String readFile(String commit, String path) {
+		byte[] content = read(commit + ":" + path);
+		return content == null ? null : new String(content);
+	}
+
+}
@@ -0,0 +1,137 @@
+package fr.labri.harmony.source.git;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.util.Arrays;
+
+import fr.labri.harmony.core.log.HarmonyLogger;
+import fr.labri.harmony.core.source.WorkspaceException;
+
+/**
+ * A long-lived git process which reads requests on its standard input and writes the answers on its standard output,
+ * e.g. <code>git cat-file --batch</code>. Requests are streamed to the same process, so the startup cost of git is paid
+ * only once per workspace instead of once per command. <br>
+ * The process is started lazily, and restarted when it dies or when a request fails.
+ */
+public abstract class GitCoprocess {
+
+	private static final int MAX_ATTEMPTS = 2;
+
+	private final String[] command;
+	private final String directory;
+
+	private Process process;
+	private OutputStream processInput;
+	private InputStream processOutput;
+
+	private ByteArrayOutputStream recordBuffer;
+
+	public GitCoprocess(String directory, String... command) {
+		this.directory = directory;
+		this.command = command;
+		this.recordBuffer = new ByteArrayOutputStream();
+	}
+
+	/**
+	 * Stops the underlying process. It will be started again by the next request.
+	 */
+	public synchronized void close() {
+		if (process == null) return;
+		try {
+			processInput.close();
+		} catch (IOException e) {
+			// the process is already dead
+		}
+		process.destroy();
+		process = null;
+		processInput = null;
+		processOutput = null;
+	}
+
+	protected void start() throws IOException {
+		if (process != null) {
+			if (isAlive()) return;
+			HarmonyLogger.error("The git process " + Arrays.toString(command) + " died, restarting it");
+			close();
+		}
+		ProcessBuilder builder = new ProcessBuilder(command).directory(new File(directory)).redirectError(Redirect.INHERIT);
+		process = builder.start();
+		processInput = new BufferedOutputStream(process.getOutputStream());
+		processOutput = new BufferedInputStream(process.getInputStream());
+	}
+
+	private boolean isAlive() {
+		try {
+			process.exitValue();
+			return false;
+		} catch (IllegalThreadStateException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Handles a failed request: the process is stopped, and an exception is thrown if the request cannot be retried.
+	 *
+	 * @param e
+	 * @param attempt
+	 *            The number of the attempt that failed, starting at 1
+	 */
+	protected void onFailure(IOException e, int attempt) {
+		close();
+		if (attempt >= MAX_ATTEMPTS) throw new WorkspaceException(e);
+		HarmonyLogger.error("Request to the git process " + Arrays.toString(command) + " failed (" + e.getMessage() + "), retrying");
+	}
+
+	protected void write(String request) throws IOException {
+		processInput.write(request.getBytes());
+		processInput.flush();
+	}
+
+	/**
+	 * Reads the next record of the output.
+	 *
+	 * @param nulTerminated
+	 *            If true, records are terminated by a NUL character, except the ones in the <code>newlineTerminated</code> list,
+	 *            which are terminated by a newline. Otherwise, records are lines.
+	 * @param newlineTerminated
+	 *            The records which are terminated by a newline even in the NUL-terminated mode.
+	 * @return The record, without its terminator
+	 * @throws IOException
+	 */
+	protected String readRecord(boolean nulTerminated, String newlineTerminated) throws IOException {
+		recordBuffer.reset();
+		int c;
+		while ((c = processOutput.read()) != -1) {
+			if (c == '\n') {
+				if (!nulTerminated) break;
+				if (newlineTerminated != null && newlineTerminated.equals(recordBuffer.toString())) break;
+			} else if (c == 0 && nulTerminated) break;
+			recordBuffer.write(c);
+		}
+		if (c == -1) throw new EOFException("Unexpected end of the git process output");
+		return recordBuffer.toString();
+	}
+
+	protected byte[] readBytes(int length) throws IOException {
+		byte[] bytes = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			int read = processOutput.read(bytes, offset, length - offset);
+			if (read == -1) throw new EOFException("Unexpected end of the git process output");
+			offset += read;
+		}
+		return bytes;
+	}
+
+	protected void skipByte() throws IOException {
+		if (processOutput.read() == -1) throw new EOFException("Unexpected end of the git process output");
+	}
+
+}
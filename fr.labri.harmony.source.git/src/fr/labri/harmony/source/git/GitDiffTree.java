@@ -0,0 +1,61 @@
+package fr.labri.harmony.source.git;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes diffs through a long-lived <code>git diff-tree --stdin -r --root</code> process.
+ */
+public class GitDiffTree extends GitCoprocess {
+
+	/**
+	 * diff-tree echoes the lines of its input which do not start with a sha, and flushes its output after each line. We
+	 * use this to detect the end of the answer to a request.
+	 */
+	private static final String END_MARKER = "#harmony-end";
+
+	private boolean nulTerminated;
+
+	/**
+	 * @param directory
+	 * @param options
+	 *            The output options of diff-tree, e.g. <code>--numstat</code>
+	 */
+	public GitDiffTree(String directory, String... options) {
+		super(directory, buildCommand(options));
+		nulTerminated = Arrays.asList(options).contains("-z");
+	}
+
+	private static String[] buildCommand(String... options) {
+		ArrayList<String> command = new ArrayList<>(Arrays.asList("git", "diff-tree", "--stdin", "-r", "--root"));
+		command.addAll(Arrays.asList(options));
+		return command.toArray(new String[command.size()]);
+	}
+
+	/**
+	 * @param commit
+	 * @param parent
+	 *            Can be null, then the commit is compared to the empty tree.
+	 * @return The records (lines, or NUL-terminated fields with -z) of the diff between the parent and the commit
+	 */
+	public synchronized List<String> diff(String commit, String parent) {
+		for (int attempt = 1;; attempt++) {
+			try {
+				start();
+				write((parent == null ? commit : commit + " " + parent) + "\n" + END_MARKER + "\n");
+				List<String> records = new ArrayList<>();
+				String record;
+				while (!END_MARKER.equals(record = readRecord(nulTerminated, END_MARKER)))
+					records.add(record);
+				// The diff is preceded by the id of the commit, unless it is empty
+				if (!records.isEmpty() && records.get(0).equals(commit)) records.remove(0);
+				return records;
+			} catch (IOException e) {
+				onFailure(e, attempt);
+			}
+		}
+	}
+
+}
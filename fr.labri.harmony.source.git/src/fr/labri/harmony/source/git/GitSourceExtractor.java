@@ -4,6 +4,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,7 +21,10 @@ import fr.labri.harmony.core.model.Event;
 import fr.labri.harmony.core.model.Item;
 import fr.labri.harmony.core.source.AbstractSourceExtractor;
 import fr.labri.harmony.core.source.SourceExtractorException;
+import fr.labri.harmony.core.source.WorkspaceMode;
+import fr.labri.harmony.core.util.MapUtils;
 import fr.labri.harmony.core.util.ProcessExecutor;
+import fr.labri.harmony.core.util.ProcessExecutor.RecordHandler;
 
 public class GitSourceExtractor extends AbstractSourceExtractor<GitWorkspace> {
 
@@ -29,11 +36,11 @@ public class GitSourceExtractor extends AbstractSourceExtractor<GitWorkspace> {
 		super(config, modelPersister);
 	}
 
-	// FIXME: the format should be with %B, but then a commit could use several lines
-	private static final String FORMAT = "@hash@ %H @parentHash@ %P @time@ %at @authorName@ %an @authorEmail@ %ae @message@ %s";
-	private static final String REGEX = "^@hash@ (.*) @parentHash@ (.*) @time@ (.*) @authorName@ (.*) @authorEmail@ (.*) @message@ (.*)$";
-
-	private static final String GIT_EMPTY_TREE = "4b825dc642cb6eb9a060e54bf8d69288fbee4904";
+	// Fields are separated by the ASCII unit separator, and commits by NUL characters (git log -z), so the full message can span several lines
+	private static final byte FIELD_SEPARATOR = 0x1f;
+	private static final String FORMAT = "%H%x1f%P%x1f%at%x1f%an%x1f%ae%x1f%B";
+	private static final int FIELDS = 6;
+	private static final String TAGS_PREFIX = "refs/tags/";
 
 	private ActionKind extractKind(String s) {
 		switch (s) {
@@ -52,37 +59,72 @@ public class GitSourceExtractor extends AbstractSourceExtractor<GitWorkspace> {
 	@Override
 	public void extractEvents() {
 		try {
-			Pattern pattern = Pattern.compile(REGEX);
 			HarmonyLogger.info("Starting event extraction for source : " + source + ".");
-			ProcessExecutor gitLog = new ProcessExecutor("git", "log", "--all", "--topo-order", "--reverse", "--format=" + FORMAT).setDirectory(workspace.getPath());
-			gitLog.run();
-			for (String line : gitLog.getOutput()) {
-				Matcher matcher = pattern.matcher(line);
-				if (matcher.matches()) {
-					String hash = matcher.group(1);
-					String[] parentHashes = matcher.group(2).split("\\s");
-					long time = Long.parseLong(matcher.group(3)) * 1000L;
-					String authorName = matcher.group(4);
-					String authorMail = matcher.group(5);
-					String message = matcher.group(6);
-					extractEvent(hash, parentHashes, time, authorName, authorMail, message);
+			final Map<String, Set<String>> commitsTags = getCommitsTags();
+			String firstParent = getConfig().firstParentHistory() ? "--first-parent" : null;
+			ProcessExecutor gitLog = new ProcessExecutor("git", "log", "-z", "--all", firstParent, "--topo-order", "--reverse", "--format=" + FORMAT)
+					.setDirectory(workspace.getPath());
+			// The commits are extracted while git log is running, without keeping its output in memory
+			gitLog.run(new RecordHandler() {
+				@Override
+				public void handleRecord(byte[] buffer, int offset, int length) {
+					String[] fields = splitFields(buffer, offset, length);
+					if (fields == null) return;
+					String hash = fields[0];
+					String[] parentHashes = fields[1].split("\\s");
+					long time = Long.parseLong(fields[2]) * 1000L;
+					String authorName = fields[3];
+					String authorMail = fields[4];
+					String message = fields[5].trim();
+					extractEvent(hash, parentHashes, time, authorName, authorMail, message, commitsTags.get(hash));
 				}
-			}
+			}, ProcessExecutor.NUL_DELIMITER);
 		} catch (IOException | InterruptedException e) {
 			throw new SourceExtractorException(e);
 		}
 
 	}
 
-	private void extractEvent(String hash, String[] parentHashes, long time, String authorName, String authorMail, String message) {
-		HashSet<Event> parents = new HashSet<>();
-		for (String parentHash : parentHashes) {
-			if (!"".equals(parentHash)) {
-				Event parent = modelPersister.getEvent(source, parentHash);
-				if (parent != null) parents.add(parent);
+	/**
+	 * @return The fields of a git log record, or null if the record is malformed
+	 */
+	private static String[] splitFields(byte[] buffer, int offset, int length) {
+		String[] fields = new String[FIELDS];
+		int field = 0;
+		int fieldStart = offset;
+		int end = offset + length;
+		for (int i = offset; i < end && field < FIELDS - 1; i++) {
+			if (buffer[i] == FIELD_SEPARATOR) {
+				fields[field++] = new String(buffer, fieldStart, i - fieldStart);
+				fieldStart = i + 1;
 			}
 		}
+		if (field != FIELDS - 1) return null;
+		// The message is the last field, it may contain any character
+		fields[field] = new String(buffer, fieldStart, end - fieldStart);
+		return fields;
+	}
 
+	/**
+	 * @return The names of the tags, by id of the commits they point to
+	 */
+	private Map<String, Set<String>> getCommitsTags() throws IOException, InterruptedException {
+		// Annotated tags are listed twice, the second time peeled to their commit (refs/tags/name^{})
+		Map<String, String> tagsCommits = new HashMap<>();
+		for (String line : new ProcessExecutor("git", "show-ref", "--tags", "-d").setDirectory(workspace.getPath()).run().getOutput()) {
+			String[] tokens = line.split(" ", 2);
+			if (tokens.length != 2 || !tokens[1].startsWith(TAGS_PREFIX)) continue;
+			String name = tokens[1].substring(TAGS_PREFIX.length());
+			if (name.endsWith("^{}")) tagsCommits.put(name.substring(0, name.length() - 3), tokens[0]);
+			else if (!tagsCommits.containsKey(name)) tagsCommits.put(name, tokens[0]);
+		}
+		Map<String, Set<String>> commitsTags = new HashMap<>();
+		for (Map.Entry<String, String> tag : tagsCommits.entrySet())
+			MapUtils.addElementToSet(commitsTags, tag.getValue(), tag.getKey());
+		return commitsTags;
+	}
+
+	private void extractEvent(String hash, String[] parentHashes, long time, String authorName, String authorMail, String message, Set<String> tags) {
 		Author a = modelPersister.getAuthor(source, authorName);
 		if (a == null) {
 			a = new Author(source, authorName, authorName);
@@ -90,8 +132,13 @@ public class GitSourceExtractor extends AbstractSourceExtractor<GitWorkspace> {
 			modelPersister.saveAuthor(a);
 		}
 
-		Event e = new Event(source, hash, time, parents, Arrays.asList(new Author[] { a }));
+		Event e = new Event(source, hash, time, new HashSet<Event>(), Arrays.asList(new Author[] { a }));
 		e.getMetadata().put(COMMIT_MESSAGE, message);
+		if (tags != null) e.setTags(tags);
+		ArrayList<String> parentIds = new ArrayList<>();
+		for (String parentHash : parentHashes)
+			if (!"".equals(parentHash)) parentIds.add(parentHash);
+		linkParents(e, parentIds);
 
 		modelPersister.saveEvent(e);
 	}
@@ -104,29 +151,18 @@ public class GitSourceExtractor extends AbstractSourceExtractor<GitWorkspace> {
 	}
 
 	private void gitDiff(Event event, Event parent) {
-		try {
-			ProcessExecutor executor = new ProcessExecutor("git", "diff", "-z", "--name-status", "--no-renames", parent == null ? GIT_EMPTY_TREE : parent.getNativeId(),
-					event.getNativeId());
-			// Run diff --numstat -M to get the churn and the renames
-			executor.setDirectory(workspace.getPath());
-			executor.run();
-			ArrayList<Action> actions = new ArrayList<>();
-			for (String line : executor.getOutput()) {
-				String[] tokens = line.split("\u0000");
-				for (int i = 0; i < tokens.length; i += 2) {
-					String statusLetter = tokens[i];
-					String path = tokens[i + 1];
-					Action a = extractAction(event, parent, statusLetter, path);
-					if (a != null) actions.add(a);
-					
-				}
-			}
-			extractActionsMetadata(event, parent, actions);
-			for (Action a : actions)
-				modelPersister.saveAction(a);
-		} catch (IOException | InterruptedException ex) {
-			throw new SourceExtractorException(ex);
+		List<String> tokens = workspace.getNameStatusDiffTree().diff(event.getNativeId(), parent == null ? null : parent.getNativeId());
+		ArrayList<Action> actions = new ArrayList<>();
+		for (int i = 0; i + 1 < tokens.size(); i += 2) {
+			String statusLetter = tokens.get(i);
+			String path = tokens.get(i + 1);
+			Action a = extractAction(event, parent, statusLetter, path);
+			if (a != null) actions.add(a);
 		}
+		// The churn and the renames are computed from the contents, which are not fetched by a partial clone
+		if (workspace.getMode() != WorkspaceMode.PARTIAL) extractActionsMetadata(event, parent, actions);
+		for (Action a : actions)
+			modelPersister.saveAction(a);
 	}
 
 	private Action extractAction(Event event, Event parent, String statusLetter, String path) {
@@ -152,69 +188,61 @@ public class GitSourceExtractor extends AbstractSourceExtractor<GitWorkspace> {
 	}
 
 	private void extractActionsMetadata(Event event, Event parent, ArrayList<Action> actions) {
-		try {
-			ProcessExecutor executor = new ProcessExecutor("git", "diff", "--numstat", "-M", parent == null ? GIT_EMPTY_TREE
-					: parent.getNativeId(), event.getNativeId());
-			// Run diff --numstat -M to get the churn and the renames
-			executor.setDirectory(workspace.getPath());
-			executor.run();
-			for (String numStatLine : executor.getOutput()) {
-				/*
-				 * git diff --numstat returns:
-				 * 
-				 * 1. the number of added lines;
-				 * 2. a tab;
-				 * 3. the number of deleted lines;
-				 * 4. a tab;
-				 * 5. pathname (possibly with rename/copy information);
-				 * 6. a newline.
-				 */
-				String[] numStatTokens = numStatLine.split("\\t");
-				if (numStatTokens.length != 3) {
-					HarmonyLogger.error("Uh oh....numstatline=" + numStatLine);
-					continue;
-				}
-				/*
-				 * In case of a rename the path will be one of the following:
-				 * 
-				 * {oldPath => newPath}/to/file
-				 * oldFile => newfile
-				 */
-				Matcher renameMatcher = Pattern.compile(".*(\\{(.*) => (.*)\\}).*").matcher(numStatTokens[2]);
-				Matcher fullRenameMatcher = Pattern.compile("(.*) => (.*)").matcher(numStatTokens[2]);
-				String newName;
-				String oldName = null;
-				if (renameMatcher.matches()) {
-					newName = numStatTokens[2].replace(renameMatcher.group(1), renameMatcher.group(3)).replaceAll("/+", "/");
-					oldName = numStatTokens[2].replace(renameMatcher.group(1), renameMatcher.group(2));
-				} else if (fullRenameMatcher.matches()) {
-					newName = fullRenameMatcher.group(2).replaceAll("/+", "/");
-					oldName = fullRenameMatcher.group(1);
-				} else newName = numStatTokens[2];
-
-				// find the corresponding action in the list
-				Action action = null;
-				for (Action a : actions) {
-					if (a.getItem().getNativeId().equalsIgnoreCase(newName) && (parent == null || a.getParentEvent().equals(parent))) {
-						action = a;
-						break;
-					}
-				}
-				if (action == null) {
-					HarmonyLogger.info("null action " + newName);
-					return;
-				}
-				if (oldName != null) { // if there is a rename
-					// HarmonyLogger.info(numStatTokens[2]);
-					action.getMetadata().put(Action.RENAME_KEY, oldName);
-				}
-				if (!numStatTokens[0].contains("-")) {
-					int churn = Integer.parseInt(numStatTokens[0]) + Integer.parseInt(numStatTokens[1]);
-					action.getMetadata().put(Action.CHURN_KEY, Integer.toString(churn));
+		// diff-tree --numstat -M gives the churn and the renames
+		for (String numStatLine : workspace.getNumStatDiffTree().diff(event.getNativeId(), parent == null ? null : parent.getNativeId())) {
+			/*
+			 * git diff --numstat returns:
+			 * 
+			 * 1. the number of added lines;
+			 * 2. a tab;
+			 * 3. the number of deleted lines;
+			 * 4. a tab;
+			 * 5. pathname (possibly with rename/copy information);
+			 * 6. a newline.
+			 */
+			String[] numStatTokens = numStatLine.split("\\t");
+			if (numStatTokens.length != 3) {
+				HarmonyLogger.error("Uh oh....numstatline=" + numStatLine);
+				continue;
+			}
+			/*
+			 * In case of a rename the path will be one of the following:
+			 * 
+			 * {oldPath => newPath}/to/file
+			 * oldFile => newfile
+			 */
+			Matcher renameMatcher = Pattern.compile(".*(\\{(.*) => (.*)\\}).*").matcher(numStatTokens[2]);
+			Matcher fullRenameMatcher = Pattern.compile("(.*) => (.*)").matcher(numStatTokens[2]);
+			String newName;
+			String oldName = null;
+			if (renameMatcher.matches()) {
+				newName = numStatTokens[2].replace(renameMatcher.group(1), renameMatcher.group(3)).replaceAll("/+", "/");
+				oldName = numStatTokens[2].replace(renameMatcher.group(1), renameMatcher.group(2));
+			} else if (fullRenameMatcher.matches()) {
+				newName = fullRenameMatcher.group(2).replaceAll("/+", "/");
+				oldName = fullRenameMatcher.group(1);
+			} else newName = numStatTokens[2];
+
+			// find the corresponding action in the list
+			Action action = null;
+			for (Action a : actions) {
+				if (a.getItem().getNativeId().equalsIgnoreCase(newName) && (parent == null || a.getParentEvent().equals(parent))) {
+					action = a;
+					break;
 				}
 			}
-		} catch (IOException | InterruptedException ex) {
-			throw new SourceExtractorException(ex);
+			if (action == null) {
+				HarmonyLogger.info("null action " + newName);
+				return;
+			}
+			if (oldName != null) { // if there is a rename
+				// HarmonyLogger.info(numStatTokens[2]);
+				action.getMetadata().put(Action.RENAME_KEY, oldName);
+			}
+			if (!numStatTokens[0].contains("-")) {
+				int churn = Integer.parseInt(numStatTokens[0]) + Integer.parseInt(numStatTokens[1]);
+				action.getMetadata().put(Action.CHURN_KEY, Integer.toString(churn));
+			}
 		}
 	}
 
@@ -1,32 +1,104 @@
 package fr.labri.harmony.source.git;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.io.FileUtils;
+
+import fr.labri.harmony.core.log.HarmonyLogger;
 import fr.labri.harmony.core.model.Action;
+import fr.labri.harmony.core.model.ActionKind;
 import fr.labri.harmony.core.model.Event;
+import fr.labri.harmony.core.model.Item;
 import fr.labri.harmony.core.source.AbstractLocalWorkspace;
+import fr.labri.harmony.core.source.ItemFilter;
 import fr.labri.harmony.core.source.SourceExtractor;
 import fr.labri.harmony.core.source.WorkspaceException;
+import fr.labri.harmony.core.source.WorkspaceMode;
 import fr.labri.harmony.core.util.ProcessExecutor;
 
 public class GitWorkspace extends AbstractLocalWorkspace {
 
+	/**
+	 * Bare repositories are cloned with <code>--bare</code> rather than <code>--mirror</code>, which would also fetch the
+	 * refs of the pull requests, so their branches have to be fetched explicitly.
+	 */
+	private static final String BRANCHES_REFSPEC = "+refs/heads/*:refs/heads/*";
+
+	private GitCatFile catFile;
+	private GitDiffTree nameStatusDiffTree;
+	private GitDiffTree numStatDiffTree;
+
 	public GitWorkspace(SourceExtractor<?> sourceExtractor) {
 		super(sourceExtractor);
 	}
 
+	/**
+	 * @return The long-lived <code>git cat-file --batch</code> process of this workspace
+	 */
+	public synchronized GitCatFile getCatFile() {
+		if (catFile == null) catFile = new GitCatFile(getPath());
+		return catFile;
+	}
+
+	/**
+	 * @return The long-lived diff-tree process of this workspace which outputs the status of the changed files, without
+	 *         rename detection
+	 */
+	public synchronized GitDiffTree getNameStatusDiffTree() {
+		if (nameStatusDiffTree == null) nameStatusDiffTree = new GitDiffTree(getPath(), withPathspecs("-z", "--name-status", "--no-renames"));
+		return nameStatusDiffTree;
+	}
+
+	/**
+	 * @return The long-lived diff-tree process of this workspace which outputs the churn of the changed files, with rename
+	 *         detection
+	 */
+	public synchronized GitDiffTree getNumStatDiffTree() {
+		if (numStatDiffTree == null) numStatDiffTree = new GitDiffTree(getPath(), withPathspecs("--numstat", "-M"));
+		return numStatDiffTree;
+	}
+
+	/**
+	 * The include and exclude globs of the item filter are passed to git as pathspecs, so that the excluded paths are
+	 * not diffed. The regular expression of the filter is still checked by the extractor.
+	 * 
+	 * @return The given diff options, followed by the pathspecs of the item filter if any
+	 */
+	private String[] withPathspecs(String... options) {
+		ItemFilter filter = sourceExtractor.getConfig().getCompiledItemFilter();
+		ArrayList<String> command = new ArrayList<>(Arrays.asList(options));
+		if (!filter.getIncludes().isEmpty() || !filter.getExcludes().isEmpty()) {
+			command.add("--");
+			for (String glob : filter.getIncludes())
+				command.add(":(glob)" + glob);
+			// Exclusions need a pathspec to exclude from
+			if (filter.getIncludes().isEmpty()) command.add(".");
+			for (String glob : filter.getExcludes())
+				command.add(":(glob,exclude)" + glob);
+		}
+		return command.toArray(new String[command.size()]);
+	}
+
 	@Override
 	public void init() {
 		super.init();
 	}
 
+	/**
+	 * Any repository can be reused when no working tree is needed
+	 */
 	@Override
 	public boolean isInitialized() {
 		try {
 			List<String> out = new ProcessExecutor("git", "rev-parse", "--is-inside-work-tree").setDirectory(getPath()).run().getOutput();
-			return out.get(0).equals("true");
-		} catch (IOException | InterruptedException e) {
+			return out.get(0).equals("true") || (!getMode().hasWorkingTree() && out.get(0).equals("false"));
+		} catch (IOException | InterruptedException | IndexOutOfBoundsException e) {
 			return false;
 		}
 	}
@@ -34,7 +106,13 @@ public class GitWorkspace extends AbstractLocalWorkspace {
 	@Override
 	public void initNewWorkspace() {
 		try {
-			new ProcessExecutor("git", "clone", getUrl(), getPath()).run();
+			String mirror = getMirrorPath();
+			if (mirror == null) new ProcessExecutor(getCloneCommand(getUrl(), getPath(), getMode(), true)).run();
+			else {
+				updateMirror(getUrl(), mirror);
+				// Local clones hard-link the objects of the mirror, there is no need to filter them
+				new ProcessExecutor(getCloneCommand(mirror, getPath(), getMode(), false)).run();
+			}
 		} catch (IOException | InterruptedException e) {
 			throw new WorkspaceException(e);
 		}
@@ -43,14 +121,65 @@ public class GitWorkspace extends AbstractLocalWorkspace {
 	@Override
 	public void initExistingWorkspace() {
 		try {
-			new ProcessExecutor("git", "pull").run();
+			String mirror = getMirrorPath();
+			if (mirror != null) updateMirror(getUrl(), mirror);
+			if (!new File(getPath(), ".git").exists()) new ProcessExecutor(getFetchCommand()).setDirectory(getPath()).run();
+			else if (getMode().hasWorkingTree()) new ProcessExecutor("git", "pull").setDirectory(getPath()).run();
+			else new ProcessExecutor("git", "fetch", "--prune").setDirectory(getPath()).run();
+		} catch (IOException | InterruptedException e) {
+			throw new WorkspaceException(e);
+		}
+	}
+
+	/**
+	 * @param url
+	 * @param path
+	 * @param mode
+	 * @param partialClone
+	 *            Whether the contents can be filtered out in {@link WorkspaceMode#PARTIAL} mode. This requires a git client
+	 *            which fetches them lazily, and a remote repository.
+	 * @return The git command which clones the repository at the given url in the given mode
+	 */
+	public static String[] getCloneCommand(String url, String path, WorkspaceMode mode, boolean partialClone) {
+		ArrayList<String> command = new ArrayList<>(Arrays.asList("git", "clone"));
+		if (!mode.hasWorkingTree()) command.add("--bare");
+		if (mode == WorkspaceMode.PARTIAL && partialClone) command.add("--filter=blob:none");
+		command.add(url);
+		command.add(path);
+		return command.toArray(new String[command.size()]);
+	}
+
+	/**
+	 * @return The git command which updates the branches and the tags of a bare repository
+	 */
+	private static String[] getFetchCommand() {
+		return new String[] { "git", "fetch", "--prune", "--tags", "origin", BRANCHES_REFSPEC };
+	}
+
+	/**
+	 * Clones the repository at the given url in the mirror folder if it is not there yet, or fetches it otherwise. The
+	 * mirror is a complete bare repository, shared by the workspaces of all the studies.
+	 * 
+	 * @param url
+	 * @param mirrorPath
+	 */
+	public static synchronized void updateMirror(String url, String mirrorPath) {
+		try {
+			if (new File(mirrorPath, "HEAD").exists()) {
+				HarmonyLogger.info("Fetching mirror " + mirrorPath);
+				new ProcessExecutor(getFetchCommand()).setDirectory(mirrorPath).run();
+			} else {
+				HarmonyLogger.info("Cloning " + url + " in mirror " + mirrorPath);
+				FileUtils.forceMkdir(new File(mirrorPath).getParentFile());
+				new ProcessExecutor(getCloneCommand(url, mirrorPath, WorkspaceMode.BARE, false)).run();
+			}
 		} catch (IOException | InterruptedException e) {
 			throw new WorkspaceException(e);
 		}
 	}
 
 	@Override
-	public void update(Event event) throws WorkspaceException {
+	protected void checkout(Event event) throws WorkspaceException {
 		try {
 			new ProcessExecutor("git", "reset", "--hard", event.getNativeId()).setDirectory(getPath()).run();
 		} catch (IOException | InterruptedException e) {
@@ -58,16 +187,72 @@ public class GitWorkspace extends AbstractLocalWorkspace {
 		}
 	}
 
+	/**
+	 * Writes the version of the item after the given event in the working tree, without touching the other files
+	 */
+	@Override
+	protected void checkout(Event event, Item item) throws WorkspaceException {
+		File file = new File(getPath(), item.getNativeId());
+		byte[] content = getCatFile().read(event.getNativeId() + ":" + item.getNativeId());
+		try {
+			if (content == null) FileUtils.deleteQuietly(file);
+			else FileUtils.writeByteArrayToFile(file, content);
+		} catch (IOException e) {
+			throw new WorkspaceException(e);
+		}
+	}
+
+	@Override
+	protected boolean supportsIncrementalCheckout() {
+		return true;
+	}
+
+	/**
+	 * Lists the blobs of the commit with <code>git ls-tree</code>. Submodules and symbolic links are skipped.
+	 */
+	@Override
+	protected Map<String, String> listFiles(Event e) throws WorkspaceException {
+		final Map<String, String> files = new HashMap<>();
+		try {
+			new ProcessExecutor("git", "ls-tree", "-r", "-z", "--full-tree", e.getNativeId()).setDirectory(getPath()).run(new ProcessExecutor.RecordHandler() {
+				@Override
+				public void handleRecord(byte[] buffer, int offset, int length) {
+					// <mode> SP <type> SP <object> TAB <file>
+					String entry = new String(buffer, offset, length);
+					int tab = entry.indexOf('\t');
+					if (tab == -1 || entry.startsWith("120000") || !entry.contains(" blob ")) return;
+					files.put(entry.substring(tab + 1), entry.substring(entry.lastIndexOf(' ', tab) + 1, tab));
+				}
+			}, ProcessExecutor.NUL_DELIMITER);
+		} catch (IOException | InterruptedException ex) {
+			throw new WorkspaceException(ex);
+		}
+		return files;
+	}
+
+	@Override
+	protected byte[] readContent(String contentId) throws WorkspaceException {
+		return getCatFile().read(contentId);
+	}
+
+	@Override
+	public String getFileContentAfter(Action action) {
+		if (action.getKind().equals(ActionKind.Delete)) return null;
+		return getCatFile().readFile(action.getEvent().getNativeId(), action.getItem().getNativeId());
+	}
+
 	@Override
-	public String getFileContentAfter(Action arg0) {
-		// TODO Auto-generated method stub
-		throw new RuntimeException("Not Implemented.");
+	public String getFileContentBefore(Action action) {
+		if (action.getKind().equals(ActionKind.Create) || action.getParentEvent() == null) return null;
+		return getCatFile().readFile(action.getParentEvent().getNativeId(), action.getItem().getNativeId());
 	}
 
 	@Override
-	public String getFileContentBefore(Action arg0) {
-		// TODO Auto-generated method stub
-		throw new RuntimeException("Not Implemented.");
+	public synchronized void clean() throws WorkspaceException {
+		if (catFile != null) catFile.close();
+		if (nameStatusDiffTree != null) nameStatusDiffTree.close();
+		if (numStatDiffTree != null) numStatDiffTree.close();
+		super.clean();
 	}
 
 }
@@ -0,0 +1,37 @@
+package fr.labri.harmony.source.git.jgit;
+
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import fr.labri.harmony.core.source.ItemFilter;
+
+/**
+ * Restricts a {@link TreeWalk} to the items selected by an {@link ItemFilter}. The directories which cannot contain any
+ * selected item are not entered, so their files are never compared.
+ */
+public class ItemTreeFilter extends TreeFilter {
+
+	private ItemFilter filter;
+
+	public ItemTreeFilter(ItemFilter filter) {
+		this.filter = filter;
+	}
+
+	@Override
+	public boolean include(TreeWalk walker) {
+		if (walker.isSubtree()) return filter.mayContain(walker.getPathString());
+		return filter.accept(walker.getPathString());
+	}
+
+	@Override
+	public boolean shouldBeRecursive() {
+		return true;
+	}
+
+	@Override
+	public TreeFilter clone() {
+		// The filter has no state
+		return this;
+	}
+
+}
@@ -60,9 +60,11 @@ public class JGitSourceExtractor extends AbstractSourceExtractor<JGitWorkspace>
 				// tag.getName returns the full name (i.e. /refs/tags/the-tag),
 				// we need to split it
 				String[] splitted = tag.getName().split("\\/");
+				// The refs of the tag list are not peeled, and an annotated tag points to a tag object instead of its commit
+				Ref peeled = git.getRepository().peel(tag);
 				String commitId = null;
-				if (tag.isPeeled() && tag.getPeeledObjectId() != null) {
-					commitId = tag.getPeeledObjectId().getName();
+				if (peeled.getPeeledObjectId() != null) {
+					commitId = peeled.getPeeledObjectId().getName();
 				} else {
 					commitId = tag.getObjectId().getName();
 				}
@@ -73,13 +75,14 @@ public class JGitSourceExtractor extends AbstractSourceExtractor<JGitWorkspace>
 			w.sort(RevSort.TOPO, true);
 			w.sort(RevSort.REVERSE, true);
 
+			List<RevCommit> starts = new ArrayList<>();
 			if (getConfig().extractAllBranches()) {
 				for (Ref ref : git.getRepository().getAllRefs().values()) {
 					try {
-						w.markStart(w.parseCommit(ref.getObjectId()));
+						starts.add(w.parseCommit(ref.getObjectId()));
 					} catch (IncorrectObjectTypeException e) {
 						try {
-							w.markStart(w.parseCommit(ref.getTarget().getObjectId()));
+							starts.add(w.parseCommit(ref.getTarget().getObjectId()));
 						} catch (IncorrectObjectTypeException e1) {
 						}
 					}
@@ -89,14 +92,19 @@ public class JGitSourceExtractor extends AbstractSourceExtractor<JGitWorkspace>
 				if (ref == null) ref = git.getRepository().getRef("trunk");
 				if (ref == null) ref = git.getRepository().getRef("HEAD");
 				if (ref == null) return;
-				w.markStart(w.parseCommit(ref.getObjectId()));
+				starts.add(w.parseCommit(ref.getObjectId()));
 			}
+			Set<RevCommit> firstParentCommits = getConfig().firstParentHistory() ? getFirstParentCommits(w, starts) : null;
+			for (RevCommit start : starts)
+				w.markStart(start);
 
 			for (RevCommit commit : w) {
+				// In first-parent history, the commits only reachable through the second parent of a merge are skipped
+				if (firstParentCommits != null && !firstParentCommits.contains(commit)) continue;
 				revs.put(commit.getName(), commit);
-				Set<Event> parents = new HashSet<>();
+				List<String> parentIds = new ArrayList<>();
 				for (RevCommit parent : commit.getParents())
-					parents.add(modelPersister.getEvent(source, parent.getName()));
+					parentIds.add(parent.getName());
 
 				String user = commit.getAuthorIdent().getName();
 				Author author = modelPersister.getAuthor(source, user);
@@ -109,7 +117,7 @@ public class JGitSourceExtractor extends AbstractSourceExtractor<JGitWorkspace>
 				// Better consistency of the time data is allowed using commit
 				// time on the repo instead of time of when
 				// the authors commited his changed
-				Event event = new Event(source, commit.getName(), commit.getCommitterIdent().getWhen().getTime(), parents, authors);
+				Event event = new Event(source, commit.getName(), commit.getCommitterIdent().getWhen().getTime(), new HashSet<Event>(), authors);
 
 				// Adding commit tags
 				if (commitsTags.get(commit.getName()) != null) {
@@ -119,6 +127,7 @@ public class JGitSourceExtractor extends AbstractSourceExtractor<JGitWorkspace>
 				Map<String, String> metadata = new HashMap<String, String>();
 				metadata.put(COMMIT_MESSAGE, commit.getFullMessage());
 				event.setMetadata(metadata);
+				linkParents(event, parentIds);
 
 				modelPersister.saveEvent(event);
 			}
@@ -127,6 +136,21 @@ public class JGitSourceExtractor extends AbstractSourceExtractor<JGitWorkspace>
 		}
 	}
 
+	/**
+	 * @return The commits reachable from the given ones by following the first parents only
+	 */
+	private static Set<RevCommit> getFirstParentCommits(RevWalk w, List<RevCommit> starts) throws IOException {
+		Set<RevCommit> commits = new HashSet<>();
+		for (RevCommit commit : starts) {
+			while (commits.add(commit)) {
+				w.parseHeaders(commit);
+				if (commit.getParentCount() == 0) break;
+				commit = commit.getParent(0);
+			}
+		}
+		return commits;
+	}
+
 	protected void extractAction(DiffEntry d, Event e, Event p) {
 		String path = d.getNewPath();
 		ActionKind kind = null;
@@ -176,6 +200,8 @@ public class JGitSourceExtractor extends AbstractSourceExtractor<JGitWorkspace>
 			df.setRepository(git.getRepository());
 			df.setDiffComparator(RawTextComparator.DEFAULT);
 			df.setDetectRenames(false);
+			// The excluded directories are not diffed
+			if (!getConfig().getCompiledItemFilter().isEmpty()) df.setPathFilter(new ItemTreeFilter(getConfig().getCompiledItemFilter()));
 
 			if (e.getParents().size() == 0) {
 				TreeWalk w = new TreeWalk(git.getRepository());
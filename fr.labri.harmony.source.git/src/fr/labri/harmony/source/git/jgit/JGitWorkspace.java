@@ -4,11 +4,17 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.commons.io.FileUtils;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.ResetCommand.ResetType;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
 
 import fr.labri.harmony.core.log.HarmonyLogger;
 import fr.labri.harmony.core.model.Event;
@@ -16,6 +22,7 @@ import fr.labri.harmony.core.model.Item;
 import fr.labri.harmony.core.source.AbstractLocalWorkspace;
 import fr.labri.harmony.core.source.SourceExtractor;
 import fr.labri.harmony.core.source.WorkspaceException;
+import fr.labri.harmony.source.git.GitWorkspace;
 
 public class JGitWorkspace extends AbstractLocalWorkspace {
 
@@ -37,8 +44,8 @@ public class JGitWorkspace extends AbstractLocalWorkspace {
 	@Override
 	public boolean isInitialized() {
 		try {
-			Git.open(new File(getPath()));
-			return true;
+			// Any repository can be reused when no working tree is needed
+			return !Git.open(new File(getPath())).getRepository().isBare() || !getMode().hasWorkingTree();
 		} catch (Exception e) {
 			return false;
 		}
@@ -46,19 +53,25 @@ public class JGitWorkspace extends AbstractLocalWorkspace {
 
 	@Override
 	public void initNewWorkspace() {
-		initNewWorkspaceByUrl(getUrl());
+		String mirror = getMirrorPath();
+		if (mirror == null) initNewWorkspaceByUrl(getUrl());
+		else {
+			GitWorkspace.updateMirror(getUrl(), mirror);
+			initNewWorkspaceByUrl(mirror);
+		}
 	}
 
 	protected void initNewWorkspaceByUrl(String url) {
 		try {
-			ProcessBuilder b = new ProcessBuilder("git", "clone", url, getPath());
+			// JGit cannot fetch the contents lazily, so partial clones are not supported
+			ProcessBuilder b = new ProcessBuilder(GitWorkspace.getCloneCommand(url, getPath(), getMode(), false));
 			Process p = b.start();
 			p.waitFor();
 			git = Git.open(new File(getPath()));
 		} catch (Exception e) {
 			try {
 				HarmonyLogger.info("Native git not found, cloning with JGit");
-				git = Git.cloneRepository().setURI(url).setDirectory(new File((getPath()))).call();
+				git = Git.cloneRepository().setURI(url).setDirectory(new File((getPath()))).setBare(!getMode().hasWorkingTree()).call();
 			} catch (Exception e1) {
 				try {
 					FileUtils.deleteDirectory(new File(getPath()));
@@ -85,7 +98,7 @@ public class JGitWorkspace extends AbstractLocalWorkspace {
 	}
 
 	@Override
-	public void update(Event e) throws WorkspaceException {
+	protected void checkout(Event e) throws WorkspaceException {
 			try {
 				ProcessBuilder b = new ProcessBuilder("git", "reset", "--hard", e.getNativeId());
 				b.directory(new File(getPath()));
@@ -103,7 +116,7 @@ public class JGitWorkspace extends AbstractLocalWorkspace {
 	}
 	
 	@Override
-	public void update(Event e, Item item) throws WorkspaceException {
+	protected void checkout(Event e, Item item) throws WorkspaceException {
 		try {
 			git.checkout().setStartPoint(e.getNativeId()).addPath(item.getNativeId()).setForce(true).call();
 		}
@@ -112,4 +125,42 @@ public class JGitWorkspace extends AbstractLocalWorkspace {
 		}
 	}
 
+	/**
+	 * Lists the regular files of the commit with a {@link TreeWalk}
+	 */
+	@Override
+	protected Map<String, String> listFiles(Event e) throws WorkspaceException {
+		Map<String, String> files = new HashMap<>();
+		RevWalk revWalk = new RevWalk(git.getRepository());
+		TreeWalk treeWalk = new TreeWalk(git.getRepository());
+		try {
+			treeWalk.addTree(revWalk.parseCommit(ObjectId.fromString(e.getNativeId())).getTree());
+			treeWalk.setRecursive(true);
+			while (treeWalk.next()) {
+				FileMode mode = treeWalk.getFileMode(0);
+				if (mode == FileMode.REGULAR_FILE || mode == FileMode.EXECUTABLE_FILE) files.put(treeWalk.getPathString(), treeWalk.getObjectId(0).getName());
+			}
+		} catch (IOException ex) {
+			throw new WorkspaceException(ex);
+		} finally {
+			treeWalk.release();
+			revWalk.release();
+		}
+		return files;
+	}
+
+	@Override
+	protected byte[] readContent(String contentId) throws WorkspaceException {
+		try {
+			return git.getRepository().open(ObjectId.fromString(contentId)).getBytes(Integer.MAX_VALUE);
+		} catch (IOException ex) {
+			throw new WorkspaceException(ex);
+		}
+	}
+
+	@Override
+	protected boolean supportsIncrementalCheckout() {
+		return true;
+	}
+
 }
\ No newline at end of file
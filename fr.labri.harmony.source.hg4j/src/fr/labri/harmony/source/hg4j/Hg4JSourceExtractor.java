@@ -4,15 +4,20 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
+import org.tmatesoft.hg.core.HgCallbackTargetException;
 import org.tmatesoft.hg.core.HgChangeset;
+import org.tmatesoft.hg.core.HgChangesetHandler;
 import org.tmatesoft.hg.core.HgFileRevision;
+import org.tmatesoft.hg.core.Nodeid;
+import org.tmatesoft.hg.repo.HgChangelog;
+import org.tmatesoft.hg.repo.HgRepository;
 import org.tmatesoft.hg.util.Path;
 
 import fr.labri.harmony.core.config.model.SourceConfiguration;
@@ -30,7 +35,13 @@ public class Hg4JSourceExtractor extends AbstractSourceExtractor<Hg4JWorkspace>
 
 	private static final long MILLI_2_SECONDS = 1000;
 
-	private Map<String, HgChangeset> changeSets = new HashMap<String, HgChangeset>();
+	/**
+	 * The number of actions kept in memory before being saved
+	 */
+	private static final int ACTION_WINDOW_SIZE = 1000;
+
+	private DateFormat yearFormatter = new SimpleDateFormat("yyyy");
+	private List<Action> pendingActions = new ArrayList<>();
 
 	public Hg4JSourceExtractor() {
 		super();
@@ -46,114 +57,170 @@ public class Hg4JSourceExtractor extends AbstractSourceExtractor<Hg4JWorkspace>
 		workspace.init();
 	}
 
+	@Override
+	protected boolean canExtractActionsWithEvents() {
+		return true;
+	}
+
+	/**
+	 * The changesets are streamed from the log, and are not kept once their event and their actions are built.
+	 */
 	@Override
 	public void extractEvents() {
 		try {
-			List<HgChangeset> result = workspace.getRepoFacade().createLogCommand().execute();
-
-			for (HgChangeset chgSet : result) {
-				// Name
-				String revId = chgSet.getNodeid().toString();
-				changeSets.put(revId, chgSet);
+			// In first-parent history, the changesets only reachable through the second parent of a merge are skipped
+			final BitSet firstParentRevisions = getConfig().firstParentHistory() ? getFirstParentRevisions() : null;
+			workspace.getRepoFacade().createLogCommand().execute(new HgChangesetHandler() {
+				@Override
+				public void cset(HgChangeset chgSet) throws HgCallbackTargetException {
+					if (firstParentRevisions != null && !firstParentRevisions.get(chgSet.getRevisionIndex())) return;
+					// The changeset instance is reused by hg4j for the next call
+					Event e = extractEvent(chgSet);
+					if (extractActionsWithEvents) extractActions(e, chgSet);
+				}
+			});
+			if (extractActionsWithEvents) flushActions();
+		} catch (Exception e) {
+			throw new SourceExtractorException(e);
+		}
 
-				// Time
-				long time = chgSet.getDate().getRawTime() / MILLI_2_SECONDS;
-				DateFormat formatter = new SimpleDateFormat("yyyy");
+	}
 
-				if (formatter.format(new Date(time)).equals("1970")) {
-					time = time * MILLI_2_SECONDS;
-				}
+	/**
+	 * @return The indexes of the changesets reachable from the heads of the repository by following first parents only
+	 */
+	private BitSet getFirstParentRevisions() {
+		HgChangelog changelog = workspace.getRepoFacade().getRepository().getChangelog();
+		int count = changelog.getRevisionCount();
+		int[] firstParents = new int[count];
+		BitSet hasChildren = new BitSet(count);
+		int[] parents = new int[2];
+		for (int revision = 0; revision < count; revision++) {
+			changelog.parents(revision, parents, null, null);
+			firstParents[revision] = parents[0];
+			for (int parent : parents)
+				if (parent != HgRepository.NO_REVISION) hasChildren.set(parent);
+		}
+		BitSet reachable = new BitSet(count);
+		for (int head = hasChildren.nextClearBit(0); head < count; head = hasChildren.nextClearBit(head + 1)) {
+			// Stops where the chain of another head was already followed
+			for (int revision = head; revision != HgRepository.NO_REVISION && !reachable.get(revision); revision = firstParents[revision])
+				reachable.set(revision);
+		}
+		return reachable;
+	}
 
-				// Parent Events
-				Set<Event> parents = new HashSet<>();
-				if (!chgSet.getFirstParentRevision().isNull()) {
-					parents.add(modelPersister.getEvent(source, chgSet.getFirstParentRevision().toString()));
-				}
-				if (!chgSet.getSecondParentRevision().isNull()) {
-					parents.add(modelPersister.getEvent(source, chgSet.getSecondParentRevision().toString()));
-				}
+	private Event extractEvent(HgChangeset chgSet) {
+		// Name
+		String revId = chgSet.getNodeid().toString();
 
-				// Authors
-				String user = chgSet.getUser();
-				String mail = "";
-				if (user.contains("<") && user.contains(">")) {
-					String base = user;
-					user = user.substring(0, user.indexOf("<")).trim();
-					mail = base.substring(base.indexOf("<") + 1, base.indexOf(">")).trim();
-				}
-				Author author = modelPersister.getAuthor(source, user);
-				if (author == null) {
-					author = new Author(source, user, user);
-					author.setEmail(mail);
-					modelPersister.saveAuthor(author);
-				}
-				List<Author> authors = new ArrayList<>(Arrays.asList(new Author[] { author }));
+		// Time
+		long time = chgSet.getDate().getRawTime() / MILLI_2_SECONDS;
 
-				Event e = new Event(source, revId, time, parents, authors);
+		if (yearFormatter.format(new Date(time)).equals("1970")) {
+			time = time * MILLI_2_SECONDS;
+		}
 
-				// Metadata
-				Map<String, String> metadata = new HashMap<String, String>();
-				metadata.put(COMMIT_MESSAGE, chgSet.getComment());
-				metadata.put(BRANCH, chgSet.getBranch());
-				e.setMetadata(metadata);
+		// Parent Events
+		List<String> parentIds = new ArrayList<>();
+		if (!chgSet.getFirstParentRevision().isNull()) {
+			parentIds.add(chgSet.getFirstParentRevision().toString());
+		}
+		if (!chgSet.getSecondParentRevision().isNull()) {
+			parentIds.add(chgSet.getSecondParentRevision().toString());
+		}
 
-				modelPersister.saveEvent(e);
-			}
-		} catch (Exception e) {
-			throw new SourceExtractorException(e);
+		// Authors
+		String user = chgSet.getUser();
+		String mail = "";
+		if (user.contains("<") && user.contains(">")) {
+			String base = user;
+			user = user.substring(0, user.indexOf("<")).trim();
+			mail = base.substring(base.indexOf("<") + 1, base.indexOf(">")).trim();
+		}
+		Author author = modelPersister.getAuthor(source, user);
+		if (author == null) {
+			author = new Author(source, user, user);
+			author.setEmail(mail);
+			modelPersister.saveAuthor(author);
 		}
+		List<Author> authors = new ArrayList<>(Arrays.asList(new Author[] { author }));
+
+		Event e = new Event(source, revId, time, new HashSet<Event>(), authors);
+
+		// Metadata
+		Map<String, String> metadata = new HashMap<String, String>();
+		metadata.put(COMMIT_MESSAGE, chgSet.getComment());
+		metadata.put(BRANCH, chgSet.getBranch());
+		e.setMetadata(metadata);
+		linkParents(e, parentIds);
 
+		modelPersister.saveEvent(e);
+		return e;
 	}
 
+	/**
+	 * Extracts the actions of a single event, when they are not extracted with the events, see {@link #extractEvents()}
+	 */
 	@Override
-	public void extractActions(Event e) {
+	public void extractActions(final Event e) {
+		try {
+			workspace.getRepoFacade().createLogCommand().changeset(Nodeid.fromAscii(e.getNativeId())).execute(new HgChangesetHandler() {
+				@Override
+				public void cset(HgChangeset chgSet) throws HgCallbackTargetException {
+					extractActions(e, chgSet);
+				}
+			});
+		} catch (Exception ex) {
+			throw new SourceExtractorException(ex);
+		}
+		// The event is already saved
+		for (Action a : pendingActions)
+			modelPersister.saveAction(a);
+		pendingActions.clear();
+	}
+
+	private void extractActions(Event e, HgChangeset chgSet) {
 		try {
 			// We take the first parent of the event as parent of the action
 			Event parent = null;
-			if (!e.getParents().isEmpty()) {
-				parent = e.getParents().get(0);
+			if (!chgSet.getFirstParentRevision().isNull()) {
+				parent = modelPersister.getEvent(source, chgSet.getFirstParentRevision().toString());
 			}
 
-			// TODO Memory optimization possible by making a query foreach event instead of storing
-			// the whole list of events.
-			HgChangeset currentChgSet = changeSets.get(e.getNativeId());
-
 			// We use the high level API provided by to hg4j to find the files that have been ...
 			// ... added ...
-			for (HgFileRevision fileRev : currentChgSet.getAddedFiles()) {
+			for (HgFileRevision fileRev : chgSet.getAddedFiles()) {
 				if (extractItemWithPath(fileRev.getPath().toString())) {
 					Item i = modelPersister.getItem(source,fileRev.getPath().toString());
 					if (i == null) {
 						i = new Item(source, fileRev.getPath().toString());
 						modelPersister.saveItem(i);
 					}
-					Action a = new Action(i, ActionKind.Create, e, parent, source);
-					modelPersister.saveAction(a);
+					pendingActions.add(new Action(i, ActionKind.Create, e, parent, source));
 				}
 			}
 
 			// ... or modified ...
-			for (HgFileRevision fileRev : currentChgSet.getModifiedFiles()) {
+			for (HgFileRevision fileRev : chgSet.getModifiedFiles()) {
 				Item i = modelPersister.getItem(source, fileRev.getPath().toString());
 				if (i == null) {
 					// Should not happen
 					i = new Item(source, fileRev.getPath().toString());
 					modelPersister.saveItem(i);
 				}
-				Action a = new Action(i, ActionKind.Edit, e, parent, source);
-				modelPersister.saveAction(a);
+				pendingActions.add(new Action(i, ActionKind.Edit, e, parent, source));
 			}
 
 			// ... or finally deleted
-			for (Path path : currentChgSet.getRemovedFiles()) {
+			for (Path path : chgSet.getRemovedFiles()) {
 				Item i = modelPersister.getItem(source, path.toString());
 				if (i == null) {
 					// Should not happen
 					i = new Item(source, path.toString());
 					modelPersister.saveItem(i);
 				}
-				Action a = new Action(i, ActionKind.Delete, e, parent, source);
-				modelPersister.saveAction(a);
+				pendingActions.add(new Action(i, ActionKind.Delete, e, parent, source));
 			}
 
 		}
@@ -165,6 +232,18 @@ public class Hg4JSourceExtractor extends AbstractSourceExtractor<Hg4JWorkspace>
 			HarmonyLogger.error(ex.getMessage());
 			// throw new SourceExtractorException(ex);
 		}
+		if (pendingActions.size() >= ACTION_WINDOW_SIZE) flushActions();
+	}
+
+	/**
+	 * Saves the pending actions, after their events so that they reference persisted events
+	 */
+	private void flushActions() {
+		modelPersister.flushEvents();
+		for (Action a : pendingActions)
+			modelPersister.saveAction(a);
+		modelPersister.flushActions();
+		pendingActions.clear();
 	}
 
 }
@@ -1,7 +1,14 @@
 package fr.labri.harmony.source.hg4j;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
 
 import org.tmatesoft.hg.core.HgCheckoutCommand;
 import org.tmatesoft.hg.core.HgCloneCommand;
@@ -9,10 +16,17 @@ import org.tmatesoft.hg.core.HgException;
 import org.tmatesoft.hg.core.HgRepoFacade;
 import org.tmatesoft.hg.core.HgRepositoryNotFoundException;
 import org.tmatesoft.hg.core.Nodeid;
+import org.tmatesoft.hg.repo.HgDataFile;
 import org.tmatesoft.hg.repo.HgLookup;
 import org.tmatesoft.hg.repo.HgRemoteRepository;
+import org.tmatesoft.hg.repo.HgRepository;
+import org.tmatesoft.hg.repo.HgRuntimeException;
+import org.tmatesoft.hg.util.ByteChannel;
 import org.tmatesoft.hg.util.CancelledException;
+import org.tmatesoft.hg.util.Path;
 
+import fr.labri.harmony.core.model.Action;
+import fr.labri.harmony.core.model.ActionKind;
 import fr.labri.harmony.core.model.Event;
 import fr.labri.harmony.core.model.Item;
 import fr.labri.harmony.core.source.AbstractLocalWorkspace;
@@ -23,9 +37,26 @@ import fr.labri.harmony.core.source.WorkspaceException;
 
 public class Hg4JWorkspace extends AbstractLocalWorkspace {
 
+	/**
+	 * The number of file revisions kept by {@link #readFile(Event, String)}
+	 */
+	private static final int FILE_CACHE_SIZE = 64;
+
 	private HgRepoFacade repoFacade;
-	
-	private Event lastEvent;
+
+	/**
+	 * Revlogs store deltas, so each read rebuilds the file from its last full revision. The contents of the last read
+	 * revisions are kept, by file revision, as the version of a file before an action is often the one after a previous
+	 * action.
+	 */
+	private Map<Nodeid, byte[]> fileCache = new LinkedHashMap<Nodeid, byte[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Nodeid, byte[]> eldest) {
+			return size() > FILE_CACHE_SIZE;
+		}
+	};
 
 	public Hg4JWorkspace(SourceExtractor<?> sourceExtractor) {
 		super(sourceExtractor);
@@ -38,21 +69,87 @@ public class Hg4JWorkspace extends AbstractLocalWorkspace {
 
 	
 	@Override
-	public void update(Event e) throws WorkspaceException {
+	protected void checkout(Event e) throws WorkspaceException {
 		try {
 				Nodeid node = Nodeid.fromAscii(e.getNativeId());
 				new HgCheckoutCommand(repoFacade.getRepository()).clean(true).changeset(node).execute();
-				lastEvent = e;
 		} catch (NumberFormatException | HgException | CancelledException e1) {
 			// TODO Auto-generated catch block
 			e1.printStackTrace();
 		}
 	}
 	
+	/**
+	 * Writes the version of the item after the given event in the working directory, read from its revlog
+	 */
+	@Override
+	protected void checkout(Event e, Item i) throws WorkspaceException {
+		File file = new File(getPath(), i.getNativeId());
+		byte[] content = readFile(e, i.getNativeId());
+		try {
+			if (content == null) FileUtils.deleteQuietly(file);
+			else FileUtils.writeByteArrayToFile(file, content);
+		} catch (IOException ex) {
+			throw new WorkspaceException(ex);
+		}
+	}
+
+	@Override
+	protected boolean supportsIncrementalCheckout() {
+		return true;
+	}
+
+	/**
+	 * Reads a file directly from its revlog, without touching the working directory
+	 * 
+	 * @param e
+	 * @param path
+	 * @return The content of the file after the given event, or null if it does not exist
+	 * @throws WorkspaceException
+	 */
+	public synchronized byte[] readFile(Event e, String path) throws WorkspaceException {
+		try {
+			HgRepository repository = repoFacade.getRepository();
+			Path p = Path.create(path);
+			int changesetIndex = repository.getChangelog().getRevisionIndex(Nodeid.fromAscii(e.getNativeId()));
+			Nodeid fileRevision = repository.getManifest().getFileRevision(changesetIndex, p);
+			if (fileRevision == null || fileRevision.isNull()) return null;
+
+			byte[] content = fileCache.get(fileRevision);
+			if (content == null) {
+				HgDataFile dataFile = repository.getFileNode(p);
+				if (!dataFile.exists()) return null;
+				final ByteArrayOutputStream out = new ByteArrayOutputStream();
+				dataFile.content(dataFile.getRevisionIndex(fileRevision), new ByteChannel() {
+					@Override
+					public int write(ByteBuffer buffer) {
+						int length = buffer.remaining();
+						while (buffer.hasRemaining())
+							out.write(buffer.get());
+						return length;
+					}
+				});
+				content = out.toByteArray();
+				fileCache.put(fileRevision, content);
+			}
+			return content;
+		} catch (CancelledException | HgRuntimeException ex) {
+			throw new WorkspaceException(ex);
+		}
+	}
+
+	@Override
+	public String getFileContentAfter(Action action) {
+		if (action.getKind().equals(ActionKind.Delete)) return null;
+		byte[] content = readFile(action.getEvent(), action.getItem().getNativeId());
+		return content == null ? null : new String(content);
+	}
+
 	@Override
-	public void update(Event e, Item i) throws WorkspaceException {
-		if(lastEvent==null || lastEvent!=e)
-			update(e);
+	public String getFileContentBefore(Action action) {
+		if (action.getKind().equals(ActionKind.Create) || action.getParentEvent() == null) return null;
+		byte[] content = readFile(action.getParentEvent(), action.getItem().getNativeId());
+		return content == null ? null : new String(content);
 	}
 	
 	@Override
@@ -4,14 +4,22 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.tmatesoft.svn.core.ISVNLogEntryHandler;
 import org.tmatesoft.svn.core.SVNException;
 import org.tmatesoft.svn.core.SVNLogEntry;
 import org.tmatesoft.svn.core.SVNLogEntryPath;
 import org.tmatesoft.svn.core.SVNNodeKind;
+import org.tmatesoft.svn.core.io.SVNRepository;
+import org.tmatesoft.svn.core.wc.SVNClientManager;
 import org.tmatesoft.svn.core.wc.SVNRevision;
 
 import fr.labri.harmony.core.config.model.SourceConfiguration;
@@ -24,6 +32,7 @@ import fr.labri.harmony.core.model.Event;
 import fr.labri.harmony.core.model.Item;
 import fr.labri.harmony.core.model.Source;
 import fr.labri.harmony.core.source.AbstractSourceExtractor;
+import fr.labri.harmony.core.source.SourceExtractorException;
 
 /**
  * @see http://svnkit.com/javadoc/
@@ -32,7 +41,19 @@ import fr.labri.harmony.core.source.AbstractSourceExtractor;
  * 
  */
 
-public class SvnKitSourceExtractor extends AbstractSourceExtractor<SvnKitWorkspace> implements ISVNLogEntryHandler {
+public class SvnKitSourceExtractor extends AbstractSourceExtractor<SvnKitWorkspace> {
+
+	/**
+	 * Source option. The number of threads reading the log, the number of processors by default.
+	 */
+	public static final String OPT_LOG_THREADS = "log-threads";
+
+	/**
+	 * Source option. The number of revisions read by each request to the server.
+	 */
+	public static final String OPT_LOG_CHUNK_SIZE = "log-chunk-size";
+
+	private static final int DEFAULT_LOG_CHUNK_SIZE = 5000;
 
 	private Event parent;
 	private boolean extractActions;
@@ -79,45 +100,59 @@ public class SvnKitSourceExtractor extends AbstractSourceExtractor<SvnKitWorkspa
 		onExtractionFinished();
 	}
 
-	@Override
-	public void handleLogEntry(SVNLogEntry logEntry) throws SVNException {
+	/**
+	 * A revision read from the log, with the paths of its changed files already relative to the url of the source
+	 */
+	private static class Revision {
+		long number;
+		String author;
+		long date;
+		String message;
+		List<String> paths = new ArrayList<>();
+		List<ActionKind> kinds = new ArrayList<>();
+	}
 
-		HashSet<Event> parents = new HashSet<>();
-		if (parent != null) {
-			parents.add(parent);
-		}
+	/**
+	 * Reads the log of a range of revisions through its own SVN session
+	 */
+	private class LogChunk implements Callable<List<Revision>>, ISVNLogEntryHandler {
 
-		String user = logEntry.getAuthor();
-		if (user == null) {
-			user = "unknown";
-		}
+		private long start;
+		private long end;
+		private String prefix;
+		private List<Revision> revisions;
 
-		Author author = modelPersister.getAuthor(source, user);
-		if (author == null) {
-			author = new Author(source, user, user);
-			modelPersister.saveAuthor(author);
+		public LogChunk(long start, long end, String prefix) {
+			this.start = start;
+			this.end = end;
+			this.prefix = prefix;
 		}
-		List<Author> authors = new ArrayList<>(Arrays.asList(new Author[] { author }));
-
-		Event e = new Event(source, String.valueOf(logEntry.getRevision()), logEntry.getDate().getTime(), parents, authors);
 
-		// TODO handle more metadata
-		Map<String, String> metadata = new HashMap<String, String>();
-		metadata.put(COMMIT_MESSAGE, logEntry.getMessage());
-		e.setMetadata(metadata);
-
-		modelPersister.saveEvent(e);
+		@Override
+		public List<Revision> call() throws SVNException {
+			revisions = new ArrayList<>();
+			SVNClientManager svnClientManager = workspace.createSvnClientManager();
+			try {
+				svnClientManager.getLogClient().doLog(workspace.getSurl(), new String[] {}, SVNRevision.HEAD, SVNRevision.create(start), SVNRevision.create(end),
+						false, extractActions, false, -1L, new String[] {}, this);
+			} finally {
+				svnClientManager.dispose();
+			}
+			return revisions;
+		}
 
-		if (extractActions) {
-			/*
-			 * Needed for the operation below
-			 */
-			String url = this.source.getUrl();
-			if (url.endsWith("/")) url = url.substring(0, url.length() - 1);
+		@Override
+		public void handleLogEntry(SVNLogEntry logEntry) throws SVNException {
+			Revision r = new Revision();
+			r.number = logEntry.getRevision();
+			r.author = logEntry.getAuthor() == null ? "unknown" : logEntry.getAuthor();
+			r.date = logEntry.getDate().getTime();
+			r.message = logEntry.getMessage();
 
-			for (SVNLogEntryPath entry : logEntry.getChangedPaths().values()) {
-				ActionKind kind = null;
-				if (entry.getKind() == SVNNodeKind.FILE) {
+			if (extractActions) {
+				for (SVNLogEntryPath entry : logEntry.getChangedPaths().values()) {
+					if (entry.getKind() != SVNNodeKind.FILE) continue;
+					ActionKind kind = null;
 					switch (entry.getType()) {
 					case SVNLogEntryPath.TYPE_MODIFIED:
 						kind = ActionKind.Edit;
@@ -131,56 +166,139 @@ public class SvnKitSourceExtractor extends AbstractSourceExtractor<SvnKitWorkspa
 					case SVNLogEntryPath.TYPE_REPLACED:
 						kind = ActionKind.Delete;
 					}
-					/*
-					 * It is possible to launch Harmony on SVN urls that have the following forms :
-					 * "url/trunk/" "url/trunk/src" "url/trunk/src/test" Problem : SVN will return
-					 * items with a path which is context-independent, for instance :
-					 * "/trunk/src/test/Test.java" whatever the url you mention. The code below will
-					 * produce items with a context-dependent path. Thus, : "url/trunk/" ->
-					 * "src/test/Test.java" "url/trunk/src" -> "test/Test.java" "url/trunk/src/test"
-					 * -> "Test.java"
-					 */
-					String path = entry.getPath();
-					if (path.startsWith("/")) path = path.substring(1);
-					String tokens[] = path.split("\\/");
-					String commonPart = "";
-					for (String token : tokens) {
-						commonPart += "/" + token;
-						if (url.endsWith(commonPart) || url.endsWith(commonPart + "/")) {
-							commonPart = commonPart.substring(1);
-							if (url.equals(commonPart) == false) {
-								path = path.substring(commonPart.length());
-							} else path = "/";
-							break;
-						}
-					}
+					String path = relativize(entry.getPath(), prefix);
 					if (extractItemWithPath(path)) {
-						Item i = modelPersister.getItem(source, path);
-						if (i == null) {
-							i = new Item(source, path);
-							modelPersister.saveItem(i);
-						}
-						Action a = new Action(i, kind, e, parent, source);
-						modelPersister.saveAction(a);
+						r.paths.add(path);
+						r.kinds.add(kind);
 					}
 				}
 			}
+			revisions.add(r);
 		}
 
-		this.parent = e;
+	}
 
+	/**
+	 * It is possible to launch Harmony on SVN urls that have the following forms : "url/trunk/" "url/trunk/src"
+	 * "url/trunk/src/test" Problem : SVN will return items with a path which is context-independent, for instance :
+	 * "/trunk/src/test/Test.java" whatever the url you mention. The prefix of the url in the repository is removed from
+	 * the paths. Thus, : "url/trunk/" -> "/src/test/Test.java" "url/trunk/src" -> "/test/Test.java"
+	 * 
+	 * @param path
+	 *            A path from the root of the repository
+	 * @param prefix
+	 *            The path of the url of the source from the root of the repository, without trailing slash
+	 */
+	private static String relativize(String path, String prefix) {
+		if (!prefix.isEmpty() && path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '/')) {
+			return path.substring(prefix.length());
+		}
+		return path.startsWith("/") ? path.substring(1) : path;
 	}
 
+	/**
+	 * Persists a revision. Revisions are saved in order, each one being the parent of the next one.
+	 */
+	private void saveRevision(Revision r) {
+		HashSet<Event> parents = new HashSet<>();
+		if (parent != null) {
+			parents.add(parent);
+		}
+
+		Author author = modelPersister.getAuthor(source, r.author);
+		if (author == null) {
+			author = new Author(source, r.author, r.author);
+			modelPersister.saveAuthor(author);
+		}
+		List<Author> authors = new ArrayList<>(Arrays.asList(new Author[] { author }));
+
+		Event e = new Event(source, String.valueOf(r.number), r.date, parents, authors);
+
+		// TODO handle more metadata
+		Map<String, String> metadata = new HashMap<String, String>();
+		metadata.put(COMMIT_MESSAGE, r.message);
+		e.setMetadata(metadata);
+
+		modelPersister.saveEvent(e);
+
+		for (int j = 0; j < r.paths.size(); j++) {
+			String path = r.paths.get(j);
+			Item i = modelPersister.getItem(source, path);
+			if (i == null) {
+				i = new Item(source, path);
+				modelPersister.saveItem(i);
+			}
+			Action a = new Action(i, r.kinds.get(j), e, parent, source);
+			modelPersister.saveAction(a);
+		}
+
+		this.parent = e;
+	}
+
+	/**
+	 * The log is split into ranges of revisions, which are read concurrently. Each range is parsed by its own thread, and
+	 * the revisions are then saved in order by the current thread.
+	 */
 	@Override
 	public void extractEvents() {
+		int threads = getIntOption(OPT_LOG_THREADS, Runtime.getRuntime().availableProcessors());
+		long chunkSize = getIntOption(OPT_LOG_CHUNK_SIZE, DEFAULT_LOG_CHUNK_SIZE);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
 		try {
-			getWorkspace().getSvnClientManager().getLogClient()
-					.doLog(workspace.getSurl(), new String[] {}, SVNRevision.HEAD, SVNRevision.create(0), SVNRevision.HEAD, false, true, false, -1L, new String[] {}, this);
+			SVNRepository repository = workspace.getSvnClientManager().createRepository(workspace.getSurl(), true);
+			long latest = repository.getLatestRevision();
+			String prefix = repository.getRepositoryPath("");
+			if (prefix.endsWith("/")) prefix = prefix.substring(0, prefix.length() - 1);
+			repository.closeSession();
+			long first = getFirstRevision();
+			HarmonyLogger.info("Reading revisions %d to %d of %s with %d threads", first, latest, getUrl(), threads);
+
+			// Only a few ranges are read ahead, so that the revisions waiting to be saved do not fill the memory
+			LinkedList<Future<List<Revision>>> pending = new LinkedList<>();
+			long next = first;
+			while (next <= latest || !pending.isEmpty()) {
+				while (next <= latest && pending.size() < 2 * threads) {
+					long end = Math.min(next + chunkSize - 1, latest);
+					pending.add(pool.submit(new LogChunk(next, end, prefix)));
+					next = end + 1;
+				}
+				for (Revision r : pending.removeFirst().get())
+					saveRevision(r);
+			}
 		} catch (SVNException e) {
-			e.printStackTrace();
+			throw new SourceExtractorException(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SourceExtractorException(e);
+		} catch (ExecutionException e) {
+			// A missing range would truncate the history
+			throw new SourceExtractorException(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+		} finally {
+			pool.shutdownNow();
 		}
 	}
 
+	/**
+	 * @return The oldest revision in the history of the url of the source
+	 */
+	private long getFirstRevision() throws SVNException {
+		final long[] first = { 0 };
+		workspace.getSvnClientManager().getLogClient()
+				.doLog(workspace.getSurl(), new String[] {}, SVNRevision.HEAD, SVNRevision.create(0), SVNRevision.HEAD, false, false, false, 1L, new String[] {},
+						new ISVNLogEntryHandler() {
+							@Override
+							public void handleLogEntry(SVNLogEntry logEntry) throws SVNException {
+								first[0] = logEntry.getRevision();
+							}
+						});
+		return first[0];
+	}
+
+	private int getIntOption(String key, int defaultValue) {
+		Object opt = getConfig().getOption(key);
+		return opt == null ? defaultValue : Integer.parseInt(opt.toString());
+	}
+
 	@Override
 	public void extractActions(Event e) {
 		// TODO
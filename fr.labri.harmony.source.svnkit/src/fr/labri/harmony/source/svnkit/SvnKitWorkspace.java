@@ -13,6 +13,7 @@ import org.tmatesoft.svn.core.wc.SVNClientManager;
 import org.tmatesoft.svn.core.wc.SVNRevision;
 
 import fr.labri.harmony.core.model.Event;
+import fr.labri.harmony.core.model.Item;
 import fr.labri.harmony.core.source.AbstractLocalWorkspace;
 import fr.labri.harmony.core.source.SourceExtractor;
 import fr.labri.harmony.core.source.WorkspaceException;
@@ -25,26 +26,39 @@ public class SvnKitWorkspace extends AbstractLocalWorkspace {
 	public SvnKitWorkspace(SourceExtractor<?> sourceExtractor) {
 		super(sourceExtractor);
 
+		svnClientManager = createSvnClientManager();
+
+		// Initialize factories
+		FSRepositoryFactory.setup();
+		DAVRepositoryFactory.setup();
+		SVNRepositoryFactoryImpl.setup();
+	}
+
+	/**
+	 * SVN client managers are not thread safe, each thread talking to the server needs its own one.
+	 * 
+	 * @return A new client manager with the credentials of the source. It must be disposed after use.
+	 */
+	public SVNClientManager createSvnClientManager() {
 		String username = sourceExtractor.getConfig().getUsername();
 		String password = sourceExtractor.getConfig().getPassword();
 
 		if (username == null || username.equals("")) {
-			svnClientManager = SVNClientManager.newInstance(new DefaultSVNOptions());
+			return SVNClientManager.newInstance(new DefaultSVNOptions());
 		} else {
 			if (password == null) {
 				password = "";
 			}
-			svnClientManager = SVNClientManager.newInstance(new DefaultSVNOptions(), username, password);
+			return SVNClientManager.newInstance(new DefaultSVNOptions(), username, password);
 		}
-
-		// Initialize factories
-		FSRepositoryFactory.setup();
-		DAVRepositoryFactory.setup();
-		SVNRepositoryFactoryImpl.setup();
 	}
 
+	/**
+	 * The history is read from the server with svn log, so there is nothing to initialize when no working copy is needed
+	 */
 	@Override
 	public boolean isInitialized() {
+		if (!getMode().hasWorkingTree()) return true;
 		try {
 			// TODO check that repo contains the correct revision
 			svnClientManager.getStatusClient().doStatus(new File(getPath()), false);
@@ -80,7 +94,7 @@ public class SvnKitWorkspace extends AbstractLocalWorkspace {
 	}
 
 	@Override
-	public void update(Event e) throws WorkspaceException {
+	protected void checkout(Event e) throws WorkspaceException {
 		try {
 			long rev = Long.parseLong(e.getNativeId());
 			svnClientManager.getUpdateClient().doUpdate(new File(getPath()), SVNRevision.create(rev), SVNDepth.INFINITY, true, true);
@@ -89,6 +103,31 @@ public class SvnKitWorkspace extends AbstractLocalWorkspace {
 		}
 	}
 
+	@Override
+	protected void checkout(Event e, Item item) throws WorkspaceException {
+		try {
+			long rev = Long.parseLong(e.getNativeId());
+			File[] paths = new File[] { new File(getPath(), item.getNativeId()) };
+			// The missing parent directories are created, so that the working copy stays consistent
+			svnClientManager.getUpdateClient().doUpdate(paths, SVNRevision.create(rev), SVNDepth.EMPTY, true, false, true);
+		} catch (SVNException ex) {
+			throw new WorkspaceException(ex);
+		}
+	}
+
+	/**
+	 * Deleted files are also removed through an update, otherwise the working copy would consider them as missing
+	 */
+	@Override
+	protected void remove(Event e, Item item) throws WorkspaceException {
+		checkout(e, item);
+	}
+
+	@Override
+	protected boolean supportsIncrementalCheckout() {
+		return true;
+	}
+
 	public SVNURL getSurl() {
 		return surl;
 	}
@@ -0,0 +1,89 @@
+package fr.labri.harmony.source.tfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HistoryPagerTest {
+
+	/**
+	 * A history of the given changesets, which rejects the queries starting after its latest changeset as TFS does
+	 */
+	private static class StubHistory implements TFSHistory {
+
+		private List<Integer> ids;
+		private List<Integer> queries = new ArrayList<>();
+
+		StubHistory(Integer... ids) {
+			this.ids = Arrays.asList(ids);
+		}
+
+		@Override
+		public int getLatestChangesetId() {
+			return ids.isEmpty() ? 0 : ids.get(ids.size() - 1);
+		}
+
+		@Override
+		public List<TFSChangeset> getChangesets(int fromChangesetId, int count) {
+			queries.add(fromChangesetId);
+			if (fromChangesetId > getLatestChangesetId())
+				throw new IllegalArgumentException("The changeset " + fromChangesetId + " does not exist");
+			List<TFSChangeset> changesets = new ArrayList<>();
+			for (int id : ids)
+				if (id >= fromChangesetId && changesets.size() < count) changesets.add(getChangeset(id));
+			return changesets;
+		}
+
+		@Override
+		public TFSChangeset getChangeset(int changesetId) {
+			return new TFSChangeset(changesetId, 0, "owner", "Owner", true, Collections.<TFSChangeset.FileChange> emptyList());
+		}
+	}
+
+	private static List<Integer> readAll(HistoryPager pager) {
+		List<Integer> read = new ArrayList<>();
+		List<TFSChangeset> page;
+		while ((page = pager.nextPage()) != null)
+			for (TFSChangeset changeset : page)
+				read.add(changeset.getId());
+		return read;
+	}
+
+	@Test
+	public void testPartialLastPage() {
+		StubHistory history = new StubHistory(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), readAll(new HistoryPager(history, 4)));
+		assertEquals(Arrays.asList(1, 5, 9), history.queries);
+	}
+
+	@Test
+	public void testFullLastPage() {
+		StubHistory history = new StubHistory(1, 2, 3, 4, 5, 6, 7, 8);
+		assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8), readAll(new HistoryPager(history, 4)));
+		// No query after the latest changeset
+		assertEquals(Arrays.asList(1, 5), history.queries);
+	}
+
+	@Test
+	public void testMissingIds() {
+		StubHistory history = new StubHistory(2, 3, 7, 11, 12);
+		assertEquals(Arrays.asList(2, 3, 7, 11, 12), readAll(new HistoryPager(history, 2)));
+		assertEquals(Arrays.asList(1, 4, 12), history.queries);
+	}
+
+	@Test
+	public void testEmptyHistory() {
+		StubHistory history = new StubHistory();
+		HistoryPager pager = new HistoryPager(history, 4);
+		assertNull(pager.nextPage());
+		assertNull(pager.nextPage());
+		assertEquals(Collections.<Integer> emptyList(), history.queries);
+	}
+
+}
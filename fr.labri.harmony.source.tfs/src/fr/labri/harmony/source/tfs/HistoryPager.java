@@ -0,0 +1,37 @@
+package fr.labri.harmony.source.tfs;
+
+import java.util.List;
+
+/**
+ * Reads a {@link TFSHistory} in ascending pages of changesets, up to the latest changeset when the pager is created.
+ * TFS rejects the queries starting after its latest changeset, so none is made.
+ */
+class HistoryPager {
+
+	private TFSHistory history;
+	private int pageSize;
+	private int latest;
+	private int next = 1;
+
+	HistoryPager(TFSHistory history, int pageSize) {
+		this.history = history;
+		this.pageSize = pageSize;
+		this.latest = history.getLatestChangesetId();
+	}
+
+	/**
+	 * @return The next changesets, or null once the whole history is read
+	 */
+	List<TFSChangeset> nextPage() {
+		if (next > latest) return null;
+		List<TFSChangeset> page = history.getChangesets(next, pageSize);
+		if (page.isEmpty()) {
+			next = latest + 1;
+			return null;
+		}
+		// A partial page is the end of the history
+		next = page.size() < pageSize ? latest + 1 : page.get(page.size() - 1).getId() + 1;
+		return page;
+	}
+
+}
@@ -0,0 +1,84 @@
+package fr.labri.harmony.source.tfs;
+
+import java.util.List;
+
+import fr.labri.harmony.core.model.ActionKind;
+
+/**
+ * A changeset of the TFS history, with the changes of its files
+ */
+public class TFSChangeset {
+
+	private int id;
+	private long time;
+	private String owner;
+	private String ownerDisplayName;
+	private boolean event;
+	private List<FileChange> changes;
+
+	public static class FileChange {
+		private String path;
+		private ActionKind kind;
+
+		public FileChange(String path, ActionKind kind) {
+			this.path = path;
+			this.kind = kind;
+		}
+
+		/**
+		 * @return The server path of the file
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		public ActionKind getKind() {
+			return kind;
+		}
+	}
+
+	/**
+	 * @param id
+	 * @param time
+	 *            The date of the changeset, in milliseconds
+	 * @param owner
+	 * @param ownerDisplayName
+	 * @param event
+	 *            Whether the changeset is an event of the history, i.e. it has changes and does not create a branch
+	 * @param changes
+	 *            The changes of the files, without the ones of the folders
+	 */
+	public TFSChangeset(int id, long time, String owner, String ownerDisplayName, boolean event, List<FileChange> changes) {
+		this.id = id;
+		this.time = time;
+		this.owner = owner;
+		this.ownerDisplayName = ownerDisplayName;
+		this.event = event;
+		this.changes = changes;
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	public long getTime() {
+		return time;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public String getOwnerDisplayName() {
+		return ownerDisplayName;
+	}
+
+	public boolean isEvent() {
+		return event;
+	}
+
+	public List<FileChange> getChanges() {
+		return changes;
+	}
+
+}
@@ -0,0 +1,30 @@
+package fr.labri.harmony.source.tfs;
+
+import java.util.List;
+
+/**
+ * The queries of the history of a TFS server path, so that they can be stubbed
+ */
+public interface TFSHistory {
+
+	/**
+	 * @return The id of the latest changeset of the server
+	 */
+	int getLatestChangesetId();
+
+	/**
+	 * @param fromChangesetId
+	 *            The id of the first changeset to return, at most {@link #getLatestChangesetId()}
+	 * @param count
+	 *            The maximum number of changesets to return
+	 * @return The changesets of the server path from the given one, in ascending order
+	 */
+	List<TFSChangeset> getChangesets(int fromChangesetId, int count);
+
+	/**
+	 * @param changesetId
+	 * @return The changeset with the given id
+	 */
+	TFSChangeset getChangeset(int changesetId);
+
+}
@@ -2,27 +2,45 @@ package fr.labri.harmony.source.tfs;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-
-import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Change;
-import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ChangeType;
-import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
-import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+import java.util.Map;
 
 import fr.labri.harmony.core.config.model.SourceConfiguration;
 import fr.labri.harmony.core.dao.ModelPersister;
 import fr.labri.harmony.core.model.Action;
-import fr.labri.harmony.core.model.ActionKind;
 import fr.labri.harmony.core.model.Author;
 import fr.labri.harmony.core.model.Event;
 import fr.labri.harmony.core.model.Item;
 import fr.labri.harmony.core.source.AbstractSourceExtractor;
+import fr.labri.harmony.source.tfs.TFSChangeset.FileChange;
 
 public class TFSSourceExtractor extends AbstractSourceExtractor<TFSWorkspace> {
 
 	private static final String COMMIT_LOG = "commit_log";
 
+	/**
+	 * Source option. The number of changesets requested at once from the server.
+	 */
+	public static final String OPT_HISTORY_PAGE_SIZE = "history-page-size";
+
+	private static final int DEFAULT_HISTORY_PAGE_SIZE = 256;
+
+	/**
+	 * The number of file changes kept from the history for the actions. The changes of the events read after are
+	 * queried again by {@link #extractActions(Event)}.
+	 */
+	private static final int MAX_KEPT_FILE_CHANGES = 100000;
+
+	/**
+	 * The changes of the files of the extracted events, by event id, until their actions are extracted
+	 */
+	private Map<String, List<FileChange>> fileChanges = new HashMap<>();
+	private int keptFileChanges;
+
+	private TFSHistory history;
+
 	public TFSSourceExtractor() {
 		super();
 	}
@@ -38,104 +56,124 @@ public class TFSSourceExtractor extends AbstractSourceExtractor<TFSWorkspace> {
 
 	}
 
+	/**
+	 * The history is read by pages, which are saved as they arrive. The changes of the files are kept, up to
+	 * {@link #MAX_KEPT_FILE_CHANGES}, so that the actions can be extracted without querying the server again.
+	 */
 	@Override
 	public void extractEvents() {
-		Changeset[] changesets = workspace.getChangeset();
+		int pageSize = getConfig().getOption(OPT_HISTORY_PAGE_SIZE) == null ? DEFAULT_HISTORY_PAGE_SIZE : Integer.parseInt(getConfig().getOption(
+				OPT_HISTORY_PAGE_SIZE).toString());
 
 		Event last = null;
+		HistoryPager pager = new HistoryPager(getHistory(), pageSize);
+		List<TFSChangeset> changesets;
+		while ((changesets = pager.nextPage()) != null) {
+			for (TFSChangeset changeset : changesets) {
+				if (changeset.isEvent()) {
+
+					int eventId = changeset.getId();
+
+					long eventTime = changeset.getTime() / 10;
+
+					// Author Identification
+					String userName = changeset.getOwner();
+					String displayName = changeset.getOwnerDisplayName();
+					Author author = modelPersister.getAuthor(source, userName);
+					if (author == null) {
+						author = new Author(source, userName, displayName);
+						modelPersister.saveAuthor(author);
+					}
+					List<Author> authors = new ArrayList<>(Arrays.asList(new Author[] { author }));
+
+					// Parent identification
+					// TODO check this definition of parent
+					HashSet<Event> parents = new HashSet<>();
+					if (last != null) parents.add(last);
+
+					Event e = new Event(source, String.valueOf(eventId), eventTime, parents, authors);
+					modelPersister.saveEvent(e);
+					if (keptFileChanges < MAX_KEPT_FILE_CHANGES) {
+						List<FileChange> changes = getFileChanges(changeset);
+						fileChanges.put(e.getNativeId(), changes);
+						keptFileChanges += changes.size();
+					}
 
-		for (int i = 0; i < changesets.length; ++i) {
-
-			Changeset changeset = changesets[i];
-
-			Change[] changes = changeset.getChanges();
-			if (changes.length != 0 && !changes[0].getChangeType().contains(ChangeType.BRANCH)) {
+					last = e;
 
-				int eventId = changeset.getChangesetID();
+					// TODO Add management metadata
+					/*
+					 * Metadata metadata = new Metadata(); metadata.getMetadata().put(COMMIT_LOG,
+					 * changeset.getComment()); metadata.getMetadata().put("committer",
+					 * changeset.getCommitter()); metadata.getMetadata().put("committer-display-name",
+					 * changeset.getCommitterDisplayName()); e.getData().add(metadata);
+					 * metadata.setHarmonyElement(e);
+					 */
 
-				long eventTime = changeset.getDate().getTimeInMillis() / 10;
+					// TODO Requirements
+					// WorkItem wi[] = changeset.getWorkItems();
 
-				// Author Identification
-				String userName = changeset.getOwner();
-				String displayName = changeset.getOwnerDisplayName();
-				Author author = modelPersister.getAuthor(source, userName);
-				if (author == null) {
-					author = new Author(source, userName, displayName);
-					modelPersister.saveAuthor(author);
 				}
-				List<Author> authors = new ArrayList<>(Arrays.asList(new Author[] { author }));
-
-				// Parent identification
-				// TODO check this definition of parent
-				HashSet<Event> parents = new HashSet<>();
-				if (last != null) parents.add(last);
-
-				Event e = new Event(source, String.valueOf(eventId), eventTime, parents, authors);
-				modelPersister.saveEvent(e);
-
-				last = e;
+			}
+		}
 
-				// TODO Add management metadata
-				/*
-				 * Metadata metadata = new Metadata(); metadata.getMetadata().put(COMMIT_LOG,
-				 * changeset.getComment()); metadata.getMetadata().put("committer",
-				 * changeset.getCommitter()); metadata.getMetadata().put("committer-display-name",
-				 * changeset.getCommitterDisplayName()); e.getData().add(metadata);
-				 * metadata.setHarmonyElement(e);
-				 */
+	}
 
-				// TODO Requirements
-				// WorkItem wi[] = changeset.getWorkItems();
+	private TFSHistory getHistory() {
+		if (history == null) history = workspace.getHistory();
+		return history;
+	}
 
-			}
+	/**
+	 * Replaces the history of the workspace, e.g. by a stub
+	 */
+	void setHistory(TFSHistory history) {
+		this.history = history;
+	}
 
+	/**
+	 * @return The changes of the files which are extracted
+	 */
+	private List<FileChange> getFileChanges(TFSChangeset changeset) {
+		List<FileChange> result = new ArrayList<>();
+		for (FileChange change : changeset.getChanges()) {
+			// String itemId = Integer.toString(change.getItem().getItemID());
+			if (extractItemWithPath(change.getPath())) result.add(change);
+			// TODO Add metadata management
+			/*
+			 * String serverPath = change.getItem().getServerItem(); Metadata metadata = new
+			 * Metadata(); metadata.getMetadata().put("server-path", serverPath);
+			 * 
+			 * i.getData().add(metadata); metadata.setHarmonyElement(i);
+			 */
 		}
-
+		return result;
 	}
 
 	@Override
 	public void extractActions(Event e) {
+		List<FileChange> changes = fileChanges.remove(e.getNativeId());
+		// The changes which were not kept, or of events which were not extracted by this extractor, have to be queried
+		if (changes == null) changes = getFileChanges(getHistory().getChangeset(Integer.parseInt(e.getNativeId())));
+		else keptFileChanges -= changes.size();
+
+		for (FileChange change : changes) {
+			Item i = modelPersister.getItem(source, change.getPath());
+			if (i == null) {
+				i = new Item(source, change.getPath());
+				modelPersister.saveItem(i);
+			}
 
-		Changeset changeset = workspace.getTFSClient().getChangeset(Integer.parseInt(e.getNativeId()));
-		Change[] changes = changeset.getChanges();
-		for (Change change : changes) {
-
-			// We do not track folders
-			if (change.getItem().getItemType().equals(ItemType.FILE)) {
-				// String itemId = Integer.toString(change.getItem().getItemID());
-				String itemId = change.getItem().getServerItem();
-				if (extractItemWithPath(itemId)) {
-					Item i = modelPersister.getItem(source, itemId);
-					if (i == null) {
-						i = new Item(source, itemId);
-						modelPersister.saveItem(i);
-					}
-
-					ActionKind kind = null;
-					ChangeType changeType = change.getChangeType();
-					if (changeType.contains(ChangeType.ADD)) kind = ActionKind.Create;
-					else if (changeType.contains(ChangeType.EDIT)) kind = ActionKind.Edit;
-					else if (changeType.contains(ChangeType.DELETE)) kind = ActionKind.Delete;
-
-					// We check if the related event has parents, if it the case we select
-					// arbitrarily the first one as parent of the action.
-					Event parentOfA = null;
-					if (e.getParents().isEmpty()) {
-						parentOfA = null;
-					} else {
-						parentOfA = e.getParents().get(0);
-					}
-					Action a = new Action(i, kind, e, parentOfA, source);
-					modelPersister.saveAction(a);
-				}
-				// TODO Add metadata management
-				/*
-				 * String serverPath = change.getItem().getServerItem(); Metadata metadata = new
-				 * Metadata(); metadata.getMetadata().put("server-path", serverPath);
-				 * 
-				 * i.getData().add(metadata); metadata.setHarmonyElement(i);
-				 */
+			// We check if the related event has parents, if it the case we select
+			// arbitrarily the first one as parent of the action.
+			Event parentOfA = null;
+			if (e.getParents().isEmpty()) {
+				parentOfA = null;
+			} else {
+				parentOfA = e.getParents().get(0);
 			}
+			Action a = new Action(i, change.getKind(), e, parentOfA, source);
+			modelPersister.saveAction(a);
 		}
 	}
 
@@ -8,12 +8,9 @@ import com.microsoft.tfs.core.clients.versioncontrol.VersionControlClient;
 import com.microsoft.tfs.core.clients.versioncontrol.WorkspaceLocation;
 import com.microsoft.tfs.core.clients.versioncontrol.WorkspacePermissionProfile;
 import com.microsoft.tfs.core.clients.versioncontrol.exceptions.WorkspaceNotFoundException;
-import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
-import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.WorkingFolder;
 import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Workspace;
 import com.microsoft.tfs.core.clients.versioncontrol.specs.version.ChangesetVersionSpec;
-import com.microsoft.tfs.core.clients.versioncontrol.specs.version.LatestVersionSpec;
 import com.microsoft.tfs.core.httpclient.Credentials;
 import com.microsoft.tfs.core.httpclient.DefaultNTCredentials;
 import com.microsoft.tfs.core.httpclient.UsernamePasswordCredentials;
@@ -93,13 +90,16 @@ public class TFSWorkspace extends AbstractLocalWorkspace {
 	}
 
 	@Override
-	public void update(Event e) throws WorkspaceException {
+	protected void checkout(Event e) throws WorkspaceException {
 		ChangesetVersionSpec version = new ChangesetVersionSpec(Integer.parseInt(e.getNativeId()));
 		tfsWorkspace.get(version, GetOptions.OVERWRITE);
 	}
 
-	public Changeset[] getChangeset() {
-		return tfsClient.queryHistory(serverPath, LatestVersionSpec.INSTANCE, 0, RecursionType.FULL, "", null, LatestVersionSpec.INSTANCE, Integer.MAX_VALUE, true, false, false, true);
+	/**
+	 * @return The history of the server path
+	 */
+	public TFSHistory getHistory() {
+		return new VersionControlHistory(tfsClient, serverPath);
 	}
 
 	@Override
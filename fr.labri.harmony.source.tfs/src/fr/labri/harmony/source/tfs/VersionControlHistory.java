@@ -0,0 +1,69 @@
+package fr.labri.harmony.source.tfs;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.microsoft.tfs.core.clients.versioncontrol.VersionControlClient;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Change;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ChangeType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.Changeset;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.ItemType;
+import com.microsoft.tfs.core.clients.versioncontrol.soapextensions.RecursionType;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.version.ChangesetVersionSpec;
+import com.microsoft.tfs.core.clients.versioncontrol.specs.version.LatestVersionSpec;
+
+import fr.labri.harmony.core.model.ActionKind;
+import fr.labri.harmony.source.tfs.TFSChangeset.FileChange;
+
+/**
+ * The history of a server path, queried with a {@link VersionControlClient}
+ */
+public class VersionControlHistory implements TFSHistory {
+
+	private VersionControlClient tfsClient;
+	private String serverPath;
+
+	public VersionControlHistory(VersionControlClient tfsClient, String serverPath) {
+		this.tfsClient = tfsClient;
+		this.serverPath = serverPath;
+	}
+
+	@Override
+	public int getLatestChangesetId() {
+		return tfsClient.getLatestChangesetID();
+	}
+
+	@Override
+	public List<TFSChangeset> getChangesets(int fromChangesetId, int count) {
+		Changeset[] changesets = tfsClient.queryHistory(serverPath, LatestVersionSpec.INSTANCE, 0, RecursionType.FULL, "", new ChangesetVersionSpec(fromChangesetId), LatestVersionSpec.INSTANCE, count, true, false, false, true);
+		List<TFSChangeset> result = new ArrayList<>();
+		if (changesets != null)
+			for (Changeset changeset : changesets)
+				result.add(convert(changeset));
+		return result;
+	}
+
+	@Override
+	public TFSChangeset getChangeset(int changesetId) {
+		return convert(tfsClient.getChangeset(changesetId));
+	}
+
+	private static TFSChangeset convert(Changeset changeset) {
+		Change[] changes = changeset.getChanges();
+		boolean event = changes.length != 0 && !changes[0].getChangeType().contains(ChangeType.BRANCH);
+		List<FileChange> fileChanges = new ArrayList<>();
+		for (Change change : changes) {
+			// We do not track folders
+			if (change.getItem().getItemType().equals(ItemType.FILE)) {
+				ActionKind kind = null;
+				ChangeType changeType = change.getChangeType();
+				if (changeType.contains(ChangeType.ADD)) kind = ActionKind.Create;
+				else if (changeType.contains(ChangeType.EDIT)) kind = ActionKind.Edit;
+				else if (changeType.contains(ChangeType.DELETE)) kind = ActionKind.Delete;
+				fileChanges.add(new FileChange(change.getItem().getServerItem(), kind));
+			}
+		}
+		return new TFSChangeset(changeset.getChangesetID(), changeset.getDate().getTimeInMillis(), changeset.getOwner(), changeset.getOwnerDisplayName(), event, fileChanges);
+	}
+
+}